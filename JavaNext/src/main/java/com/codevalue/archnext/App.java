@@ -1,23 +1,202 @@
 package com.codevalue.archnext;
 
 import org.telegram.telegrambots.ApiContextInitializer;
+import org.telegram.telegrambots.bots.DefaultAbsSender;
+import org.telegram.telegrambots.bots.TelegramLongPollingBot;
 import org.telegram.telegrambots.meta.TelegramBotsApi;
+import org.telegram.telegrambots.meta.api.objects.Update;
 import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+import org.telegram.telegrambots.util.WebhookUtils;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 public class App
 {
+    private static final long CLUSTER_LEAVE_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    // tells the training runs of the builds, which fail to register on purpose, from the failures before that
+    private static final int FAILED_TO_REGISTER_EXIT_CODE = 2;
+
+    // routes the polled updates to the workers instead of handling them
+    private static class IngressBot extends TelegramLongPollingBot {
+        private final ClusterIngress ingress;
+
+        IngressBot(ClusterIngress ingress) {
+            super(TriviaBot.createBotOptions());
+            this.ingress = ingress;
+        }
+
+        @Override
+        public String getBotUsername() {
+            return BotConfig.getBotName();
+        }
+
+        @Override
+        public String getBotToken() {
+            return BotConfig.getBotToken();
+        }
+
+        @Override
+        public void onUpdateReceived(Update update) {
+            ingress.route(update);
+        }
+    }
+
     public static void main( String[] args ) {
+        if (System.getProperty("org.graalvm.nativeimage.imagecode") != null) {
+            // the bytecode Guice generates for the telegrambots context can't be loaded by a native image
+            System.setProperty("guice_bytecode_gen_option", "DISABLED");
+        }
+
+        var exitCode = 1;
         try {
             ApiContextInitializer.init();
             var botsApi = new TelegramBotsApi();
             try {
-                botsApi.registerBot(new TriviaBot());
+                switch (BotConfig.getClusterRole()) {
+                    case STANDALONE -> startStandalone(botsApi);
+                    case INGRESS -> startIngress(botsApi);
+                    case WORKER -> startWorker();
+                }
             } catch (TelegramApiException e) {
                 System.out.println("Failed to register the trivia bot");
                 e.printStackTrace();
+                exitCode = FAILED_TO_REGISTER_EXIT_CODE;
             }
         } catch (Exception e) {
             e.printStackTrace();
         }
+
+        // the bot has failed to start, the successful starts have exited on being started
+        if (BotConfig.isExitAfterStartup()) {
+            System.exit(exitCode);
+        }
+    }
+
+    private static void startStandalone(TelegramBotsApi botsApi) throws IOException, TelegramApiException {
+        var bot = new TriviaBot();
+        bot.restoreSessions();
+        Runtime.getRuntime().addShutdownHook(new Thread(bot::snapshotSessions, "sessions-snapshot-on-exit"));
+        startMetricsServer(bot.getMetrics());
+        switch (BotConfig.getIngestionMode()) {
+            case LONG_POLLING -> botsApi.registerBot(bot);
+            case WEBHOOK -> startWebhook(bot, bot::onUpdateReceived, bot.getMetrics());
+        }
+        onStarted();
+    }
+
+    // receives the updates as the standalone bot does, but only routes them
+    private static void startIngress(TelegramBotsApi botsApi) throws IOException, TelegramApiException {
+        var ingress = new ClusterIngress(
+                BotConfig.getClusterPort(),
+                BotConfig.getClusterPartitions(),
+                BotConfig.getClusterQueueCapacity()
+        );
+        ingress.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(ingress::stop, "cluster-ingress-stop"));
+        var metrics = new Metrics();
+        ingress.registerMetrics(metrics);
+        startMetricsServer(metrics);
+
+        var bot = new IngressBot(ingress);
+        switch (BotConfig.getIngestionMode()) {
+            case LONG_POLLING -> botsApi.registerBot(bot);
+            case WEBHOOK -> startWebhook(bot, ingress::route, metrics);
+        }
+        onStarted();
+    }
+
+    // the sessions of a worker are handed off when it leaves, rather than snapshotted, as its partitions change
+    private static void startWorker() throws IOException, InterruptedException {
+        var bot = new TriviaBot();
+        startMetricsServer(bot.getMetrics());
+
+        var ingress = BotConfig.getClusterIngress();
+        var separator = ingress.lastIndexOf(':');
+        var worker = new ClusterWorker(
+                BotConfig.getClusterNodeId(),
+                ingress.substring(0, separator),
+                Integer.parseInt(ingress.substring(separator + 1)),
+                BotConfig.getClusterQueueCapacity(),
+                bot
+        );
+        worker.registerMetrics(bot.getMetrics());
+        worker.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> leaveCluster(worker), "cluster-leave-on-exit"));
+        onStarted();
+
+        // nothing is left to do once the ingress is gone, the worker is restarted to join the cluster again
+        worker.awaitDisconnect();
+        System.exit(1);
+    }
+
+    // the time from the process start, which includes the JVM startup, unlike the uptime of the runtime MXBean
+    private static void onStarted() {
+        ProcessHandle.current().info().startInstant().ifPresent(start -> System.out.println(
+                "Started in " + Duration.between(start, Instant.now()).toMillis() + " ms"
+        ));
+        if (BotConfig.isExitAfterStartup()) {
+            System.exit(0);
+        }
+    }
+
+    private static void leaveCluster(ClusterWorker worker) {
+        try {
+            if (!worker.leave(CLUSTER_LEAVE_TIMEOUT_MILLIS)) {
+                System.out.println("Timed out handing off the sessions on leaving the cluster");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void startMetricsServer(Metrics metrics) throws IOException {
+        if (BotConfig.getMetricsPort() <= 0) return;
+
+        var server = new MetricsServer(BotConfig.getMetricsHost(), BotConfig.getMetricsPort(), metrics);
+        server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop, "metrics-server-stop"));
+    }
+
+    private static void startWebhook(
+            DefaultAbsSender bot,
+            Consumer<Update> updatesHandler,
+            Metrics metrics
+    ) throws IOException, TelegramApiRequestException {
+        var server = new WebhookServer(
+                BotConfig.getWebhookHost(),
+                BotConfig.getWebhookPort(),
+                BotConfig.getWebhookPath(),
+                BotConfig.getWebhookSecretToken().orElse(null),
+                BotConfig.getWebhookThreads(),
+                updatesHandler
+        );
+        server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop, "webhook-server-stop"));
+        metrics.counter(
+                "triviabot_webhook_updates_total",
+                Metrics.labels(Metrics.label("result", "received")),
+                "The updates posted to the webhook",
+                server::getReceivedCount
+        );
+        metrics.counter(
+                "triviabot_webhook_updates_total",
+                Metrics.labels(Metrics.label("result", "rejected")),
+                "The updates posted to the webhook",
+                server::getRejectedCount
+        );
+
+        // the path isn't logged, as it is the secret of the webhook unless configured
+        var url = BotConfig.getWebhookUrl();
+        if (url.isPresent()) {
+            WebhookUtils.setWebhook(bot, url.get().replaceAll("/+$", "") + BotConfig.getWebhookPath(), null);
+            System.out.println("Registered the webhook at " + url.get());
+        } else if (!BotConfig.isWebhookPathConfigured()) {
+            System.out.println("Neither WEBHOOK_URL nor WEBHOOK_PATH is set, so nothing can post to the webhook's random path");
+        }
     }
 }
@@ -0,0 +1,149 @@
+package com.codevalue.archnext;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Approximate {@link SeenQuestions}: a scalable Bloom filter, i.e. a chain of Bloom filters where each next one
+ * is twice as large as the previous one and has half of its false positive rate, so the total false positive
+ * rate never exceeds the configured one however many questions are added. A false positive only means that
+ * an unseen question is skipped, the seen questions are always reported as such.
+ */
+public class BloomSeenQuestions implements SeenQuestions {
+    static final byte SERIALIZED_TYPE = 2;
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int ARRAY_HEADER_BYTES = 16;
+
+    private static final class Filter {
+        final long[] bits;
+        final int bitsCount;
+        final int hashesCount;
+        final int capacity;
+        int size;
+
+        Filter(int capacity, double falsePositiveRate) {
+            this(capacity, new long[(int) Math.ceil(optimalBitsCount(capacity, falsePositiveRate) / Long.SIZE)]);
+        }
+
+        Filter(int capacity, long[] bits) {
+            this.capacity = capacity;
+            this.bits = bits;
+            bitsCount = bits.length * Long.SIZE;
+            hashesCount = Math.max(1, (int) Math.round(bitsCount / (double) capacity * Math.log(2)));
+        }
+
+        static double optimalBitsCount(int capacity, double falsePositiveRate) {
+            return -capacity * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+        }
+
+        // the bit indexes are derived from the two halves of the fingerprint (Kirsch-Mitzenmacher)
+        boolean contains(long fingerprint) {
+            var hash = (int) fingerprint;
+            var step = (int) (fingerprint >>> 32) | 1;
+            for (int i = 0; i < hashesCount; i++, hash += step) {
+                var bit = Math.floorMod(hash, bitsCount);
+                if ((bits[bit >>> 6] & (1L << bit)) == 0) return false;
+            }
+
+            return true;
+        }
+
+        void add(long fingerprint) {
+            var hash = (int) fingerprint;
+            var step = (int) (fingerprint >>> 32) | 1;
+            for (int i = 0; i < hashesCount; i++, hash += step) {
+                var bit = Math.floorMod(hash, bitsCount);
+                bits[bit >>> 6] |= 1L << bit;
+            }
+
+            size++;
+        }
+    }
+
+    private final double falsePositiveRate;
+    private final List<Filter> filters = new ArrayList<>(1);
+
+    public BloomSeenQuestions(double falsePositiveRate) {
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("Invalid false positive rate: " + falsePositiveRate);
+        }
+
+        this.falsePositiveRate = falsePositiveRate;
+    }
+
+    @Override
+    public boolean contains(long fingerprint) {
+        for (int i = 0; i < filters.size(); i++) {
+            if (filters.get(i).contains(fingerprint)) return true;
+        }
+
+        return false;
+    }
+
+    @Override
+    public void add(long fingerprint) {
+        if (contains(fingerprint)) return;
+
+        var filter = filters.isEmpty() ? null : filters.get(filters.size() - 1);
+        if (filter == null || filter.size >= filter.capacity) {
+            // the rates of the filters are rate/2, rate/4, ..., so their sum stays below the configured rate
+            filter = new Filter(INITIAL_CAPACITY << filters.size(), falsePositiveRate / (2L << filters.size()));
+            filters.add(filter);
+        }
+
+        filter.add(fingerprint);
+    }
+
+    @Override
+    public long getFootprintBytes() {
+        var footprint = 0L;
+        for (var filter : filters) {
+            footprint += (long) filter.bits.length * Long.BYTES + ARRAY_HEADER_BYTES;
+        }
+
+        return footprint;
+    }
+
+    // the type, the rate, the filters count and every filter's capacity, size and bits
+    @Override
+    public int getSerializedSize() {
+        var size = Byte.BYTES + Double.BYTES + Integer.BYTES;
+        for (var filter : filters) {
+            size += Integer.BYTES * 3 + filter.bits.length * Long.BYTES;
+        }
+
+        return size;
+    }
+
+    @Override
+    public void writeTo(ByteBuffer buffer) {
+        buffer.put(SERIALIZED_TYPE).putDouble(falsePositiveRate).putInt(filters.size());
+        for (var filter : filters) {
+            buffer.putInt(filter.capacity).putInt(filter.size).putInt(filter.bits.length);
+            for (var word : filter.bits) {
+                buffer.putLong(word);
+            }
+        }
+    }
+
+    static BloomSeenQuestions readFrom(ByteBuffer buffer) {
+        var seenQuestions = new BloomSeenQuestions(buffer.getDouble());
+        var filtersCount = buffer.getInt();
+        for (int i = 0; i < filtersCount; i++) {
+            var capacity = buffer.getInt();
+            var size = buffer.getInt();
+            var bits = new long[buffer.getInt()];
+            for (int j = 0; j < bits.length; j++) {
+                bits[j] = buffer.getLong();
+            }
+
+            var filter = new Filter(capacity, bits);
+            filter.size = size;
+            seenQuestions.filters.add(filter);
+        }
+
+        return seenQuestions;
+    }
+}
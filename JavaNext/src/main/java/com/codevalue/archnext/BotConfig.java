@@ -1,16 +1,374 @@
 package com.codevalue.archnext;
 
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 
 public class BotConfig {
+    public enum DispatchMode {
+        // updates are handled on the thread they are received on
+        INLINE,
+        // every update is handled on its own virtual thread, sequentially per user
+        VIRTUAL_THREADS
+    }
+
+    public enum IngestionMode {
+        // the bot polls Telegram for the updates
+        LONG_POLLING,
+        // Telegram pushes the updates to the embedded webhook server
+        WEBHOOK
+    }
+
+    public enum ClusterRole {
+        // a single node receiving and handling all the updates
+        STANDALONE,
+        // receives the updates and routes them to the workers by their users' partitions
+        INGRESS,
+        // handles the updates of its partitions, routed by the ingress
+        WORKER
+    }
+
+    public enum SeenQuestionsMode {
+        // exact 64-bit fingerprints of the seen questions
+        FINGERPRINTS,
+        // a Bloom filter, smaller, but skipping some unseen questions with the configured false positive rate
+        BLOOM_FILTER
+    }
+
     private static final String BOT_NAME_VAR_NAME = "BOT_NAME";
     private static final String BOT_TOKEN_VAR_NAME = "BOT_TOKEN";
+    private static final String TRIVIA_API_URL_VAR_NAME = "TRIVIA_API_URL";
+    private static final String TRIVIA_API_SESSION_TOKENS_VAR_NAME = "TRIVIA_API_SESSION_TOKENS";
+    private static final String TRIVIA_API_CONNECT_TIMEOUT_MILLIS_VAR_NAME = "TRIVIA_API_CONNECT_TIMEOUT_MILLIS";
+    private static final String TRIVIA_API_READ_TIMEOUT_MILLIS_VAR_NAME = "TRIVIA_API_READ_TIMEOUT_MILLIS";
+    private static final String QUESTION_FIXTURES_PATH_VAR_NAME = "QUESTION_FIXTURES_PATH";
+    private static final String DISPATCH_MODE_VAR_NAME = "DISPATCH_MODE";
+    private static final String INGESTION_MODE_VAR_NAME = "INGESTION_MODE";
+    private static final String WEBHOOK_URL_VAR_NAME = "WEBHOOK_URL";
+    private static final String WEBHOOK_HOST_VAR_NAME = "WEBHOOK_HOST";
+    private static final String WEBHOOK_PORT_VAR_NAME = "WEBHOOK_PORT";
+    private static final String WEBHOOK_PATH_VAR_NAME = "WEBHOOK_PATH";
+    private static final String WEBHOOK_SECRET_TOKEN_VAR_NAME = "WEBHOOK_SECRET_TOKEN";
+    private static final String WEBHOOK_THREADS_VAR_NAME = "WEBHOOK_THREADS";
+    private static final String RESERVOIR_LOW_WATERMARK_VAR_NAME = "RESERVOIR_LOW_WATERMARK";
+    private static final String RESERVOIR_HIGH_WATERMARK_VAR_NAME = "RESERVOIR_HIGH_WATERMARK";
+    private static final String MAX_SESSIONS_VAR_NAME = "MAX_SESSIONS";
+    private static final String SESSION_IDLE_TIMEOUT_MINUTES_VAR_NAME = "SESSION_IDLE_TIMEOUT_MINUTES";
+    private static final String QUESTION_CORPUS_PATH_VAR_NAME = "QUESTION_CORPUS_PATH";
+    private static final String SESSION_SNAPSHOT_PATH_VAR_NAME = "SESSION_SNAPSHOT_PATH";
+    private static final String SESSION_SNAPSHOT_INTERVAL_SECONDS_VAR_NAME = "SESSION_SNAPSHOT_INTERVAL_SECONDS";
+    private static final String SEEN_QUESTIONS_MODE_VAR_NAME = "SEEN_QUESTIONS_MODE";
+    private static final String SEEN_QUESTIONS_FALSE_POSITIVE_RATE_VAR_NAME = "SEEN_QUESTIONS_FALSE_POSITIVE_RATE";
+    private static final String OUTBOUND_QUEUE_CAPACITY_VAR_NAME = "OUTBOUND_QUEUE_CAPACITY";
+    private static final String OUTBOUND_MAX_IN_FLIGHT_VAR_NAME = "OUTBOUND_MAX_IN_FLIGHT";
+    private static final String OUTBOUND_GLOBAL_RATE_VAR_NAME = "OUTBOUND_GLOBAL_RATE";
+    private static final String OUTBOUND_CHAT_RATE_VAR_NAME = "OUTBOUND_CHAT_RATE";
+    private static final String OUTBOUND_CHAT_BURST_VAR_NAME = "OUTBOUND_CHAT_BURST";
+    private static final String OUTBOUND_MAX_CHAT_PENDING_VAR_NAME = "OUTBOUND_MAX_CHAT_PENDING";
+    private static final String MAX_PENDING_POLLS_VAR_NAME = "MAX_PENDING_POLLS";
+    private static final String POLL_ANSWER_TIMEOUT_MINUTES_VAR_NAME = "POLL_ANSWER_TIMEOUT_MINUTES";
+    private static final String MAX_SCORES_VAR_NAME = "MAX_SCORES";
+    private static final String SCORE_IDLE_TIMEOUT_DAYS_VAR_NAME = "SCORE_IDLE_TIMEOUT_DAYS";
+    private static final String METRICS_HOST_VAR_NAME = "METRICS_HOST";
+    private static final String METRICS_PORT_VAR_NAME = "METRICS_PORT";
+    private static final String CLUSTER_ROLE_VAR_NAME = "CLUSTER_ROLE";
+    private static final String CLUSTER_PORT_VAR_NAME = "CLUSTER_PORT";
+    private static final String CLUSTER_INGRESS_VAR_NAME = "CLUSTER_INGRESS";
+    private static final String CLUSTER_NODE_ID_VAR_NAME = "CLUSTER_NODE_ID";
+    private static final String CLUSTER_PARTITIONS_VAR_NAME = "CLUSTER_PARTITIONS";
+    private static final String CLUSTER_QUEUE_CAPACITY_VAR_NAME = "CLUSTER_QUEUE_CAPACITY";
+    private static final String TELEGRAM_API_URL_VAR_NAME = "TELEGRAM_API_URL";
+    private static final String EXIT_AFTER_STARTUP_VAR_NAME = "EXIT_AFTER_STARTUP";
 
     public static String getBotName() {
-        return Optional.ofNullable(System.getenv(BOT_NAME_VAR_NAME)).orElse("j25trivia_bot");
+        return getVar(BOT_NAME_VAR_NAME).orElse("j25trivia_bot");
     }
 
     public static String getBotToken() {
-        return System.getenv(BOT_TOKEN_VAR_NAME);
+        return getVar(BOT_TOKEN_VAR_NAME).orElse(null);
+    }
+
+    /**
+     * The trivia API servers in their order of preference, separated by commas in the variable.
+     */
+    public static List<String> getTriviaApiUrls() {
+        var urls = new ArrayList<String>();
+        for (var url : getVar(TRIVIA_API_URL_VAR_NAME).orElse("https://opentdb.com/api.php").split(",")) {
+            if (!url.isBlank()) {
+                urls.add(url.trim());
+            }
+        }
+
+        return urls;
+    }
+
+    /**
+     * Whether the questions are requested with the trivia API session tokens, so the API doesn't return the
+     * questions it has already returned.
+     */
+    public static boolean isTriviaApiSessionTokensEnabled() {
+        return getVar(TRIVIA_API_SESSION_TOKENS_VAR_NAME).map(Boolean::parseBoolean).orElse(true);
+    }
+
+    public static int getTriviaApiConnectTimeoutMillis() {
+        return getIntVar(TRIVIA_API_CONNECT_TIMEOUT_MILLIS_VAR_NAME, 5000);
+    }
+
+    // the time a trivia API request waits for the response before failing
+    public static int getTriviaApiReadTimeoutMillis() {
+        return getIntVar(TRIVIA_API_READ_TIMEOUT_MILLIS_VAR_NAME, 10_000);
+    }
+
+    /**
+     * The file holding a trivia API response whose questions are served when no trivia API answers in time.
+     */
+    public static Optional<String> getQuestionFixturesPath() {
+        return getVar(QUESTION_FIXTURES_PATH_VAR_NAME).filter(path -> !path.isBlank());
+    }
+
+    // the webhook handlers run concurrently, so the webhook updates are always dispatched in order per user
+    public static DispatchMode getDispatchMode() {
+        if (getIngestionMode() == IngestionMode.WEBHOOK) return DispatchMode.VIRTUAL_THREADS;
+
+        return getVar(DISPATCH_MODE_VAR_NAME)
+                .map(mode -> DispatchMode.valueOf(mode.toUpperCase().replace('-', '_')))
+                .orElse(DispatchMode.INLINE);
+    }
+
+    public static IngestionMode getIngestionMode() {
+        return getVar(INGESTION_MODE_VAR_NAME)
+                .map(mode -> IngestionMode.valueOf(mode.toUpperCase().replace('-', '_')))
+                .orElse(IngestionMode.LONG_POLLING);
+    }
+
+    /**
+     * The public URL of the webhook server, which the webhook path is appended to when registering the webhook on
+     * startup, or an empty optional when the webhook is registered by other means, e.g. by the reverse proxy
+     * deployment.
+     */
+    public static Optional<String> getWebhookUrl() {
+        return getVar(WEBHOOK_URL_VAR_NAME).filter(url -> !url.isBlank());
+    }
+
+    public static String getWebhookHost() {
+        return getVar(WEBHOOK_HOST_VAR_NAME).orElse("0.0.0.0");
+    }
+
+    public static int getWebhookPort() {
+        return getIntVar(WEBHOOK_PORT_VAR_NAME, 8443);
+    }
+
+    /**
+     * The path the updates are posted to. Unless configured, it ends with a random secret generated on startup,
+     * so only Telegram, which the webhook is registered with, knows it.
+     */
+    public static String getWebhookPath() {
+        return getVar(WEBHOOK_PATH_VAR_NAME).orElse(GeneratedWebhookPath.PATH);
+    }
+
+    public static boolean isWebhookPathConfigured() {
+        return getVar(WEBHOOK_PATH_VAR_NAME).isPresent();
+    }
+
+    /**
+     * The secret Telegram sends in the X-Telegram-Bot-Api-Secret-Token header, when the webhook is registered
+     * with one by other means, as the Bot API of the telegrambots version doesn't have it.
+     */
+    public static Optional<String> getWebhookSecretToken() {
+        return getVar(WEBHOOK_SECRET_TOKEN_VAR_NAME).filter(token -> !token.isBlank());
+    }
+
+    public static int getWebhookThreads() {
+        return getIntVar(WEBHOOK_THREADS_VAR_NAME, Runtime.getRuntime().availableProcessors());
+    }
+
+    public static int getReservoirLowWatermark() {
+        return getIntVar(RESERVOIR_LOW_WATERMARK_VAR_NAME, 100);
+    }
+
+    public static int getReservoirHighWatermark() {
+        return getIntVar(RESERVOIR_HIGH_WATERMARK_VAR_NAME, 500);
+    }
+
+    public static int getMaxSessions() {
+        return getIntVar(MAX_SESSIONS_VAR_NAME, 1_000_000);
+    }
+
+    public static int getSessionIdleTimeoutMinutes() {
+        return getIntVar(SESSION_IDLE_TIMEOUT_MINUTES_VAR_NAME, 24 * 60);
+    }
+
+    /**
+     * The questions corpus file, or an empty optional when the corpus is disabled by setting the variable to
+     * an empty value.
+     */
+    public static Optional<String> getQuestionCorpusPath() {
+        return getVar(QUESTION_CORPUS_PATH_VAR_NAME)
+                .or(() -> Optional.of("questions.corpus"))
+                .filter(path -> !path.isBlank());
+    }
+
+    /**
+     * The sessions snapshot file, or an empty optional when the snapshots are disabled by setting the variable
+     * to an empty value.
+     */
+    public static Optional<String> getSessionSnapshotPath() {
+        return getVar(SESSION_SNAPSHOT_PATH_VAR_NAME)
+                .or(() -> Optional.of("sessions.snapshot"))
+                .filter(path -> !path.isBlank());
+    }
+
+    public static int getSessionSnapshotIntervalSeconds() {
+        return getIntVar(SESSION_SNAPSHOT_INTERVAL_SECONDS_VAR_NAME, 300);
+    }
+
+    public static SeenQuestionsMode getSeenQuestionsMode() {
+        return getVar(SEEN_QUESTIONS_MODE_VAR_NAME)
+                .map(mode -> SeenQuestionsMode.valueOf(mode.toUpperCase().replace('-', '_')))
+                .orElse(SeenQuestionsMode.FINGERPRINTS);
+    }
+
+    public static double getSeenQuestionsFalsePositiveRate() {
+        return getDoubleVar(SEEN_QUESTIONS_FALSE_POSITIVE_RATE_VAR_NAME, 0.001);
+    }
+
+    public static int getOutboundQueueCapacity() {
+        return getIntVar(OUTBOUND_QUEUE_CAPACITY_VAR_NAME, 10_000);
+    }
+
+    public static int getOutboundMaxInFlight() {
+        return getIntVar(OUTBOUND_MAX_IN_FLIGHT_VAR_NAME, 64);
+    }
+
+    /**
+     * Messages per second sent by the whole bot, 0 for no limit.
+     */
+    public static double getOutboundGlobalRate() {
+        return getDoubleVar(OUTBOUND_GLOBAL_RATE_VAR_NAME, 30);
+    }
+
+    /**
+     * Messages per second sent to a single chat, 0 for no limit.
+     */
+    public static double getOutboundChatRate() {
+        return getDoubleVar(OUTBOUND_CHAT_RATE_VAR_NAME, 1);
+    }
+
+    public static int getOutboundChatBurst() {
+        return getIntVar(OUTBOUND_CHAT_BURST_VAR_NAME, 3);
+    }
+
+    /**
+     * The replies held for a single chat waiting for its tokens, the chat's further replies are dropped beyond it.
+     */
+    public static int getOutboundMaxChatPending() {
+        return getIntVar(OUTBOUND_MAX_CHAT_PENDING_VAR_NAME, 20);
+    }
+
+    /**
+     * The quiz polls awaiting their answers, the oldest ones are not scored beyond it.
+     */
+    public static int getMaxPendingPolls() {
+        return getIntVar(MAX_PENDING_POLLS_VAR_NAME, 100_000);
+    }
+
+    public static int getPollAnswerTimeoutMinutes() {
+        return getIntVar(POLL_ANSWER_TIMEOUT_MINUTES_VAR_NAME, 60);
+    }
+
+    public static int getMaxScores() {
+        return getIntVar(MAX_SCORES_VAR_NAME, 1_000_000);
+    }
+
+    public static int getScoreIdleTimeoutDays() {
+        return getIntVar(SCORE_IDLE_TIMEOUT_DAYS_VAR_NAME, 30);
+    }
+
+    // the metrics are served locally by default
+    public static String getMetricsHost() {
+        return getVar(METRICS_HOST_VAR_NAME).orElse("127.0.0.1");
+    }
+
+    // 0 for not serving the metrics over HTTP, they are still exposed over JMX
+    public static int getMetricsPort() {
+        return getIntVar(METRICS_PORT_VAR_NAME, 9464);
+    }
+
+    public static ClusterRole getClusterRole() {
+        return getVar(CLUSTER_ROLE_VAR_NAME)
+                .map(role -> ClusterRole.valueOf(role.toUpperCase().replace('-', '_')))
+                .orElse(ClusterRole.STANDALONE);
+    }
+
+    // the port the ingress accepts the workers on
+    public static int getClusterPort() {
+        return getIntVar(CLUSTER_PORT_VAR_NAME, 7400);
+    }
+
+    /**
+     * The host:port of the ingress the worker joins the cluster through.
+     */
+    public static String getClusterIngress() {
+        return getVar(CLUSTER_INGRESS_VAR_NAME).orElse("127.0.0.1:" + getClusterPort());
+    }
+
+    /**
+     * The id of the worker in the cluster, which decides the partitions it owns, so a worker restarted with
+     * the same id gets the same partitions back. Should be set on deployments of several machines.
+     */
+    public static String getClusterNodeId() {
+        return getVar(CLUSTER_NODE_ID_VAR_NAME).orElse("worker-" + ProcessHandle.current().pid());
+    }
+
+    // the sessions are handed off a partition at a time, it can't be changed without restarting the whole cluster
+    public static int getClusterPartitions() {
+        return getIntVar(CLUSTER_PARTITIONS_VAR_NAME, 1024);
+    }
+
+    // the frames queued for sending to a node of the cluster
+    public static int getClusterQueueCapacity() {
+        return getIntVar(CLUSTER_QUEUE_CAPACITY_VAR_NAME, 1000);
+    }
+
+    /**
+     * The base URL of the Telegram Bot API the bot token and the methods are appended to, ending with "/bot" as
+     * https://api.telegram.org/bot does, e.g. of a local Bot API server, or of a stub for the startup measurements.
+     */
+    public static Optional<String> getTelegramApiUrl() {
+        return getVar(TELEGRAM_API_URL_VAR_NAME).filter(url -> !url.isBlank());
+    }
+
+    // exits once the bot is registered, e.g. for the AppCDS training run and the startup measurements
+    public static boolean isExitAfterStartup() {
+        return getVar(EXIT_AFTER_STARTUP_VAR_NAME).map(Boolean::parseBoolean).orElse(false);
+    }
+
+    private static final class GeneratedWebhookPath {
+        static final String PATH = "/updates/" + generateSecret();
+
+        private static String generateSecret() {
+            var bytes = new byte[16];
+            new SecureRandom().nextBytes(bytes);
+            var secret = new StringBuilder(bytes.length * 2);
+            for (var b : bytes) {
+                secret.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+
+            return secret.toString();
+        }
+    }
+
+    private static int getIntVar(String varName, int defaultValue) {
+        return getVar(varName).map(Integer::parseInt).orElse(defaultValue);
+    }
+
+    private static double getDoubleVar(String varName, double defaultValue) {
+        return getVar(varName).map(Double::parseDouble).orElse(defaultValue);
+    }
+
+    // the system properties of the same names are used when there are no environment variables, e.g. in JMH forks
+    private static Optional<String> getVar(String varName) {
+        return Optional.ofNullable(System.getenv(varName)).or(() -> Optional.ofNullable(System.getProperty(varName)));
     }
 }
@@ -0,0 +1,233 @@
+package com.codevalue.archnext;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A connection between the ingress node and a worker node, carrying the frames of the cluster protocol: the frame
+ * length, its type and the payload. The frames are sent in the order they are passed to {@link #send} by a writer
+ * thread, which flushes the socket only when it runs out of frames, so a burst of updates takes a few writes.
+ * The capacity of the queue of the frames to send holds the senders back when the peer doesn't keep up, as the updates
+ * polling is held back by the outbound pipeline in the standalone mode, while the senders which can't wait, holding
+ * a lock, either try to queue the frame and wait for the room without the lock, or queue it over the capacity.
+ * <p>
+ * The received frames are passed to the handler on the reader thread, in their order, and the close handler is
+ * called once the connection is closed, by either side or by an I/O error.
+ */
+public class ClusterConnection {
+    // worker to ingress: the node id of the worker joining the cluster
+    public static final byte HELLO = 1;
+    // ingress to worker: the update as Telegram's JSON
+    public static final byte UPDATE = 2;
+    // ingress to worker: the partitions the worker owns from now on
+    public static final byte ASSIGN = 3;
+    // both ways: the users' states of a partition released by its former owner, relayed to its new owner
+    public static final byte HANDOFF = 4;
+    // worker to ingress: the worker is leaving the cluster, once it has handed off its partitions
+    public static final byte LEAVE = 5;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    // small enough for the backpressure of the bounded queue to reach the sender without megabytes of updates
+    // waiting in the kernel buffers, the receive buffer is set on the sockets before they are connected
+    public static final int SOCKET_BUFFER_SIZE = 1 << 16;
+    private static final int MAX_FRAME_LENGTH = 1 << 30;
+    private static final byte[] CLOSE = new byte[0];
+    private static final long ROOM_POLL_MILLIS = 100;
+
+    public interface FrameHandler {
+        void handle(byte type, byte[] payload) throws IOException, InterruptedException;
+    }
+
+    private final Socket socket;
+    private final String name;
+    private final FrameHandler frameHandler;
+    private final Runnable closeHandler;
+    private final BlockingQueue<byte[]> frames = new LinkedBlockingQueue<>();
+    private final int queueCapacity;
+    private final AtomicBoolean isClosed = new AtomicBoolean();
+    private final Object roomMonitor = new Object();
+    private volatile int roomWaitersCount;
+
+    public ClusterConnection(Socket socket, String name, int queueCapacity, FrameHandler frameHandler, Runnable closeHandler)
+            throws SocketException {
+        this.socket = socket;
+        this.name = name;
+        this.frameHandler = frameHandler;
+        this.closeHandler = closeHandler;
+        this.queueCapacity = queueCapacity;
+        socket.setTcpNoDelay(true);
+        socket.setSendBufferSize(SOCKET_BUFFER_SIZE);
+    }
+
+    public void start() {
+        startThread("cluster-reader-" + name, this::read);
+        startThread("cluster-writer-" + name, this::write);
+    }
+
+    /**
+     * Queues the frame, waiting for the room in the queue if it is full. The frames sent after the connection
+     * is closed are dropped.
+     */
+    public void send(byte type, byte[] payload) throws InterruptedException {
+        var frame = toFrame(type, payload);
+        while (!tryQueue(frame)) {
+            awaitRoom();
+        }
+    }
+
+    /**
+     * Queues the frame unless the queue is full, returning false then. The concurrent senders may take the queue
+     * a frame each over the capacity. The frames sent after the connection is closed are dropped.
+     */
+    public boolean trySend(byte type, byte[] payload) {
+        return tryQueue(toFrame(type, payload));
+    }
+
+    /**
+     * Queues the frame even if the queue is full, for the senders which can't wait, as the membership changes
+     * of the ingress. The frames sent after the connection is closed are dropped.
+     */
+    public void sendWithoutWaiting(byte type, byte[] payload) {
+        if (isClosed.get()) return;
+
+        frames.add(toFrame(type, payload));
+    }
+
+    /**
+     * Waits till the queue has room or the connection is closed.
+     */
+    public void awaitRoom() throws InterruptedException {
+        synchronized (roomMonitor) {
+            roomWaitersCount++;
+            try {
+                while (!isClosed.get() && frames.size() >= queueCapacity) {
+                    roomMonitor.wait(ROOM_POLL_MILLIS);
+                }
+            } finally {
+                roomWaitersCount--;
+            }
+        }
+    }
+
+    /**
+     * Closes the connection once the frames queued so far are sent.
+     */
+    public void closeGracefully() {
+        frames.add(CLOSE);
+    }
+
+    public void close() {
+        if (!isClosed.compareAndSet(false, true)) return;
+
+        try {
+            socket.close();
+        } catch (IOException e) {
+            System.out.println("Failed to close the cluster connection " + name + ": " + e);
+        }
+
+        // wakes the writer and the senders waiting for the room up
+        frames.clear();
+        frames.offer(CLOSE);
+        signalRoom();
+        closeHandler.run();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getQueuedFramesCount() {
+        return frames.size();
+    }
+
+    private void read() {
+        try (var input = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE))) {
+            while (true) {
+                int length;
+                try {
+                    length = input.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+
+                if (length < 1 || length > MAX_FRAME_LENGTH) throw new IOException("Invalid frame length: " + length);
+
+                var type = input.readByte();
+                var payload = new byte[length - 1];
+                input.readFully(payload);
+                frameHandler.handle(type, payload);
+            }
+        } catch (IOException | RuntimeException e) {
+            if (!isClosed.get()) {
+                System.out.println("The cluster connection " + name + " failed: " + e);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            close();
+        }
+    }
+
+    private void write() {
+        try (var output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE))) {
+            while (true) {
+                var frame = frames.take();
+                do {
+                    if (frame == CLOSE) return;
+
+                    output.writeInt(frame.length);
+                    output.write(frame);
+                } while ((frame = frames.poll()) != null);
+
+                signalRoom();
+                output.flush();
+            }
+        } catch (IOException e) {
+            if (!isClosed.get()) {
+                System.out.println("The cluster connection " + name + " failed: " + e);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            close();
+        }
+    }
+
+    private boolean tryQueue(byte[] frame) {
+        if (isClosed.get()) return true;
+        if (frames.size() >= queueCapacity) return false;
+
+        frames.add(frame);
+        return true;
+    }
+
+    private static byte[] toFrame(byte type, byte[] payload) {
+        var frame = new byte[payload.length + 1];
+        frame[0] = type;
+        System.arraycopy(payload, 0, frame, 1, payload.length);
+        return frame;
+    }
+
+    private void signalRoom() {
+        if (roomWaitersCount > 0) {
+            synchronized (roomMonitor) {
+                roomMonitor.notifyAll();
+            }
+        }
+    }
+
+    private static void startThread(String name, Runnable runnable) {
+        var thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
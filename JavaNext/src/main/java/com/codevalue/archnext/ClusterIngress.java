@@ -0,0 +1,438 @@
+package com.codevalue.archnext;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The ingress node of the cluster: receives the updates, by long polling or on the webhook, and routes every one
+ * of them to the worker node owning the partition of the update's user, so all the updates of a user are
+ * handled by the node holding the user's session, in the order they were received.
+ * <p>
+ * The workers join the cluster by connecting to the ingress and leave it by asking to or by disconnecting.
+ * On every membership change the partitions are reassigned by the {@link PartitionRing}, and the former owner
+ * of every moved partition releases the sessions and the scores of its users, which are relayed to the new owner.
+ * The updates of a partition being handed off are held till its handoff arrives, then sent after it, so the new
+ * owner handles them with the sessions adopted. The partitions of a worker which disconnected without leaving
+ * move without their sessions, their users start over as after an eviction.
+ * <p>
+ * The routing takes the read lock of the membership only, the membership changes and the handoffs are handled
+ * by a single thread under the write lock. Neither waits for a worker's queue under the lock: the routing only tries
+ * to queue the update there and waits for the room outside of it, and the membership thread queues its frames
+ * over the capacity, so a closing connection never waits for the routers blocked on it.
+ */
+public class ClusterIngress {
+    // the annotated fields only, as Telegram sends them, without the convenience getters of the API objects
+    private static final ObjectWriter UPDATE_WRITER = new ObjectMapper()
+            .setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.NONE)
+            .setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY)
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+            .writerFor(Update.class);
+    private static final int POINTS_PER_NODE = 128;
+
+    private static final class Worker {
+        final ClusterConnection connection;
+        // set once the worker has said hello, the rest is guarded by the write lock
+        String nodeId;
+        // the partitions the worker has been assigned
+        BitSet partitions = new BitSet();
+        // the partitions the worker has released and hasn't handed off yet
+        final BitSet pendingHandoffs = new BitSet();
+
+        Worker(ClusterConnection connection) {
+            this.connection = connection;
+        }
+    }
+
+    private final ServerSocket serverSocket;
+    private final int partitionsCount;
+    private final int queueCapacity;
+    private final ExecutorService membershipExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        var thread = new Thread(runnable, "cluster-membership");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ReadWriteLock membershipLock = new ReentrantReadWriteLock();
+    // the state below is guarded by the membership lock
+    private final List<Worker> workers = new ArrayList<>();
+    // the workers in the ring, without the leaving ones
+    private final Map<String, Worker> members = new LinkedHashMap<>();
+    private PartitionRing ring;
+    private Worker[] partitionOwners;
+    // the released partitions whose handoffs haven't arrived yet, per partition
+    private final int[] pendingHandoffsCounts;
+    // the updates of the partitions being handed off, guarded by the lists themselves as well
+    private final List<List<byte[]>> heldUpdates = new ArrayList<>();
+    private final LongAdder routedCount = new LongAdder();
+    private final LongAdder heldCount = new LongAdder();
+    private final LongAdder droppedCount = new LongAdder();
+    private final LongAdder handoffsCount = new LongAdder();
+    private final LongAdder handoffBytesCount = new LongAdder();
+    private final LongAdder membershipChangesCount = new LongAdder();
+
+    public ClusterIngress(int port, int partitionsCount, int queueCapacity) throws IOException {
+        this.partitionsCount = partitionsCount;
+        this.queueCapacity = queueCapacity;
+        ring = new PartitionRing(List.of(), partitionsCount, POINTS_PER_NODE);
+        partitionOwners = new Worker[partitionsCount];
+        pendingHandoffsCounts = new int[partitionsCount];
+        for (int partition = 0; partition < partitionsCount; partition++) {
+            heldUpdates.add(new ArrayList<>());
+        }
+
+        serverSocket = new ServerSocket();
+        serverSocket.setReceiveBufferSize(ClusterConnection.SOCKET_BUFFER_SIZE);
+        serverSocket.bind(new InetSocketAddress(port));
+    }
+
+    public void start() {
+        var acceptor = new Thread(this::accept, "cluster-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        System.out.println("Accepting the cluster workers on port " + getPort());
+    }
+
+    public void stop() {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            System.out.println("Failed to close the cluster server socket: " + e);
+        }
+
+        List<Worker> connectedWorkers;
+        membershipLock.readLock().lock();
+        try {
+            connectedWorkers = new ArrayList<>(workers);
+        } finally {
+            membershipLock.readLock().unlock();
+        }
+
+        connectedWorkers.forEach(worker -> worker.connection.close());
+        membershipExecutor.shutdown();
+    }
+
+    // the actual port when started on port 0
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Sends the update to the worker owning its user's partition, waiting while the worker's queue is full.
+     * The updates without a user, which the bot ignores anyway, are spread over the partitions by their ids.
+     */
+    public void route(Update update) {
+        byte[] json;
+        try {
+            json = UPDATE_WRITER.writeValueAsBytes(update);
+        } catch (JsonProcessingException e) {
+            System.out.println("Failed to serialize update " + update.getUpdateId() + ": " + e.getOriginalMessage());
+            droppedCount.increment();
+            return;
+        }
+
+        var userId = getUserId(update);
+        while (true) {
+            Worker owner;
+            membershipLock.readLock().lock();
+            try {
+                var partition = ring.partitionOf(userId != null ? userId : update.getUpdateId());
+                if (pendingHandoffsCounts[partition] > 0) {
+                    var held = heldUpdates.get(partition);
+                    synchronized (held) {
+                        held.add(json);
+                    }
+                    heldCount.increment();
+                    return;
+                }
+
+                owner = partitionOwners[partition];
+                if (owner == null) {
+                    droppedCount.increment();
+                    return;
+                }
+
+                // queued under the lock, so a handoff starting after the lookup is sent after the update
+                if (owner.connection.trySend(ClusterConnection.UPDATE, json)) {
+                    routedCount.increment();
+                    return;
+                }
+            } finally {
+                membershipLock.readLock().unlock();
+            }
+
+            // the partition may move meanwhile, so it is looked up again
+            try {
+                owner.connection.awaitRoom();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    public void registerMetrics(Metrics metrics) {
+        metrics.counter("triviabot_cluster_routed_updates_total", "The updates sent to the workers", routedCount::sum);
+        metrics.counter(
+                "triviabot_cluster_held_updates_total",
+                "The updates held till the handoffs of their partitions",
+                heldCount::sum
+        );
+        metrics.counter(
+                "triviabot_cluster_dropped_updates_total",
+                "The updates dropped for having no workers to handle them",
+                droppedCount::sum
+        );
+        metrics.counter("triviabot_cluster_handoffs_total", "The partitions handed off between the workers", handoffsCount::sum);
+        metrics.counter(
+                "triviabot_cluster_handoff_bytes_total",
+                "The users' states relayed by the handoffs",
+                handoffBytesCount::sum
+        );
+        metrics.counter(
+                "triviabot_cluster_membership_changes_total",
+                "The workers joining and leaving the cluster",
+                membershipChangesCount::sum
+        );
+        metrics.gauge("triviabot_cluster_workers", "The workers in the ring", this::getWorkersCount);
+        metrics.gauge("triviabot_cluster_pending_handoffs", "The partitions being handed off", this::getPendingHandoffsCount);
+    }
+
+    public int getWorkersCount() {
+        membershipLock.readLock().lock();
+        try {
+            return members.size();
+        } finally {
+            membershipLock.readLock().unlock();
+        }
+    }
+
+    public int getPendingHandoffsCount() {
+        membershipLock.readLock().lock();
+        try {
+            var count = 0;
+            for (var pendingCount : pendingHandoffsCounts) {
+                if (pendingCount > 0) {
+                    count++;
+                }
+            }
+
+            return count;
+        } finally {
+            membershipLock.readLock().unlock();
+        }
+    }
+
+    public long getRoutedCount() {
+        return routedCount.sum();
+    }
+
+    public long getHeldCount() {
+        return heldCount.sum();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    public long getHandoffsCount() {
+        return handoffsCount.sum();
+    }
+
+    public long getHandoffBytesCount() {
+        return handoffBytesCount.sum();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                var socket = serverSocket.accept();
+                var worker = new Worker[1];
+                var connection = new ClusterConnection(
+                        socket,
+                        socket.getRemoteSocketAddress().toString(),
+                        queueCapacity,
+                        (type, payload) -> membershipExecutor.execute(() -> handleFrame(worker[0], type, payload)),
+                        () -> membershipExecutor.execute(() -> handleDisconnect(worker[0]))
+                );
+                worker[0] = new Worker(connection);
+                connection.start();
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    System.out.println("Failed to accept a cluster worker: " + e);
+                }
+            }
+        }
+    }
+
+    private void handleFrame(Worker worker, byte type, byte[] payload) {
+        membershipLock.writeLock().lock();
+        try {
+            switch (type) {
+                case ClusterConnection.HELLO -> join(worker, new String(payload, StandardCharsets.UTF_8));
+                case ClusterConnection.HANDOFF -> relayHandoff(worker, payload);
+                case ClusterConnection.LEAVE -> leave(worker);
+                default -> System.out.println("Unexpected frame " + type + " from the worker " + worker.nodeId);
+            }
+        } finally {
+            membershipLock.writeLock().unlock();
+        }
+    }
+
+    private void join(Worker worker, String nodeId) {
+        if (worker.nodeId != null || members.containsKey(nodeId)) {
+            System.out.println("Rejected the worker " + nodeId + " from " + worker.connection.getName() + ", it has already joined");
+            worker.connection.close();
+            return;
+        }
+
+        worker.nodeId = nodeId;
+        workers.add(worker);
+        members.put(nodeId, worker);
+        System.out.println("The worker " + nodeId + " joined from " + worker.connection.getName());
+        rebalance();
+    }
+
+    private void leave(Worker worker) {
+        if (worker.nodeId == null || members.remove(worker.nodeId) == null) return;
+
+        System.out.println("The worker " + worker.nodeId + " is leaving");
+        var hasPartitions = !worker.partitions.isEmpty();
+        rebalance();
+        // a worker without partitions has nothing to hand off, so it is let go right away
+        if (!hasPartitions) {
+            worker.connection.sendWithoutWaiting(ClusterConnection.ASSIGN, encodeAssignment(worker.partitions));
+        }
+    }
+
+    private void handleDisconnect(Worker worker) {
+        membershipLock.writeLock().lock();
+        try {
+            if (!workers.remove(worker)) return;
+
+            System.out.println("The worker " + worker.nodeId + " disconnected");
+            // the handoffs it hasn't sent are lost
+            for (var partition = worker.pendingHandoffs.nextSetBit(0); partition >= 0;
+                 partition = worker.pendingHandoffs.nextSetBit(partition + 1)) {
+                completeHandoff(partition);
+            }
+
+            if (members.remove(worker.nodeId) != null) {
+                rebalance();
+            }
+        } finally {
+            membershipLock.writeLock().unlock();
+        }
+    }
+
+    // assigns the partitions by the new ring, every worker losing some of them is to hand them off
+    private void rebalance() {
+        membershipChangesCount.increment();
+        ring = new PartitionRing(new ArrayList<>(members.keySet()), partitionsCount, POINTS_PER_NODE);
+        var owners = new Worker[partitionsCount];
+        for (int partition = 0; partition < partitionsCount; partition++) {
+            var owner = ring.ownerOf(partition);
+            owners[partition] = owner != null ? members.get(owner) : null;
+        }
+        partitionOwners = owners;
+
+        for (var worker : workers) {
+            var partitions = ring.getPartitionsOf(worker.nodeId);
+            if (partitions.equals(worker.partitions)) continue;
+
+            var released = (BitSet) worker.partitions.clone();
+            released.andNot(partitions);
+            for (var partition = released.nextSetBit(0); partition >= 0; partition = released.nextSetBit(partition + 1)) {
+                worker.pendingHandoffs.set(partition);
+                pendingHandoffsCounts[partition]++;
+            }
+
+            worker.partitions = partitions;
+            worker.connection.sendWithoutWaiting(ClusterConnection.ASSIGN, encodeAssignment(partitions));
+        }
+    }
+
+    // the handoff starts with the partition, followed by the users' states the ingress doesn't look into
+    private void relayHandoff(Worker worker, byte[] payload) {
+        var partition = ByteBuffer.wrap(payload).getInt();
+        if (!worker.pendingHandoffs.get(partition)) return;
+
+        worker.pendingHandoffs.clear(partition);
+        handoffsCount.increment();
+        handoffBytesCount.add(payload.length);
+        var owner = partitionOwners[partition];
+        if (owner != null && payload.length > Integer.BYTES) {
+            owner.connection.sendWithoutWaiting(ClusterConnection.HANDOFF, payload);
+        }
+
+        completeHandoff(partition);
+    }
+
+    // sends the held updates once the partition's last pending handoff has been relayed
+    private void completeHandoff(int partition) {
+        if (--pendingHandoffsCounts[partition] > 0) return;
+
+        var held = heldUpdates.get(partition);
+        List<byte[]> updates;
+        synchronized (held) {
+            updates = new ArrayList<>(held);
+            held.clear();
+        }
+
+        var owner = partitionOwners[partition];
+        for (var update : updates) {
+            if (owner == null) {
+                droppedCount.increment();
+                continue;
+            }
+
+            owner.connection.sendWithoutWaiting(ClusterConnection.UPDATE, update);
+            routedCount.increment();
+        }
+    }
+
+    // the partitions count, so the workers compute the partitions of their users the same way, and the partitions
+    private byte[] encodeAssignment(BitSet partitions) {
+        var bytes = new ByteArrayOutputStream();
+        try (var output = new DataOutputStream(bytes)) {
+            output.writeInt(partitionsCount);
+            output.writeInt(partitions.cardinality());
+            for (var partition = partitions.nextSetBit(0); partition >= 0; partition = partitions.nextSetBit(partition + 1)) {
+                output.writeInt(partition);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    private static Long getUserId(Update update) {
+        if (update.hasMessage() && update.getMessage().getFrom() != null) return (long) update.getMessage().getFrom().getId();
+        if (update.hasPollAnswer() && update.getPollAnswer().getUser() != null) {
+            return (long) update.getPollAnswer().getUser().getId();
+        }
+        return null;
+    }
+}
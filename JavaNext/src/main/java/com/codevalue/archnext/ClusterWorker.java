@@ -0,0 +1,237 @@
+package com.codevalue.archnext;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A worker node of the cluster: joins the cluster through the {@link ClusterIngress} and handles the updates
+ * of the users of its partitions with its own bot, which sends the replies to Telegram itself.
+ * <p>
+ * The frames of the ingress are handled one by one on the connection's reader thread: the updates are passed
+ * to the bot as the long polling does, and when an assignment takes partitions away, the sessions and the scores
+ * of their users are released by the bot and handed off, a frame per partition, to be relayed to their new owners.
+ */
+public class ClusterWorker {
+    private static final ObjectReader UPDATE_READER = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+            .readerFor(Update.class);
+    private static final int ABSENT_STATE_LENGTH = -1;
+
+    private final String nodeId;
+    private final String ingressHost;
+    private final int ingressPort;
+    private final int queueCapacity;
+    private final TriviaBot bot;
+    private final CountDownLatch disconnected = new CountDownLatch(1);
+    private ClusterConnection connection;
+    // only accessed by the frames handler
+    private BitSet partitions = new BitSet();
+    private int partitionsCount;
+    private volatile int ownedPartitionsCount;
+    private volatile boolean isLeaving;
+    private final LongAdder updatesCount = new LongAdder();
+    private final LongAdder releasedUsersCount = new LongAdder();
+    private final LongAdder adoptedUsersCount = new LongAdder();
+
+    public ClusterWorker(String nodeId, String ingressHost, int ingressPort, int queueCapacity, TriviaBot bot) {
+        this.nodeId = nodeId;
+        this.ingressHost = ingressHost;
+        this.ingressPort = ingressPort;
+        this.queueCapacity = queueCapacity;
+        this.bot = bot;
+    }
+
+    public void start() throws IOException, InterruptedException {
+        var socket = new Socket();
+        socket.setReceiveBufferSize(ClusterConnection.SOCKET_BUFFER_SIZE);
+        socket.connect(new InetSocketAddress(ingressHost, ingressPort));
+        connection = new ClusterConnection(
+                socket,
+                nodeId,
+                queueCapacity,
+                this::handleFrame,
+                this::handleDisconnect
+        );
+        connection.start();
+        connection.send(ClusterConnection.HELLO, nodeId.getBytes(StandardCharsets.UTF_8));
+        System.out.println("Joining the cluster at " + ingressHost + ":" + ingressPort + " as " + nodeId);
+    }
+
+    /**
+     * Leaves the cluster once all the partitions are handed off, returns whether it happened within the timeout.
+     */
+    public boolean leave(long timeoutMillis) throws InterruptedException {
+        isLeaving = true;
+        connection.send(ClusterConnection.LEAVE, new byte[0]);
+        return disconnected.await(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void awaitDisconnect() throws InterruptedException {
+        disconnected.await();
+    }
+
+    public void registerMetrics(Metrics metrics) {
+        metrics.counter("triviabot_cluster_received_updates_total", "The updates received from the ingress", updatesCount::sum);
+        metrics.counter(
+                "triviabot_cluster_released_users_total",
+                "The users handed off to the other workers",
+                releasedUsersCount::sum
+        );
+        metrics.counter(
+                "triviabot_cluster_adopted_users_total",
+                "The users handed off by the other workers",
+                adoptedUsersCount::sum
+        );
+        metrics.gauge("triviabot_cluster_partitions", "The partitions owned by the worker", () -> ownedPartitionsCount);
+    }
+
+    public long getUpdatesCount() {
+        return updatesCount.sum();
+    }
+
+    public long getReleasedUsersCount() {
+        return releasedUsersCount.sum();
+    }
+
+    public long getAdoptedUsersCount() {
+        return adoptedUsersCount.sum();
+    }
+
+    public int getPartitionsCount() {
+        return ownedPartitionsCount;
+    }
+
+    private void handleFrame(byte type, byte[] payload) throws InterruptedException {
+        switch (type) {
+            case ClusterConnection.UPDATE -> handleUpdate(payload);
+            case ClusterConnection.ASSIGN -> assign(ByteBuffer.wrap(payload));
+            case ClusterConnection.HANDOFF -> adopt(ByteBuffer.wrap(payload));
+            default -> System.out.println("Unexpected frame " + type + " from the ingress");
+        }
+    }
+
+    private void handleUpdate(byte[] payload) {
+        Update update;
+        try {
+            update = UPDATE_READER.readValue(payload);
+        } catch (JsonProcessingException e) {
+            System.out.println("Received a malformed update: " + e.getOriginalMessage());
+            return;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        updatesCount.increment();
+        bot.onUpdateReceived(update);
+    }
+
+    private void assign(ByteBuffer assignment) throws InterruptedException {
+        partitionsCount = assignment.getInt();
+        var assigned = new BitSet(partitionsCount);
+        var count = assignment.getInt();
+        for (int i = 0; i < count; i++) {
+            assigned.set(assignment.getInt());
+        }
+
+        var released = partitions;
+        released.andNot(assigned);
+        partitions = assigned;
+        ownedPartitionsCount = count;
+        if (!released.isEmpty()) {
+            handOff(released);
+        }
+
+        if (isLeaving && assigned.isEmpty()) {
+            connection.closeGracefully();
+        }
+    }
+
+    // every released partition is handed off, even without users, so the ingress knows it is done
+    private void handOff(BitSet released) throws InterruptedException {
+        var handoffs = new HashMap<Integer, ByteArrayOutputStream>();
+        for (var partition = released.nextSetBit(0); partition >= 0; partition = released.nextSetBit(partition + 1)) {
+            var handoff = new ByteArrayOutputStream();
+            handoff.writeBytes(ByteBuffer.allocate(Integer.BYTES).putInt(partition).array());
+            handoffs.put(partition, handoff);
+        }
+
+        var releasedCount = new int[1];
+        bot.releaseUsers(
+                userId -> released.get(PartitionRing.partitionOf(userId, partitionsCount)),
+                (userId, session, score) -> {
+                    var handoff = handoffs.get(PartitionRing.partitionOf(userId, partitionsCount));
+                    try {
+                        var output = new DataOutputStream(handoff);
+                        output.writeLong(userId);
+                        writeState(output, session);
+                        writeState(output, score);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    releasedCount[0]++;
+                }
+        );
+
+        for (var handoff : handoffs.values()) {
+            connection.send(ClusterConnection.HANDOFF, handoff.toByteArray());
+        }
+
+        releasedUsersCount.add(releasedCount[0]);
+        System.out.println("Handed off " + releasedCount[0] + " users of " + handoffs.size() + " partitions");
+    }
+
+    private void adopt(ByteBuffer handoff) {
+        handoff.getInt();
+        while (handoff.hasRemaining()) {
+            var userId = handoff.getLong();
+            var session = readState(handoff);
+            var score = readState(handoff);
+            bot.adoptUser(userId, session, score);
+            adoptedUsersCount.increment();
+        }
+    }
+
+    private void handleDisconnect() {
+        if (!isLeaving) {
+            System.out.println("Lost the connection to the cluster ingress");
+        }
+
+        disconnected.countDown();
+    }
+
+    private static void writeState(DataOutputStream output, ByteBuffer state) throws IOException {
+        if (state == null) {
+            output.writeInt(ABSENT_STATE_LENGTH);
+            return;
+        }
+
+        output.writeInt(state.remaining());
+        output.write(state.array(), state.arrayOffset() + state.position(), state.remaining());
+    }
+
+    private static ByteBuffer readState(ByteBuffer handoff) {
+        var length = handoff.getInt();
+        if (length == ABSENT_STATE_LENGTH) return null;
+
+        var state = handoff.slice().limit(length);
+        handoff.position(handoff.position() + length);
+        return state;
+    }
+}
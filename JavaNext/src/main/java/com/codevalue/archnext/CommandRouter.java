@@ -0,0 +1,105 @@
+package com.codevalue.archnext;
+
+import java.util.Map;
+
+/**
+ * Routes the command messages, e.g. {@code /next@j25trivia_bot history}, to their handlers through a table
+ * precomputed on construction. The command token is matched in place, without taking a substring of it,
+ * and the arguments are taken out of the text only by the commands having them, so routing doesn't allocate.
+ * The commands addressed to other bots, as happens in groups, are not routed at all.
+ * <p>
+ * Immutable, so it is safe to be shared by the dispatching threads.
+ */
+public final class CommandRouter<H> {
+    private static final char BOT_NAME_SEPARATOR = '@';
+
+    private final String botName;
+    // open addressing tables of the command names, e.g. "/next", and their handlers
+    private final String[] names;
+    private final H[] handlers;
+    private final int mask;
+    private final H unknownCommandHandler;
+
+    @SuppressWarnings("unchecked")
+    public CommandRouter(String botName, Map<String, H> commandHandlers, H unknownCommandHandler) {
+        this.botName = botName;
+        this.unknownCommandHandler = unknownCommandHandler;
+
+        // at most half full, so the probe sequences stay short
+        var capacity = Integer.highestOneBit(Math.max(8, commandHandlers.size() * 4 - 1));
+        names = new String[capacity];
+        handlers = (H[]) new Object[capacity];
+        mask = capacity - 1;
+        for (var entry : commandHandlers.entrySet()) {
+            var name = entry.getKey();
+            var index = slot(name, name.length());
+            while (names[index] != null) {
+                index = (index + 1) & mask;
+            }
+
+            names[index] = name;
+            handlers[index] = entry.getValue();
+        }
+    }
+
+    /**
+     * The handler of the command the text starts with, the unknown command handler for the commands not in
+     * the table, or null when the command is addressed to another bot.
+     */
+    public H route(String text) {
+        var tokenEnd = text.indexOf(' ');
+        if (tokenEnd < 0) {
+            tokenEnd = text.length();
+        }
+
+        var nameEnd = text.indexOf(BOT_NAME_SEPARATOR);
+        if (nameEnd < 0 || nameEnd > tokenEnd) {
+            nameEnd = tokenEnd;
+        } else if (!isAddressedToBot(text, nameEnd + 1, tokenEnd)) {
+            return null;
+        }
+
+        var index = slot(text, nameEnd);
+        String name;
+        while ((name = names[index]) != null) {
+            if (name.length() == nameEnd && text.startsWith(name)) return handlers[index];
+
+            index = (index + 1) & mask;
+        }
+
+        return unknownCommandHandler;
+    }
+
+    /**
+     * The command's arguments, without the surrounding whitespace, taken out of the text only when there are any.
+     */
+    public static String getArguments(String text) {
+        var start = text.indexOf(' ');
+        if (start < 0) return "";
+
+        var end = text.length();
+        while (end > start && text.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        while (start < end && text.charAt(start) <= ' ') {
+            start++;
+        }
+
+        return start == end ? "" : text.substring(start, end);
+    }
+
+    // the bot names are case insensitive, though they are mostly written as they are registered
+    private boolean isAddressedToBot(String text, int start, int end) {
+        return end - start == botName.length() && (
+                text.regionMatches(start, botName, 0, botName.length()) ||
+                        text.regionMatches(true, start, botName, 0, botName.length())
+        );
+    }
+
+    // by the length and the first letter of the command name, which tell the few commands apart without going
+    // over the whole name
+    private int slot(String text, int nameLength) {
+        var hash = nameLength * 31 + (nameLength > 1 ? text.charAt(1) : 0);
+        return (hash ^ (hash >>> 4)) & mask;
+    }
+}
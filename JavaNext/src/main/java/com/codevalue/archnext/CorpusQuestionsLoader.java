@@ -0,0 +1,109 @@
+package com.codevalue.archnext;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.function.LongPredicate;
+
+/**
+ * Serves the questions from the local {@link QuestionCorpus}, going to the remote loader only once all of them
+ * were served, to grow the corpus. When the remote loader fails or brings no new questions, the corpus is
+ * served again from its beginning, so the bot keeps going while the remote API is down or rate limiting.
+ */
+public class CorpusQuestionsLoader implements QuestionReservoir.QuestionsLoader {
+    // the remote questions are appended to the corpus by a thread of its own, off the threads the remote loader
+    // completes on, which parse the responses of all the loaders
+    private static final Executor APPENDS_EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+        var thread = new Thread(runnable, "question-corpus-appends");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final QuestionCorpus corpus;
+    private final QuestionReservoir.QuestionsLoader remoteLoader;
+    // the index of the next question to serve from the corpus, guarded by this
+    private int nextIndex;
+
+    public CorpusQuestionsLoader(QuestionCorpus corpus, QuestionReservoir.QuestionsLoader remoteLoader) {
+        this.corpus = corpus;
+        this.remoteLoader = remoteLoader;
+    }
+
+    @Override
+    public CompletableFuture<List<TriviaQuestion>> load(int amount) {
+        return load(amount, fingerprint -> false);
+    }
+
+    /**
+     * Skips the remote questions already in the corpus as well, as these were served already.
+     */
+    @Override
+    public CompletableFuture<List<TriviaQuestion>> load(int amount, LongPredicate isKnown) {
+        var local = readNext(amount, false);
+        if (local != null) return local;
+
+        return remoteLoader.load(amount, isKnown.or(corpus::contains))
+                .thenApplyAsync(questions -> {
+                    var appended = appendToCorpus(questions);
+                    synchronized (this) {
+                        // either the appended questions are being served right now, or the remote API has nothing
+                        // new, so the next load serves the corpus from its beginning
+                        if (appended >= 0) {
+                            nextIndex = appended > 0 ? corpus.size() : 0;
+                        }
+                    }
+
+                    return questions;
+                }, APPENDS_EXECUTOR)
+                .exceptionallyCompose(throwable -> {
+                    var fallback = readNext(amount, true);
+                    return fallback != null ? fallback : CompletableFuture.failedFuture(throwable);
+                });
+    }
+
+    /**
+     * The corpus isn't indexed, so the filtered questions are always loaded by the remote loader. These are
+     * appended to the corpus as well, while the corpus keeps being served from where it was.
+     */
+    @Override
+    public CompletableFuture<List<TriviaQuestion>> load(int amount, QuestionFilter filter, LongPredicate isKnown) {
+        if (filter.isAny()) return load(amount, isKnown);
+
+        return remoteLoader.load(amount, filter, isKnown.or(corpus::contains)).thenApplyAsync(questions -> {
+            appendToCorpus(questions);
+            return questions;
+        }, APPENDS_EXECUTOR);
+    }
+
+    // returns the amount of the questions appended, -1 when they couldn't be
+    private int appendToCorpus(List<TriviaQuestion> questions) {
+        try {
+            return corpus.append(questions);
+        } catch (IOException e) {
+            System.out.println("Failed to append the questions to the corpus: " + e);
+            e.printStackTrace();
+            return -1;
+        }
+    }
+
+    // returns null when there is nothing left to serve from the corpus
+    private synchronized CompletableFuture<List<TriviaQuestion>> readNext(int amount, boolean isFromBeginning) {
+        var size = corpus.size();
+        if (isFromBeginning && nextIndex >= size) {
+            nextIndex = 0;
+        }
+
+        if (nextIndex >= size) return null;
+
+        try {
+            var to = Math.min(size, nextIndex + amount);
+            var questions = corpus.read(nextIndex, to);
+            nextIndex = to;
+            return CompletableFuture.completedFuture(questions);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+}
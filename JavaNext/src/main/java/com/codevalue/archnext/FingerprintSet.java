@@ -0,0 +1,126 @@
+package com.codevalue.archnext;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Exact {@link SeenQuestions}: an open addressing set of the fingerprints, 8 bytes per slot.
+ * Two different questions share a fingerprint with a negligible probability, in which case the second one
+ * is just never asked.
+ */
+public class FingerprintSet implements SeenQuestions {
+    static final byte SERIALIZED_TYPE = 1;
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.75f;
+    private static final int ARRAY_HEADER_BYTES = 16;
+
+    // 0 marks an empty slot
+    private long[] fingerprints = new long[INITIAL_CAPACITY];
+    private int size;
+
+    @Override
+    public boolean contains(long fingerprint) {
+        var mask = fingerprints.length - 1;
+        for (int slot = (int) fingerprint & mask; fingerprints[slot] != 0; slot = (slot + 1) & mask) {
+            if (fingerprints[slot] == fingerprint) return true;
+        }
+
+        return false;
+    }
+
+    @Override
+    public void add(long fingerprint) {
+        if (contains(fingerprint)) return;
+
+        if (size + 1 > fingerprints.length * LOAD_FACTOR) {
+            var previous = fingerprints;
+            fingerprints = new long[previous.length * 2];
+            for (var existing : previous) {
+                if (existing != 0) {
+                    insert(existing);
+                }
+            }
+        }
+
+        insert(fingerprint);
+        size++;
+    }
+
+    public void remove(long fingerprint) {
+        var mask = fingerprints.length - 1;
+        var slot = (int) fingerprint & mask;
+        while (fingerprints[slot] != fingerprint) {
+            if (fingerprints[slot] == 0) return;
+            slot = (slot + 1) & mask;
+        }
+
+        // backward shift deletion, so the probe sequences stay intact without tombstones
+        fingerprints[slot] = 0;
+        size--;
+        var emptySlot = slot;
+        for (int next = (slot + 1) & mask; fingerprints[next] != 0; next = (next + 1) & mask) {
+            var idealSlot = (int) fingerprints[next] & mask;
+            var isInPlace = emptySlot <= next
+                    ? emptySlot < idealSlot && idealSlot <= next
+                    : emptySlot < idealSlot || idealSlot <= next;
+            if (isInPlace) continue;
+
+            fingerprints[emptySlot] = fingerprints[next];
+            fingerprints[next] = 0;
+            emptySlot = next;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long getFootprintBytes() {
+        return (long) fingerprints.length * Long.BYTES + ARRAY_HEADER_BYTES;
+    }
+
+    // the type, the size and the fingerprints themselves, without the empty slots
+    @Override
+    public int getSerializedSize() {
+        return Byte.BYTES + Integer.BYTES + size * Long.BYTES;
+    }
+
+    @Override
+    public void writeTo(ByteBuffer buffer) {
+        buffer.put(SERIALIZED_TYPE).putInt(size);
+        for (var fingerprint : fingerprints) {
+            if (fingerprint != 0) {
+                buffer.putLong(fingerprint);
+            }
+        }
+    }
+
+    static FingerprintSet readFrom(ByteBuffer buffer) {
+        var set = new FingerprintSet();
+        var size = buffer.getInt();
+        var capacity = INITIAL_CAPACITY;
+        while (size > capacity * LOAD_FACTOR) {
+            capacity *= 2;
+        }
+
+        // the serialized fingerprints are distinct, so they are inserted without the lookups and the resizes
+        set.fingerprints = new long[capacity];
+        for (int i = 0; i < size; i++) {
+            set.insert(buffer.getLong());
+        }
+
+        set.size = size;
+        return set;
+    }
+
+    private void insert(long fingerprint) {
+        var mask = fingerprints.length - 1;
+        var slot = (int) fingerprint & mask;
+        while (fingerprints[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+
+        fingerprints[slot] = fingerprint;
+    }
+}
@@ -0,0 +1,63 @@
+package com.codevalue.archnext;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.LongPredicate;
+
+/**
+ * Serves a fixed set of questions from memory, going round them over and over, e.g. as the last resort source
+ * of {@link HedgedQuestionsLoader} or for running the bot without any trivia API at all.
+ */
+public class FixtureQuestionsLoader implements QuestionReservoir.QuestionsLoader {
+    private final List<TriviaQuestion> questions;
+    // the index of the next question to serve, guarded by this
+    private int nextIndex;
+
+    public FixtureQuestionsLoader(List<TriviaQuestion> questions) {
+        if (questions.isEmpty()) throw new IllegalArgumentException("No fixture questions");
+
+        this.questions = List.copyOf(questions);
+    }
+
+    /**
+     * Reads the questions from a file holding a trivia API response.
+     */
+    public static FixtureQuestionsLoader fromFile(Path path) throws IOException {
+        var questions = new ArrayList<TriviaQuestion>();
+        try (var input = Files.newInputStream(path)) {
+            var responseCode = TriviaQuestionsReader.read(input, fingerprint -> false, questions::add);
+            if (responseCode != 0) throw new IOException("Unsuccessful response code in " + path + ": " + responseCode);
+        }
+
+        return new FixtureQuestionsLoader(questions);
+    }
+
+    @Override
+    public CompletableFuture<List<TriviaQuestion>> load(int amount) {
+        return load(amount, fingerprint -> false);
+    }
+
+    @Override
+    public CompletableFuture<List<TriviaQuestion>> load(int amount, LongPredicate isKnown) {
+        return load(amount, QuestionFilter.ANY, isKnown);
+    }
+
+    // goes round the questions at most once per load, so it returns less than asked when most of them are known
+    @Override
+    public synchronized CompletableFuture<List<TriviaQuestion>> load(int amount, QuestionFilter filter, LongPredicate isKnown) {
+        var loaded = new ArrayList<TriviaQuestion>(Math.min(amount, questions.size()));
+        for (int i = 0; i < questions.size() && loaded.size() < amount; i++) {
+            var question = questions.get(nextIndex);
+            nextIndex = (nextIndex + 1) % questions.size();
+            if (filter.matches(question) && !isKnown.test(question.getFingerprint())) {
+                loaded.add(question);
+            }
+        }
+
+        return CompletableFuture.completedFuture(loaded);
+    }
+}
@@ -0,0 +1,180 @@
+package com.codevalue.archnext;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongPredicate;
+
+/**
+ * Loads the questions from several interchangeable sources with hedged requests: the sources are asked in their
+ * order of preference, each next one only when the previous one doesn't answer within its own p95 latency, or
+ * fails. The first successful answer is taken and the later ones are dropped, so a slow or failing source costs
+ * a few extra requests instead of the refill latency.
+ */
+public class HedgedQuestionsLoader implements QuestionReservoir.QuestionsLoader, AutoCloseable {
+    private static final int LATENCY_SAMPLES_COUNT = 128;
+    // till a source has this many samples, its hedge delay is the default one
+    private static final int MIN_LATENCY_SAMPLES_COUNT = 20;
+    private static final long DEFAULT_HEDGE_DELAY_MILLIS = 1000;
+    private static final long MIN_HEDGE_DELAY_MILLIS = 10;
+    private static final double HEDGE_PERCENTILE = 0.95;
+
+    private static final class Source {
+        final QuestionReservoir.QuestionsLoader loader;
+        // the latencies of the latest successful loads, a ring guarded by this
+        final long[] latencySamplesMillis = new long[LATENCY_SAMPLES_COUNT];
+        long samplesCount;
+
+        Source(QuestionReservoir.QuestionsLoader loader) {
+            this.loader = loader;
+        }
+
+        synchronized void recordLatency(long millis) {
+            latencySamplesMillis[(int) (samplesCount++ % LATENCY_SAMPLES_COUNT)] = millis;
+        }
+
+        synchronized long getLatencyPercentileMillis(double percentile) {
+            if (samplesCount < MIN_LATENCY_SAMPLES_COUNT) return -1;
+
+            var samples = Arrays.copyOf(latencySamplesMillis, (int) Math.min(samplesCount, LATENCY_SAMPLES_COUNT));
+            Arrays.sort(samples);
+            return samples[(int) Math.ceil(percentile * samples.length) - 1];
+        }
+
+        long getHedgeDelayMillis() {
+            var p95 = getLatencyPercentileMillis(HEDGE_PERCENTILE);
+            return p95 < 0 ? DEFAULT_HEDGE_DELAY_MILLIS : Math.max(MIN_HEDGE_DELAY_MILLIS, p95);
+        }
+    }
+
+    // in the order of preference
+    private final List<Source> sources = new ArrayList<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        var thread = new Thread(runnable, "questions-hedging");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final LongAdder loadsCount = new LongAdder();
+    private final LongAdder hedgedCount = new LongAdder();
+    private final LongAdder backupWinsCount = new LongAdder();
+
+    public HedgedQuestionsLoader(List<? extends QuestionReservoir.QuestionsLoader> loaders) {
+        if (loaders.isEmpty()) throw new IllegalArgumentException("No question sources to hedge");
+
+        for (var loader : loaders) {
+            sources.add(new Source(loader));
+        }
+    }
+
+    // stops the hedging, the loads in flight are answered by the sources already asked only
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    @Override
+    public CompletableFuture<List<TriviaQuestion>> load(int amount) {
+        return load(amount, fingerprint -> false);
+    }
+
+    @Override
+    public CompletableFuture<List<TriviaQuestion>> load(int amount, LongPredicate isKnown) {
+        return load(amount, QuestionFilter.ANY, isKnown);
+    }
+
+    @Override
+    public CompletableFuture<List<TriviaQuestion>> load(int amount, QuestionFilter filter, LongPredicate isKnown) {
+        loadsCount.increment();
+        var result = new CompletableFuture<List<TriviaQuestion>>();
+        new Attempt(amount, filter, isKnown, result).start(0);
+        return result;
+    }
+
+    public long getLoadsCount() {
+        return loadsCount.sum();
+    }
+
+    // the loads which asked more than one source
+    public long getHedgedCount() {
+        return hedgedCount.sum();
+    }
+
+    // the loads answered by other than the preferred source
+    public long getBackupWinsCount() {
+        return backupWinsCount.sum();
+    }
+
+    private final class Attempt {
+        final int amount;
+        final QuestionFilter filter;
+        final LongPredicate isKnown;
+        final CompletableFuture<List<TriviaQuestion>> result;
+        // both guarded by this
+        int nextSourceIndex;
+        int failedCount;
+
+        Attempt(int amount, QuestionFilter filter, LongPredicate isKnown, CompletableFuture<List<TriviaQuestion>> result) {
+            this.amount = amount;
+            this.filter = filter;
+            this.isKnown = isKnown;
+            this.result = result;
+        }
+
+        // asks the source with the given position unless it was already asked or the load is done
+        void start(int position) {
+            Source source;
+            synchronized (this) {
+                if (result.isDone() || position != nextSourceIndex || position >= sources.size()) return;
+
+                nextSourceIndex++;
+                source = sources.get(position);
+            }
+
+            if (position == 1) {
+                hedgedCount.increment();
+            }
+
+            var startNanos = System.nanoTime();
+            source.loader.load(amount, filter, isKnown).whenComplete((questions, throwable) -> {
+                if (throwable == null) {
+                    source.recordLatency(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+                    if (result.complete(questions) && position > 0) {
+                        backupWinsCount.increment();
+                    }
+                    return;
+                }
+
+                onFailure(throwable);
+            });
+
+            if (position + 1 < sources.size() && !scheduler.isShutdown()) {
+                scheduler.schedule(() -> start(position + 1), source.getHedgeDelayMillis(), TimeUnit.MILLISECONDS);
+            }
+        }
+
+        void onFailure(Throwable throwable) {
+            boolean isLastFailure;
+            synchronized (this) {
+                isLastFailure = ++failedCount == sources.size();
+            }
+
+            if (isLastFailure) {
+                result.completeExceptionally(throwable);
+                return;
+            }
+
+            // the next source doesn't have to wait for the hedge delay of the failed one
+            int nextPosition;
+            synchronized (this) {
+                nextPosition = nextSourceIndex;
+            }
+
+            start(nextPosition);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.codevalue.archnext;
+
+import org.jsoup.nodes.Entities;
+
+/**
+ * Converts the HTML-encoded values returned by the trivia API to plain text, the same way as
+ * {@code Jsoup.parse(html).text()} does for them, but without building a document: entities are decoded,
+ * whitespace is collapsed and trimmed and invisible characters are dropped. The API values contain neither
+ * markup nor entities without the terminating semicolon, so these are left as is.
+ */
+public final class HtmlEntities {
+    // the longest entity name known to Jsoup is 32 characters long
+    private static final int MAX_ENTITY_LENGTH = 34;
+    private static final char NO_BREAK_SPACE = '\u00a0';
+    private static final char SOFT_HYPHEN = '\u00ad';
+    private static final char ZERO_WIDTH_SPACE = '\u200b';
+
+    private HtmlEntities() {
+    }
+
+    public static String toText(String html) {
+        if (html == null) return "";
+        if (isPlainText(html)) return html;
+
+        var text = new StringBuilder(html.length());
+        var isWhitespacePending = false;
+        for (int i = 0; i < html.length(); ) {
+            var c = html.charAt(i);
+            String decoded = null;
+            var consumed = 1;
+
+            if (c == '&') {
+                var end = html.indexOf(';', i + 1);
+                if (end > i + 1 && end - i <= MAX_ENTITY_LENGTH) {
+                    decoded = decodeEntity(html, i + 1, end);
+                    if (decoded != null) {
+                        consumed = end - i + 1;
+                    }
+                }
+            }
+
+            if (decoded == null) {
+                isWhitespacePending = appendNormalized(text, c, isWhitespacePending);
+            } else {
+                for (int j = 0; j < decoded.length(); j++) {
+                    isWhitespacePending = appendNormalized(text, decoded.charAt(j), isWhitespacePending);
+                }
+            }
+
+            i += consumed;
+        }
+
+        return text.toString();
+    }
+
+    private static boolean isPlainText(String html) {
+        var isPreviousWhitespace = true;
+        for (int i = 0; i < html.length(); i++) {
+            var c = html.charAt(i);
+            if (c == '&' || isInvisible(c)) return false;
+
+            var isCurrentWhitespace = isWhitespace(c);
+            if (isCurrentWhitespace && (c != ' ' || isPreviousWhitespace)) return false;
+            isPreviousWhitespace = isCurrentWhitespace;
+        }
+
+        return !isPreviousWhitespace || html.isEmpty();
+    }
+
+    private static String decodeEntity(String html, int start, int end) {
+        if (html.charAt(start) == '#') {
+            return decodeNumericEntity(html, start + 1, end);
+        }
+
+        var name = html.substring(start, end);
+        switch (name) {
+            case "amp": return "&";
+            case "quot": return "\"";
+            case "lt": return "<";
+            case "gt": return ">";
+            case "apos": return "'";
+            default:
+                var decoded = Entities.getByName(name);
+                return decoded.isEmpty() ? null : decoded;
+        }
+    }
+
+    private static String decodeNumericEntity(String html, int start, int end) {
+        var radix = 10;
+        if (start < end && (html.charAt(start) == 'x' || html.charAt(start) == 'X')) {
+            radix = 16;
+            start++;
+        }
+
+        if (start == end) return null;
+
+        var codePoint = 0;
+        for (int i = start; i < end; i++) {
+            var digit = Character.digit(html.charAt(i), radix);
+            if (digit < 0) return null;
+
+            codePoint = codePoint * radix + digit;
+            if (codePoint > Character.MAX_CODE_POINT) return null;
+        }
+
+        return new String(Character.toChars(codePoint));
+    }
+
+    // returns whether a space should precede the next non-whitespace character
+    private static boolean appendNormalized(StringBuilder text, char c, boolean isWhitespacePending) {
+        if (isWhitespace(c)) return text.length() > 0;
+        if (isInvisible(c)) return isWhitespacePending;
+
+        if (isWhitespacePending) {
+            text.append(' ');
+        }
+
+        text.append(c);
+        return false;
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\f' || c == '\r' || c == NO_BREAK_SPACE;
+    }
+
+    private static boolean isInvisible(char c) {
+        return c == SOFT_HYPHEN || c == ZERO_WIDTH_SPACE;
+    }
+}
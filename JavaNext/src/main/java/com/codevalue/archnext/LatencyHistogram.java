@@ -0,0 +1,97 @@
+package com.codevalue.archnext;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent log-linear histogram of non-negative values: every power of two range is split into 64 buckets,
+ * so the reported values are within 1.6% of the recorded ones. Recording doesn't allocate, so the histograms
+ * are used on the updates handling path as well.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS_COUNT = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS_COUNT);
+    private final LongAdder sum = new LongAdder();
+
+    public void record(long value) {
+        value = Math.max(value, 0);
+        counts.incrementAndGet(indexOf(value));
+        sum.add(value);
+    }
+
+    public long getCount() {
+        var count = 0L;
+        for (int i = 0; i < BUCKETS_COUNT; i++) {
+            count += counts.get(i);
+        }
+
+        return count;
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * Returns the highest value of the bucket containing the given percentile, or 0 if nothing was recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        return getValuesAtPercentiles(percentile)[0];
+    }
+
+    /**
+     * Same for several percentiles, given in the ascending order, over a single snapshot of the counts.
+     */
+    public long[] getValuesAtPercentiles(double... percentiles) {
+        var snapshot = new long[BUCKETS_COUNT];
+        var total = 0L;
+        for (int i = 0; i < BUCKETS_COUNT; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+
+        var values = new long[percentiles.length];
+        if (total == 0) return values;
+
+        var cumulative = 0L;
+        var index = 0;
+        for (int p = 0; p < percentiles.length; p++) {
+            var target = Math.max(1, (long) Math.ceil(total * percentiles[p] / 100));
+            while (index < BUCKETS_COUNT - 1 && cumulative + snapshot[index] < target) {
+                cumulative += snapshot[index++];
+            }
+
+            values[p] = highestValueOf(index);
+        }
+
+        return values;
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS_COUNT; i++) {
+            counts.set(i, 0);
+        }
+
+        sum.reset();
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS_COUNT) return (int) value;
+
+        var exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        var subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) - SUB_BUCKETS_COUNT;
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS_COUNT + subBucket;
+    }
+
+    private static long highestValueOf(int index) {
+        var group = index >>> SUB_BUCKET_BITS;
+        if (group <= 1) return index;
+
+        var shift = group - 1;
+        var lowestValue = (long) (SUB_BUCKETS_COUNT + (index & (SUB_BUCKETS_COUNT - 1))) << shift;
+        return lowestValue + (1L << shift) - 1;
+    }
+}
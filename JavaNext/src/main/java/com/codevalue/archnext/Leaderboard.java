@@ -0,0 +1,144 @@
+package com.codevalue.archnext;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Players ranked by their scores, kept sorted in a skip list as the scores change, so the top of the ranking is
+ * read off its head instead of sorting all the players per request. A score change costs a removal and
+ * an insertion, O(log n) each, without any lock shared by the players.
+ * <p>
+ * The rendered top is cached till a change reaches it: changes below the last player of the cached top,
+ * which are most of them, keep it.
+ */
+public class Leaderboard {
+    private static final Comparator<Entry> RANKING = Comparator.comparingLong((Entry entry) -> -entry.score)
+            .thenComparingLong(entry -> entry.userId);
+
+    public static final class Entry {
+        private final long score;
+        private final long userId;
+        private final String name;
+
+        Entry(long score, long userId, String name) {
+            this.score = score;
+            this.userId = userId;
+            this.name = name;
+        }
+
+        public long getScore() {
+            return score;
+        }
+
+        public long getUserId() {
+            return userId;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    private static final class Top {
+        final String text;
+        // null when the top isn't full, so every change reaches it
+        final Entry last;
+
+        Top(String text, Entry last) {
+            this.text = text;
+            this.last = last;
+        }
+    }
+
+    private final int topSize;
+    private final String title;
+    private final ConcurrentSkipListSet<Entry> entries = new ConcurrentSkipListSet<>(RANKING);
+    // incremented by the changes reaching the top, so a top rendered concurrently with them isn't cached
+    private final AtomicLong topChangesCount = new AtomicLong();
+    private volatile Top top;
+
+    public Leaderboard(int topSize, String title) {
+        this.topSize = topSize;
+        this.title = title;
+    }
+
+    /**
+     * Moves the player from the old score to the new one, a zero score meaning not being ranked. The changes
+     * of a player's score are expected to be serialized by the caller.
+     */
+    public void update(long userId, String name, long oldScore, long newScore) {
+        Entry oldEntry = null;
+        if (oldScore > 0) {
+            oldEntry = new Entry(oldScore, userId, null);
+            entries.remove(oldEntry);
+        }
+
+        Entry newEntry = null;
+        if (newScore > 0) {
+            newEntry = new Entry(newScore, userId, name);
+            entries.add(newEntry);
+        }
+
+        var cachedTop = top;
+        if (cachedTop == null || cachedTop.last == null || isInTop(oldEntry, cachedTop) || isInTop(newEntry, cachedTop)) {
+            topChangesCount.incrementAndGet();
+            top = null;
+        }
+    }
+
+    public void remove(long userId, long score) {
+        update(userId, null, score, 0);
+    }
+
+    public List<Entry> getTop(int count) {
+        var top = new ArrayList<Entry>(count);
+        for (var entry : entries) {
+            if (top.size() == count) break;
+
+            top.add(entry);
+        }
+
+        return top;
+    }
+
+    /**
+     * The title and the players of the top, one per line, rendered once per change of the top.
+     */
+    public String getTopText() {
+        var cachedTop = top;
+        if (cachedTop != null) return cachedTop.text;
+
+        var changesCount = topChangesCount.get();
+        var entries = getTop(topSize);
+        var text = new StringBuilder(title);
+        if (entries.isEmpty()) {
+            text.append(": nobody has answered correctly yet.");
+        } else {
+            text.append(':');
+            for (int i = 0; i < entries.size(); i++) {
+                var entry = entries.get(i);
+                text.append('\n').append(i + 1).append(". ").append(entry.name).append(" - ").append(entry.score);
+            }
+        }
+
+        // published before checking for the concurrent changes, so a change either sees it or is seen by the check
+        cachedTop = new Top(text.toString(), entries.size() < topSize ? null : entries.get(entries.size() - 1));
+        top = cachedTop;
+        if (topChangesCount.get() != changesCount) {
+            top = null;
+        }
+
+        return cachedTop.text;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private static boolean isInTop(Entry entry, Top top) {
+        return entry != null && RANKING.compare(entry, top.last) <= 0;
+    }
+}
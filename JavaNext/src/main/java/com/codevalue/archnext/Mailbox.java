@@ -0,0 +1,73 @@
+package com.codevalue.archnext;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Actor-like mailbox processing its messages one at a time, in the order they were posted, on a shared executor.
+ * The state owned by a mailbox is only accessed by its messages, so it needs no locking, while the messages of
+ * different mailboxes are processed in parallel.
+ */
+public class Mailbox {
+    // the amount of messages processed before giving the executor thread to the other mailboxes
+    private static final int MAX_MESSAGES_PER_RUN = 64;
+
+    private final Executor executor;
+    private final Queue<Runnable> messages = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean isScheduled = new AtomicBoolean();
+
+    public Mailbox(Executor executor) {
+        this.executor = executor;
+    }
+
+    public void post(Runnable message) {
+        messages.add(message);
+        scheduleIfIdle();
+    }
+
+    /**
+     * Posts a message computing a value; the returned future is completed on the executor thread,
+     * so its dependent actions should never wait for other messages of the same mailbox.
+     */
+    public <T> CompletableFuture<T> ask(Supplier<T> message) {
+        var result = new CompletableFuture<T>();
+        post(() -> {
+            try {
+                result.complete(message.get());
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        });
+
+        return result;
+    }
+
+    private void scheduleIfIdle() {
+        if (isScheduled.compareAndSet(false, true)) {
+            executor.execute(this::processMessages);
+        }
+    }
+
+    private void processMessages() {
+        try {
+            Runnable message;
+            for (int i = 0; i < MAX_MESSAGES_PER_RUN && (message = messages.poll()) != null; i++) {
+                try {
+                    message.run();
+                } catch (RuntimeException e) {
+                    System.out.println("Failed to process a message: " + e);
+                    e.printStackTrace();
+                }
+            }
+        } finally {
+            isScheduled.set(false);
+            if (!messages.isEmpty()) {
+                scheduleIfIdle();
+            }
+        }
+    }
+}
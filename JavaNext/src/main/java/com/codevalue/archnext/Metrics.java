@@ -0,0 +1,235 @@
+package com.codevalue.archnext;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Registry of the bot's metrics, written out in the Prometheus text format and exposed as the attributes of an
+ * MBean. The counters and gauges are read from the counters their components keep anyway, only when collected,
+ * and the latencies are recorded into {@link LatencyHistogram}s, so the updates handling path doesn't allocate
+ * for the metrics. The histograms of nanoseconds are written out as summaries in seconds.
+ */
+public class Metrics {
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+    private static final String[] QUANTILES = {"0.5", "0.9", "0.99", "0.999"};
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private static final class Series {
+        // as in the text format, e.g. {command="/next"}, or empty
+        final String labels;
+        // one of the two
+        final LongSupplier value;
+        final LatencyHistogram histogram;
+
+        Series(String labels, LongSupplier value, LatencyHistogram histogram) {
+            this.labels = labels;
+            this.value = value;
+            this.histogram = histogram;
+        }
+    }
+
+    private static final class Family {
+        final String name;
+        final String help;
+        final String type;
+        final List<Series> series = new ArrayList<>();
+
+        Family(String name, String help, String type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    private interface SampleSink {
+        void accept(String name, String labels, double value);
+    }
+
+    // guarded by this
+    private final Map<String, Family> families = new LinkedHashMap<>();
+
+    /**
+     * Formats a label for the registration methods, e.g. {@code label("command", "/next")}.
+     */
+    public static String label(String name, String value) {
+        return name + "=\"" + value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+    }
+
+    public static String labels(String... labels) {
+        return labels.length == 0 ? "" : "{" + String.join(",", labels) + "}";
+    }
+
+    public void counter(String name, String help, LongSupplier value) {
+        counter(name, "", help, value);
+    }
+
+    public synchronized void counter(String name, String labels, String help, LongSupplier value) {
+        getFamily(name, help, "counter").series.add(new Series(labels, value, null));
+    }
+
+    public void gauge(String name, String help, LongSupplier value) {
+        gauge(name, "", help, value);
+    }
+
+    public synchronized void gauge(String name, String labels, String help, LongSupplier value) {
+        getFamily(name, help, "gauge").series.add(new Series(labels, value, null));
+    }
+
+    /**
+     * Registers a histogram of nanoseconds, or of plain values when the name doesn't end with {@code _seconds}.
+     */
+    public synchronized void histogram(String name, String labels, String help, LatencyHistogram histogram) {
+        getFamily(name, help, "summary").series.add(new Series(labels, null, histogram));
+    }
+
+    public LatencyHistogram histogram(String name, String labels, String help) {
+        var histogram = new LatencyHistogram();
+        histogram(name, labels, help, histogram);
+        return histogram;
+    }
+
+    public synchronized String toPrometheusText() {
+        var text = new StringBuilder();
+        for (var family : families.values()) {
+            text.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+            text.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+            collect(family, (name, labels, value) -> text.append(name).append(labels).append(' ')
+                    .append(formatValue(value)).append('\n'));
+        }
+
+        return text.toString();
+    }
+
+    // the series of the text format by their names with the labels
+    public synchronized Map<String, Double> getValues() {
+        var values = new LinkedHashMap<String, Double>();
+        for (var family : families.values()) {
+            collect(family, (name, labels, value) -> values.put(name + labels, value));
+        }
+
+        return values;
+    }
+
+    /**
+     * Registers the MBean having every series as an attribute, replacing the one registered under the name before.
+     */
+    public void registerMBean(String objectName) throws JMException {
+        var name = new ObjectName(objectName);
+        var server = ManagementFactory.getPlatformMBeanServer();
+        if (server.isRegistered(name)) {
+            server.unregisterMBean(name);
+        }
+
+        server.registerMBean(new MetricsMBean(), name);
+    }
+
+    private Family getFamily(String name, String help, String type) {
+        var family = families.computeIfAbsent(name, n -> new Family(n, help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("The metric " + name + " is already registered as a " + family.type);
+        }
+
+        return family;
+    }
+
+    private static void collect(Family family, SampleSink sink) {
+        var isSeconds = family.name.endsWith("_seconds");
+        for (var series : family.series) {
+            if (series.histogram == null) {
+                sink.accept(family.name, series.labels, series.value.getAsLong());
+                continue;
+            }
+
+            var scale = isSeconds ? NANOS_PER_SECOND : 1;
+            var values = series.histogram.getValuesAtPercentiles(PERCENTILES);
+            for (int i = 0; i < values.length; i++) {
+                sink.accept(family.name, withQuantile(series.labels, QUANTILES[i]), values[i] / scale);
+            }
+
+            sink.accept(family.name + "_sum", series.labels, series.histogram.getSum() / scale);
+            sink.accept(family.name + "_count", series.labels, series.histogram.getCount());
+        }
+    }
+
+    private static String withQuantile(String labels, String quantile) {
+        var label = label("quantile", quantile);
+        return labels.isEmpty() ? "{" + label + "}" : labels.substring(0, labels.length() - 1) + "," + label + "}";
+    }
+
+    private static String formatValue(double value) {
+        return value == Math.rint(value) && Math.abs(value) < 1e15 ? Long.toString((long) value) : Double.toString(value);
+    }
+
+    private final class MetricsMBean implements DynamicMBean {
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            var value = getValues().get(attribute);
+            if (value == null) throw new AttributeNotFoundException(attribute);
+
+            return value;
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            var values = getValues();
+            var list = new AttributeList();
+            for (var attribute : attributes) {
+                var value = values.get(attribute);
+                if (value != null) {
+                    list.add(new Attribute(attribute, value));
+                }
+            }
+
+            return list;
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            var attributes = new ArrayList<MBeanAttributeInfo>();
+            synchronized (Metrics.this) {
+                for (var family : families.values()) {
+                    collect(family, (name, labels, value) -> attributes.add(new MBeanAttributeInfo(
+                            name + labels, Double.class.getName(), family.help, true, false, false
+                    )));
+                }
+            }
+
+            return new MBeanInfo(
+                    Metrics.class.getName(),
+                    "The trivia bot metrics",
+                    attributes.toArray(new MBeanAttributeInfo[0]),
+                    null,
+                    null,
+                    null
+            );
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) {
+            throw new UnsupportedOperationException("The metrics are read only");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) {
+            throw new UnsupportedOperationException("The metrics have no operations");
+        }
+    }
+}
@@ -0,0 +1,455 @@
+package com.codevalue.archnext;
+
+import org.telegram.telegrambots.meta.api.methods.BotApiMethod;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+import org.telegram.telegrambots.meta.updateshandlers.SentCallback;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Sends the bot's replies asynchronously while staying under the Telegram flood limits: a bounded queue drained
+ * by a single sender thread, which keeps the replies of every chat in order, takes a token of both the chat's
+ * and the global token bucket for every reply, caps the amount of the replies in flight and, when Telegram
+ * still answers with 429, postpones the chat's replies for the time asked in Retry-After.
+ * <p>
+ * The replies are dropped when the pipeline is full, counting both the queued replies and the ones the sender
+ * holds for the chats waiting for their tokens; the updates handling is expected to call {@link #awaitCapacity()}
+ * before producing more replies, so the backpressure reaches the updates polling before that happens. The replies
+ * held for a single chat are bounded as well, its replies over the bound are dropped, so a chat asking faster
+ * than its rate allows can't hold the updates of all the other chats back till its replies are sent.
+ */
+public class OutboundPipeline {
+    private static final int MAX_ATTEMPTS = 3;
+    private static final int TOO_MANY_REQUESTS = 429;
+    private static final long IDLE_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long REPORT_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+    // the depth the callers of awaitCapacity wait below, the rest is left for the asynchronous replies
+    private static final double HIGH_WATERMARK_RATIO = 0.8;
+
+    public interface Sender {
+        <T extends Serializable, Method extends BotApiMethod<T>, Callback extends SentCallback<T>> void send(
+                Method method,
+                Callback callback
+        ) throws TelegramApiException;
+    }
+
+    private static final class TokenBucket {
+        private final double ratePerNano;
+        private final double capacity;
+        private double tokens;
+        private long refilledNanos;
+
+        // a non-positive rate means no limit
+        TokenBucket(double ratePerSecond, double capacity, long nowNanos) {
+            this.ratePerNano = ratePerSecond / TimeUnit.SECONDS.toNanos(1);
+            this.capacity = Math.max(1, capacity);
+            tokens = this.capacity;
+            refilledNanos = nowNanos;
+        }
+
+        long nanosUntilAvailable(long nowNanos) {
+            if (ratePerNano <= 0) return 0;
+
+            refill(nowNanos);
+            return tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / ratePerNano);
+        }
+
+        void take(long nowNanos) {
+            if (ratePerNano <= 0) return;
+
+            refill(nowNanos);
+            tokens--;
+        }
+
+        boolean isFull(long nowNanos) {
+            if (ratePerNano <= 0) return true;
+
+            refill(nowNanos);
+            return tokens >= capacity;
+        }
+
+        private void refill(long nowNanos) {
+            tokens = Math.min(capacity, tokens + (nowNanos - refilledNanos) * ratePerNano);
+            refilledNanos = nowNanos;
+        }
+    }
+
+    private static final class Outgoing {
+        final String chatId;
+        final BotApiMethod<?> method;
+        // null when the response isn't needed
+        final Consumer<Object> onSent;
+        final long enqueuedNanos;
+        int attempts;
+        long sentNanos;
+
+        Outgoing(String chatId, BotApiMethod<?> method, Consumer<Object> onSent, long enqueuedNanos) {
+            this.chatId = chatId;
+            this.method = method;
+            this.onSent = onSent;
+            this.enqueuedNanos = enqueuedNanos;
+        }
+    }
+
+    private static final class Retry {
+        final Outgoing outgoing;
+        final long retryAfterNanos;
+
+        Retry(Outgoing outgoing, long retryAfterNanos) {
+            this.outgoing = outgoing;
+            this.retryAfterNanos = retryAfterNanos;
+        }
+    }
+
+    private static final class ChatState {
+        final TokenBucket bucket;
+        final Deque<Outgoing> pending = new ArrayDeque<>();
+        long retryAtNanos;
+        long readyAtNanos;
+        boolean isWaiting;
+
+        ChatState(TokenBucket bucket) {
+            this.bucket = bucket;
+        }
+    }
+
+    private final Sender sender;
+    private final BlockingQueue<Outgoing> queue;
+    private final int capacity;
+    private final int highWatermark;
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+    private final double chatRate;
+    private final int chatBurst;
+    private final int maxChatPending;
+    private final Queue<Retry> retries = new ConcurrentLinkedQueue<>();
+    private final Object capacityMonitor = new Object();
+    // the replies accepted and not sent yet, either queued or held by the chats, never over the capacity
+    private final AtomicInteger depth = new AtomicInteger();
+    private final Thread senderThread = new Thread(this::run, "outbound-sender");
+    private volatile boolean isRunning = true;
+    private volatile int capacityWaitersCount;
+
+    // owned by the sender thread
+    private final TokenBucket globalBucket;
+    private final Map<String, ChatState> chats = new HashMap<>();
+    private final PriorityQueue<ChatState> waitingChats =
+            new PriorityQueue<>(Comparator.comparingLong(chat -> chat.readyAtNanos));
+    private long lastReportNanos = System.nanoTime();
+
+    private final LongAdder sentCount = new LongAdder();
+    private final LongAdder droppedCount = new LongAdder();
+    private final LongAdder retriedCount = new LongAdder();
+    private final LongAdder failedCount = new LongAdder();
+    private final LongAdder latencyNanosSum = new LongAdder();
+    private final LongAccumulator maxLatencyNanos = new LongAccumulator(Math::max, 0);
+    // the execute calls, from the sending of an attempt till Telegram answered it either way
+    private final LatencyHistogram executeLatencies = new LatencyHistogram();
+
+    public OutboundPipeline(
+            Sender sender,
+            int queueCapacity,
+            int maxInFlight,
+            double globalRate,
+            double chatRate,
+            int chatBurst,
+            int maxChatPending
+    ) {
+        this.sender = sender;
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        capacity = queueCapacity;
+        highWatermark = Math.max(1, (int) (queueCapacity * HIGH_WATERMARK_RATIO));
+        this.maxInFlight = maxInFlight;
+        inFlight = new Semaphore(maxInFlight);
+        globalBucket = new TokenBucket(globalRate, globalRate, System.nanoTime());
+        this.chatRate = chatRate;
+        this.chatBurst = chatBurst;
+        this.maxChatPending = maxChatPending;
+        senderThread.setDaemon(true);
+    }
+
+    public void start() {
+        senderThread.start();
+    }
+
+    public void stop() {
+        isRunning = false;
+        senderThread.interrupt();
+        synchronized (capacityMonitor) {
+            capacityMonitor.notifyAll();
+        }
+    }
+
+    /**
+     * Queues the method for sending to the chat, returns false if the pipeline is full and the method is dropped.
+     */
+    public boolean send(String chatId, BotApiMethod<?> method) {
+        return enqueue(new Outgoing(chatId, method, null, System.nanoTime()));
+    }
+
+    /**
+     * Queues the method as {@link #send(String, BotApiMethod)} does, handing its response over to the consumer
+     * on the thread the response is received on, once Telegram has confirmed it.
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends Serializable> boolean send(String chatId, BotApiMethod<T> method, Consumer<? super T> onSent) {
+        return enqueue(new Outgoing(chatId, method, (Consumer<Object>) onSent, System.nanoTime()));
+    }
+
+    /**
+     * Waits till the depth drops below the high watermark.
+     */
+    public void awaitCapacity() throws InterruptedException {
+        if (depth.get() < highWatermark) return;
+
+        synchronized (capacityMonitor) {
+            capacityWaitersCount++;
+            try {
+                while (isRunning && depth.get() >= highWatermark) {
+                    capacityMonitor.wait(TimeUnit.NANOSECONDS.toMillis(IDLE_POLL_NANOS));
+                }
+            } finally {
+                capacityWaitersCount--;
+            }
+        }
+    }
+
+    /**
+     * The replies waiting to be sent, both the queued ones and the ones held till their chats may send.
+     */
+    public int getQueueDepth() {
+        return depth.get();
+    }
+
+    public long getSentCount() {
+        return sentCount.sum();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    public long getRetriedCount() {
+        return retriedCount.sum();
+    }
+
+    public long getFailedCount() {
+        return failedCount.sum();
+    }
+
+    /**
+     * The average time from queueing a reply till Telegram confirmed it.
+     */
+    public long getAverageLatencyNanos() {
+        var sent = sentCount.sum();
+        return sent > 0 ? latencyNanosSum.sum() / sent : 0;
+    }
+
+    public long getMaxLatencyNanos() {
+        return maxLatencyNanos.get();
+    }
+
+    public LatencyHistogram getExecuteLatencies() {
+        return executeLatencies;
+    }
+
+    public int getInFlightCount() {
+        return maxInFlight - inFlight.availablePermits();
+    }
+
+    private void run() {
+        try {
+            while (isRunning) {
+                takeRetries();
+                sendReady();
+
+                var outgoing = queue.poll(getPollTimeoutNanos(), TimeUnit.NANOSECONDS);
+                if (outgoing != null) {
+                    var chat = getChat(outgoing.chatId);
+                    if (chat.pending.size() >= maxChatPending) {
+                        drop();
+                    } else {
+                        chat.pending.addLast(outgoing);
+                        if (!chat.isWaiting) {
+                            sendPending(chat);
+                        }
+                    }
+                }
+
+                reportIfDue();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private long getPollTimeoutNanos() {
+        var nextChat = waitingChats.peek();
+        if (nextChat == null) return IDLE_POLL_NANOS;
+
+        return Math.max(0, Math.min(IDLE_POLL_NANOS, nextChat.readyAtNanos - System.nanoTime()));
+    }
+
+    private void takeRetries() throws InterruptedException {
+        Retry retry;
+        while ((retry = retries.poll()) != null) {
+            // the retried replies were accepted already, so they are held even over the capacity
+            depth.incrementAndGet();
+            var chat = getChat(retry.outgoing.chatId);
+            chat.retryAtNanos = Math.max(chat.retryAtNanos, System.nanoTime() + retry.retryAfterNanos);
+            // the retried reply goes before the ones queued after it
+            chat.pending.addFirst(retry.outgoing);
+            if (!chat.isWaiting) {
+                sendPending(chat);
+            }
+        }
+    }
+
+    private void sendReady() throws InterruptedException {
+        var now = System.nanoTime();
+        while (!waitingChats.isEmpty() && waitingChats.peek().readyAtNanos <= now) {
+            var chat = waitingChats.poll();
+            chat.isWaiting = false;
+            sendPending(chat);
+        }
+    }
+
+    private void sendPending(ChatState chat) throws InterruptedException {
+        while (!chat.pending.isEmpty()) {
+            var now = System.nanoTime();
+            var waitNanos = Math.max(
+                    chat.retryAtNanos - now,
+                    Math.max(chat.bucket.nanosUntilAvailable(now), globalBucket.nanosUntilAvailable(now))
+            );
+            if (waitNanos > 0) {
+                chat.readyAtNanos = now + waitNanos;
+                chat.isWaiting = true;
+                waitingChats.add(chat);
+                return;
+            }
+
+            inFlight.acquire();
+            chat.bucket.take(now);
+            globalBucket.take(now);
+            depth.decrementAndGet();
+            signalCapacity();
+            sendNow(chat.pending.pollFirst());
+        }
+    }
+
+    // the queue never fills up, as the depth includes the queued replies
+    private boolean enqueue(Outgoing outgoing) {
+        if (depth.getAndUpdate(current -> current < capacity ? current + 1 : current) >= capacity) {
+            droppedCount.increment();
+            return false;
+        }
+
+        queue.add(outgoing);
+        return true;
+    }
+
+    private <T extends Serializable> void sendNow(Outgoing outgoing) {
+        @SuppressWarnings("unchecked")
+        var method = (BotApiMethod<T>) outgoing.method;
+        outgoing.attempts++;
+        outgoing.sentNanos = System.nanoTime();
+        try {
+            sender.send(method, new SentCallback<T>() {
+                @Override
+                public void onResult(BotApiMethod<T> method, T response) {
+                    inFlight.release();
+                    executeLatencies.record(System.nanoTime() - outgoing.sentNanos);
+                    var latencyNanos = System.nanoTime() - outgoing.enqueuedNanos;
+                    sentCount.increment();
+                    latencyNanosSum.add(latencyNanos);
+                    maxLatencyNanos.accumulate(latencyNanos);
+                    if (outgoing.onSent != null && response != null) {
+                        outgoing.onSent.accept(response);
+                    }
+                }
+
+                @Override
+                public void onError(BotApiMethod<T> method, TelegramApiRequestException e) {
+                    inFlight.release();
+                    executeLatencies.record(System.nanoTime() - outgoing.sentNanos);
+                    var retryAfter = e.getParameters() != null ? e.getParameters().getRetryAfter() : null;
+                    var isThrottled = e.getErrorCode() != null && e.getErrorCode() == TOO_MANY_REQUESTS;
+                    if (isThrottled && retryAfter != null && outgoing.attempts < MAX_ATTEMPTS) {
+                        retriedCount.increment();
+                        retries.add(new Retry(outgoing, TimeUnit.SECONDS.toNanos(retryAfter)));
+                        return;
+                    }
+
+                    fail(e);
+                }
+
+                @Override
+                public void onException(BotApiMethod<T> method, Exception e) {
+                    inFlight.release();
+                    executeLatencies.record(System.nanoTime() - outgoing.sentNanos);
+                    fail(e);
+                }
+            });
+        } catch (TelegramApiException | RuntimeException e) {
+            inFlight.release();
+            fail(e);
+        }
+    }
+
+    // the reply was accepted, so it leaves the depth
+    private void drop() {
+        droppedCount.increment();
+        depth.decrementAndGet();
+        signalCapacity();
+    }
+
+    private void fail(Exception e) {
+        failedCount.increment();
+        System.out.println("Failed to send the response: " + e);
+    }
+
+    private ChatState getChat(String chatId) {
+        return chats.computeIfAbsent(chatId, id -> new ChatState(new TokenBucket(chatRate, chatBurst, System.nanoTime())));
+    }
+
+    private void signalCapacity() {
+        if (capacityWaitersCount > 0 && depth.get() < highWatermark) {
+            synchronized (capacityMonitor) {
+                capacityMonitor.notifyAll();
+            }
+        }
+    }
+
+    // also forgets the chats which have nothing to send and whose buckets are full again
+    private void reportIfDue() {
+        var now = System.nanoTime();
+        if (now - lastReportNanos < REPORT_INTERVAL_NANOS) return;
+
+        lastReportNanos = now;
+        chats.values().removeIf(chat -> chat.pending.isEmpty() && !chat.isWaiting && chat.bucket.isFull(now));
+        System.out.println(
+                "Outbound: queue depth " + getQueueDepth() + ", in flight " + getInFlightCount() +
+                        ", sent " + getSentCount() + ", dropped " + getDroppedCount() + ", retried " +
+                        getRetriedCount() + ", failed " + getFailedCount() + ", latency avg " +
+                        TimeUnit.NANOSECONDS.toMillis(getAverageLatencyNanos()) + " ms, max " +
+                        TimeUnit.NANOSECONDS.toMillis(getMaxLatencyNanos()) + " ms"
+        );
+    }
+}
@@ -0,0 +1,104 @@
+package com.codevalue.archnext;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Assigns the users to the nodes of the cluster in two steps: a user belongs to one of the fixed number of
+ * partitions by the hash of the user id, and a partition is owned by the node whose point on the consistent
+ * hashing ring follows the partition's one. Every node has many points on the ring, so the partitions are spread
+ * evenly, and a node joining or leaving moves only the partitions it takes or gives away, about 1/n of them.
+ * <p>
+ * The owner of every partition is computed on construction, so looking it up is an array access. Immutable,
+ * a membership change creates a new ring.
+ */
+public final class PartitionRing {
+    private final List<String> nodeIds;
+    private final int[] owners;
+
+    public PartitionRing(List<String> nodeIds, int partitionsCount, int pointsPerNode) {
+        if (partitionsCount <= 0) throw new IllegalArgumentException("Invalid partitions count: " + partitionsCount);
+
+        this.nodeIds = List.copyOf(nodeIds);
+        owners = new int[partitionsCount];
+        if (nodeIds.isEmpty()) {
+            Arrays.fill(owners, -1);
+            return;
+        }
+
+        // the points are sorted by the high bits of their hashes, with the node index in the low ones
+        var points = new long[nodeIds.size() * pointsPerNode];
+        for (int node = 0; node < nodeIds.size(); node++) {
+            var nodeHash = hashOf(nodeIds.get(node));
+            for (int i = 0; i < pointsPerNode; i++) {
+                points[node * pointsPerNode + i] = (mix(nodeHash + i) & 0xFFFFFFFF00000000L) | node;
+            }
+        }
+        Arrays.sort(points);
+
+        for (int partition = 0; partition < partitionsCount; partition++) {
+            var position = mix(partition) & 0xFFFFFFFF00000000L;
+            var index = Arrays.binarySearch(points, position);
+            if (index < 0) {
+                index = -index - 1;
+            }
+
+            owners[partition] = (int) points[index == points.length ? 0 : index];
+        }
+    }
+
+    public int getPartitionsCount() {
+        return owners.length;
+    }
+
+    public List<String> getNodeIds() {
+        return nodeIds;
+    }
+
+    public int partitionOf(long userId) {
+        return partitionOf(userId, owners.length);
+    }
+
+    public static int partitionOf(long userId, int partitionsCount) {
+        return (int) ((mix(userId) >>> 1) % partitionsCount);
+    }
+
+    // null when there are no nodes
+    public String ownerOf(int partition) {
+        var owner = owners[partition];
+        return owner < 0 ? null : nodeIds.get(owner);
+    }
+
+    public BitSet getPartitionsOf(String nodeId) {
+        var node = nodeIds.indexOf(nodeId);
+        var partitions = new BitSet(owners.length);
+        for (int partition = 0; partition < owners.length; partition++) {
+            if (owners[partition] == node && node >= 0) {
+                partitions.set(partition);
+            }
+        }
+
+        return partitions;
+    }
+
+    private static long hashOf(String nodeId) {
+        var hash = 1125899906842597L;
+        for (var b : nodeId.getBytes(StandardCharsets.UTF_8)) {
+            hash = 31 * hash + b;
+        }
+
+        return mix(hash);
+    }
+
+    // the finalizer of MurmurHash3, which spreads the sequential ids all over the ring
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb53a3df6e6d3L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
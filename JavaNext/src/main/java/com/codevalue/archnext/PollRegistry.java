@@ -0,0 +1,91 @@
+package com.codevalue.archnext;
+
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The quiz polls sent to the users, by their Telegram poll ids, so their answers can be scored. A poll is kept
+ * till it is answered or the answer timeout passes, and only the most recent polls are kept once there are more
+ * than the maximal count of them, so the polls which are never answered don't pile up.
+ * <p>
+ * The polls are registered and answered at the rate of the replies sent, so a single lock is enough.
+ */
+public class PollRegistry {
+    public static final class SentPoll {
+        private final long userId;
+        private final int correctOptionId;
+        private final String category;
+        private final long sentNanos;
+
+        SentPoll(long userId, int correctOptionId, String category, long sentNanos) {
+            this.userId = userId;
+            this.correctOptionId = correctOptionId;
+            this.category = category;
+            this.sentNanos = sentNanos;
+        }
+
+        public long getUserId() {
+            return userId;
+        }
+
+        public int getCorrectOptionId() {
+            return correctOptionId;
+        }
+
+        public String getCategory() {
+            return category;
+        }
+    }
+
+    private final int maxSize;
+    private final long answerTimeoutNanos;
+    // in the order the polls were sent, guarded by this
+    private final LinkedHashMap<String, SentPoll> polls = new LinkedHashMap<>();
+    private final LongAdder expiredCount = new LongAdder();
+
+    public PollRegistry(int maxSize, long answerTimeoutMillis) {
+        if (maxSize <= 0) throw new IllegalArgumentException("Invalid max size: " + maxSize);
+
+        this.maxSize = maxSize;
+        this.answerTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(answerTimeoutMillis);
+    }
+
+    public synchronized void register(String pollId, long userId, int correctOptionId, String category) {
+        var now = System.nanoTime();
+        polls.put(pollId, new SentPoll(userId, correctOptionId, category, now));
+
+        var iterator = polls.values().iterator();
+        while (iterator.hasNext()) {
+            var eldest = iterator.next();
+            if (polls.size() <= maxSize && now - eldest.sentNanos <= answerTimeoutNanos) break;
+
+            iterator.remove();
+            expiredCount.increment();
+        }
+    }
+
+    /**
+     * Removes the poll, so it is scored only once, returns null when the poll is unknown or has expired.
+     */
+    public synchronized SentPoll take(String pollId) {
+        var poll = polls.remove(pollId);
+        if (poll == null) return null;
+
+        if (System.nanoTime() - poll.sentNanos > answerTimeoutNanos) {
+            expiredCount.increment();
+            return null;
+        }
+
+        return poll;
+    }
+
+    public synchronized int size() {
+        return polls.size();
+    }
+
+    // the polls dropped unanswered, either on timeout or on overflow
+    public long getExpiredCount() {
+        return expiredCount.sum();
+    }
+}
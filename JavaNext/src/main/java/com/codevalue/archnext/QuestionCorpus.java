@@ -0,0 +1,297 @@
+package com.codevalue.archnext;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Append-only file of all the questions ever loaded, read through a memory mapping of the file.
+ * <p>
+ * The file starts with the magic number and the format version, followed by the records:
+ * <pre>
+ * int     body length
+ * long    question fingerprint
+ * string  question, correct answer
+ * byte    incorrect answers count
+ * string  incorrect answers...
+ * string  category, type, difficulty
+ * </pre>
+ * where a string is its UTF-8 bytes preceded by their unsigned short length. The records are indexed by
+ * their offsets on opening, reading only the lengths and the fingerprints, and are decoded straight from the
+ * mapping when asked for. A torn record left by a crash in the middle of an append is truncated on opening.
+ */
+public class QuestionCorpus implements Closeable {
+    private static final int MAGIC = 0x54515643;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = Integer.BYTES * 2;
+    private static final int RECORD_HEADER_SIZE = Integer.BYTES + Long.BYTES;
+    private static final int MAX_STRING_LENGTH = 0xffff;
+    private static final int MAX_INCORRECT_ANSWERS_COUNT = 0xff;
+    static final int STRING_BUFFER_SIZE = MAX_STRING_LENGTH;
+    // a single mapping can't be larger than 2 GB
+    private static final long MAX_FILE_SIZE = Integer.MAX_VALUE;
+
+    private final FileChannel channel;
+    private final FingerprintSet fingerprints = new FingerprintSet();
+    // all the fields below are guarded by this
+    private int[] offsets = new int[1024];
+    private int count;
+    private long fileSize;
+    private MappedByteBuffer mapping;
+    private final byte[] stringBuffer = new byte[STRING_BUFFER_SIZE];
+
+    private QuestionCorpus(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Opens the corpus file, creating it if it doesn't exist yet.
+     */
+    public static QuestionCorpus open(Path path) throws IOException {
+        var channel = FileChannel.open(
+                path,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE
+        );
+
+        try {
+            var corpus = new QuestionCorpus(channel);
+            corpus.load();
+            return corpus;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+
+    public synchronized boolean contains(long fingerprint) {
+        return fingerprints.contains(fingerprint);
+    }
+
+    public synchronized long getFileSize() {
+        return fileSize;
+    }
+
+    /**
+     * Appends the questions which are not in the corpus yet, returns the amount of the appended ones.
+     */
+    public synchronized int append(List<TriviaQuestion> questions) throws IOException {
+        var records = ByteBuffer.allocate(1024);
+        var firstOffset = fileSize;
+        var appendedOffsets = new int[questions.size()];
+        var appended = 0;
+        for (var question : questions) {
+            if (fingerprints.contains(question.getFingerprint())) continue;
+
+            var record = encode(question);
+            if (firstOffset + records.position() + record.remaining() > MAX_FILE_SIZE) {
+                System.out.println("The questions corpus is full, not appending to it anymore");
+                break;
+            }
+
+            if (records.remaining() < record.remaining()) {
+                records = ByteBuffer.allocate(Math.max(records.capacity() * 2, records.position() + record.remaining()))
+                        .put(records.flip());
+            }
+
+            appendedOffsets[appended++] = (int) (firstOffset + records.position());
+            fingerprints.add(question.getFingerprint());
+            records.put(record);
+        }
+
+        if (appended == 0) return 0;
+
+        records.flip();
+        var position = firstOffset;
+        while (records.hasRemaining()) {
+            position += channel.write(records, position);
+        }
+
+        fileSize = position;
+        for (int i = 0; i < appended; i++) {
+            addOffset(appendedOffsets[i]);
+        }
+
+        return appended;
+    }
+
+    /**
+     * Decodes the questions with the indexes from {@code from} (inclusive) to {@code to} (exclusive).
+     */
+    public synchronized List<TriviaQuestion> read(int from, int to) throws IOException {
+        if (from < 0 || to > count || from > to) {
+            throw new IndexOutOfBoundsException("Invalid range " + from + "-" + to + " of " + count + " questions");
+        }
+
+        if (mapping == null || mapping.capacity() < fileSize) {
+            // the mapping is extended lazily, as the appended questions are read only after a whole pass
+            mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+        }
+
+        var questions = new ArrayList<TriviaQuestion>(to - from);
+        for (int i = from; i < to; i++) {
+            questions.add(decode(mapping, offsets[i], stringBuffer));
+        }
+
+        return questions;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        mapping = null;
+        channel.close();
+    }
+
+    private void load() throws IOException {
+        fileSize = channel.size();
+        if (fileSize == 0) {
+            var header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+
+            fileSize = HEADER_SIZE;
+            return;
+        }
+
+        if (fileSize < HEADER_SIZE || fileSize > MAX_FILE_SIZE) {
+            throw new IOException("Not a questions corpus file, size: " + fileSize);
+        }
+
+        mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+        if (mapping.getInt(0) != MAGIC || mapping.getInt(Integer.BYTES) != VERSION) {
+            throw new IOException("Not a questions corpus file or an unsupported version of it");
+        }
+
+        var offset = HEADER_SIZE;
+        while (offset + RECORD_HEADER_SIZE <= fileSize) {
+            var bodyLength = mapping.getInt(offset);
+            if (bodyLength < Long.BYTES || offset + Integer.BYTES + (long) bodyLength > fileSize) break;
+
+            addOffset(offset);
+            fingerprints.add(mapping.getLong(offset + Integer.BYTES));
+            offset += Integer.BYTES + bodyLength;
+        }
+
+        if (offset < fileSize) {
+            System.out.println("Truncating the torn record at the end of the questions corpus, offset: " + offset);
+            mapping = null;
+            channel.truncate(offset);
+            fileSize = offset;
+        }
+    }
+
+    private void addOffset(int offset) {
+        if (count == offsets.length) {
+            offsets = Arrays.copyOf(offsets, count * 2);
+        }
+
+        offsets[count++] = offset;
+    }
+
+    /**
+     * Encodes the question into a record, including its length.
+     */
+    static ByteBuffer encode(TriviaQuestion question) {
+        var strings = new ArrayList<byte[]>();
+        strings.add(encode(question.getQuestion()));
+        strings.add(encode(question.getCorrectAnswer()));
+        var incorrectAnswers = question.getIncorrectAnswers() != null ? question.getIncorrectAnswers() : List.<String>of();
+        if (incorrectAnswers.size() > MAX_INCORRECT_ANSWERS_COUNT) {
+            throw new IllegalArgumentException("Too many incorrect answers: " + incorrectAnswers.size());
+        }
+
+        for (var answer : incorrectAnswers) {
+            strings.add(encode(answer));
+        }
+
+        strings.add(encode(question.getCategory()));
+        strings.add(encode(question.getType()));
+        strings.add(encode(question.getDifficulty()));
+
+        var bodyLength = Long.BYTES + Byte.BYTES;
+        for (var string : strings) {
+            bodyLength += Short.BYTES + string.length;
+        }
+
+        var record = ByteBuffer.allocate(Integer.BYTES + bodyLength)
+                .putInt(bodyLength)
+                .putLong(question.getFingerprint());
+        for (int i = 0; i < strings.size(); i++) {
+            if (i == 2) {
+                record.put((byte) incorrectAnswers.size());
+            }
+
+            record.putShort((short) strings.get(i).length).put(strings.get(i));
+        }
+
+        return record.flip();
+    }
+
+    private static byte[] encode(String value) {
+        var bytes = (value != null ? value : "").getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_STRING_LENGTH) {
+            throw new IllegalArgumentException("Too long question value: " + bytes.length + " bytes");
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Decodes the record encoded by {@link #encode(TriviaQuestion)} starting at the given offset of the buffer;
+     * the string buffer should be at least {@link #STRING_BUFFER_SIZE} long, so it fits any string.
+     */
+    static TriviaQuestion decode(ByteBuffer buffer, int offset, byte[] stringBuffer) {
+        var position = offset + Integer.BYTES;
+        var fingerprint = buffer.getLong(position);
+        position += Long.BYTES;
+
+        var question = decodeString(buffer, position, stringBuffer);
+        position += Short.BYTES + stringLengthAt(buffer, position);
+        var correctAnswer = decodeString(buffer, position, stringBuffer);
+        position += Short.BYTES + stringLengthAt(buffer, position);
+
+        var incorrectAnswersCount = Byte.toUnsignedInt(buffer.get(position));
+        position += Byte.BYTES;
+        var incorrectAnswers = new ArrayList<String>(incorrectAnswersCount);
+        for (int i = 0; i < incorrectAnswersCount; i++) {
+            incorrectAnswers.add(decodeString(buffer, position, stringBuffer));
+            position += Short.BYTES + stringLengthAt(buffer, position);
+        }
+
+        var category = decodeString(buffer, position, stringBuffer);
+        position += Short.BYTES + stringLengthAt(buffer, position);
+        var type = decodeString(buffer, position, stringBuffer);
+        position += Short.BYTES + stringLengthAt(buffer, position);
+        var difficulty = decodeString(buffer, position, stringBuffer);
+
+        return new TriviaQuestion(question, correctAnswer, incorrectAnswers, category, type, difficulty, fingerprint);
+    }
+
+    static int recordLengthAt(ByteBuffer buffer, int offset) {
+        return Integer.BYTES + buffer.getInt(offset);
+    }
+
+    private static String decodeString(ByteBuffer buffer, int position, byte[] stringBuffer) {
+        var length = stringLengthAt(buffer, position);
+        buffer.get(position + Short.BYTES, stringBuffer, 0, length);
+        return new String(stringBuffer, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private static int stringLengthAt(ByteBuffer buffer, int position) {
+        return Short.toUnsignedInt(buffer.getShort(position));
+    }
+}
@@ -0,0 +1,84 @@
+package com.codevalue.archnext;
+
+import java.util.Objects;
+
+/**
+ * Category, difficulty and type the questions should have, as the trivia API returns them; null for any.
+ * A filter with all three set is the key of a {@link QuestionIndex} partition.
+ */
+public final class QuestionFilter {
+    public static final QuestionFilter ANY = new QuestionFilter(null, null, null);
+
+    private final String category;
+    private final String difficulty;
+    private final String type;
+
+    private QuestionFilter(String category, String difficulty, String type) {
+        this.category = category;
+        this.difficulty = difficulty;
+        this.type = type;
+    }
+
+    public static QuestionFilter of(String category, String difficulty, String type) {
+        return category == null && difficulty == null && type == null
+                ? ANY
+                : new QuestionFilter(category, difficulty, type);
+    }
+
+    static QuestionFilter partitionOf(TriviaQuestion question) {
+        return new QuestionFilter(question.getCategory(), question.getDifficulty(), question.getType());
+    }
+
+    public String getCategory() {
+        return category;
+    }
+
+    public String getDifficulty() {
+        return difficulty;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public boolean isAny() {
+        return category == null && difficulty == null && type == null;
+    }
+
+    public boolean matches(TriviaQuestion question) {
+        return matches(question.getCategory(), question.getDifficulty(), question.getType());
+    }
+
+    boolean matches(QuestionFilter partition) {
+        return matches(partition.category, partition.difficulty, partition.type);
+    }
+
+    private boolean matches(String category, String difficulty, String type) {
+        return (this.category == null || this.category.equals(category)) &&
+                (this.difficulty == null || this.difficulty.equals(difficulty)) &&
+                (this.type == null || this.type.equals(type));
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) return true;
+        if (!(other instanceof QuestionFilter)) return false;
+
+        var filter = (QuestionFilter) other;
+        return Objects.equals(category, filter.category) &&
+                Objects.equals(difficulty, filter.difficulty) &&
+                Objects.equals(type, filter.type);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(category, difficulty, type);
+    }
+
+    @Override
+    public String toString() {
+        return "category: " + (category != null ? category : "any") +
+                ", difficulty: " + (difficulty != null ? difficulty : "any") +
+                ", type: " + (type != null ? type : "any");
+    }
+}
@@ -0,0 +1,134 @@
+package com.codevalue.archnext;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Questions partitioned by category × difficulty × type, so drawing the questions of a partition takes a single
+ * lookup instead of a scan over all the questions. A partially set filter goes over the matching partitions,
+ * and the unfiltered draws take a question of every partition in turn, so the categories keep being mixed.
+ * The draws leave the questions in the index, so every user is served the questions they haven't seen, and
+ * the questions leave it only oldest first, once the index is over its capacity.
+ * <p>
+ * Not thread safe, guarded by its owner. The partitions are never removed, as there are only so many of them.
+ */
+final class QuestionIndex {
+    private static final class Partition {
+        final QuestionFilter key;
+        final ArrayDeque<TriviaQuestion> questions = new ArrayDeque<>();
+
+        Partition(QuestionFilter key) {
+            this.key = key;
+        }
+    }
+
+    private final Map<QuestionFilter, Partition> partitions = new HashMap<>();
+    // the same partitions, in the order the unfiltered draws go round them
+    private final List<Partition> partitionsList = new ArrayList<>();
+    // all the questions in the order they were added, for evicting the oldest ones
+    private final ArrayDeque<TriviaQuestion> questions = new ArrayDeque<>();
+    private int nextPartitionIndex;
+
+    void add(TriviaQuestion question) {
+        var key = QuestionFilter.partitionOf(question);
+        var partition = partitions.get(key);
+        if (partition == null) {
+            partition = new Partition(key);
+            partitions.put(key, partition);
+            partitionsList.add(partition);
+        }
+
+        partition.questions.addLast(question);
+        questions.addLast(question);
+    }
+
+    /**
+     * Removes the question added first, the oldest one of its partition as well. Returns null when empty.
+     */
+    TriviaQuestion evictOldest() {
+        var question = questions.pollFirst();
+        if (question != null) {
+            partitions.get(QuestionFilter.partitionOf(question)).questions.pollFirst();
+        }
+
+        return question;
+    }
+
+    /**
+     * Adds to {@code drawn} up to {@code maxCount} questions matching the filter which are not contained in
+     * {@code seenQuestions}, the oldest ones of every partition first, leaving them in the index.
+     */
+    void draw(SeenQuestions seenQuestions, int maxCount, QuestionFilter filter, Collection<TriviaQuestion> drawn) {
+        if (filter.getCategory() != null && filter.getDifficulty() != null && filter.getType() != null) {
+            var partition = partitions.get(filter);
+            if (partition != null) {
+                drawFrom(partition.questions.iterator(), seenQuestions, maxCount, drawn);
+            }
+            return;
+        }
+
+        // one question of every matching partition in turn, till the count is reached or none has more, every
+        // partition going on from where it stopped, so a draw going round the partitions again takes new questions
+        var cursors = new HashMap<Partition, Iterator<TriviaQuestion>>();
+        var drawnCount = drawn.size();
+        var target = drawnCount + maxCount;
+        var missesInRow = 0;
+        while (drawnCount < target && missesInRow < partitionsList.size()) {
+            var partition = partitionsList.get(nextPartitionIndex);
+            nextPartitionIndex = (nextPartitionIndex + 1) % partitionsList.size();
+            if (!filter.matches(partition.key)) {
+                missesInRow++;
+                continue;
+            }
+
+            var cursor = cursors.computeIfAbsent(partition, matching -> matching.questions.iterator());
+            if (drawFrom(cursor, seenQuestions, 1, drawn) > 0) {
+                drawnCount++;
+                missesInRow = 0;
+            } else {
+                missesInRow++;
+            }
+        }
+    }
+
+    int size() {
+        return questions.size();
+    }
+
+    // the categories of all the questions ever added
+    Set<String> getCategories() {
+        var categories = new TreeSet<String>();
+        for (var partition : partitionsList) {
+            if (partition.key.getCategory() != null) {
+                categories.add(partition.key.getCategory());
+            }
+        }
+
+        return categories;
+    }
+
+    private int drawFrom(
+            Iterator<TriviaQuestion> iterator,
+            SeenQuestions seenQuestions,
+            int maxCount,
+            Collection<TriviaQuestion> drawn
+    ) {
+        var count = 0;
+        while (count < maxCount && iterator.hasNext()) {
+            var question = iterator.next();
+            if (seenQuestions.contains(question.getFingerprint())) continue;
+
+            drawn.add(question);
+            count++;
+        }
+
+        return count;
+    }
+}
@@ -0,0 +1,49 @@
+package com.codevalue.archnext;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Bounded cache of the rendered questions keyed by the question text. Questions are rendered once they are
+ * loaded, so serving a question doesn't decode it again; the oldest entries are evicted first.
+ */
+public class QuestionRenderer {
+    private final int maxSize;
+    private final ConcurrentMap<String, RenderedQuestion> renderedQuestions = new ConcurrentHashMap<>();
+    private final Queue<String> insertionOrder = new ConcurrentLinkedQueue<>();
+
+    public QuestionRenderer(int maxSize) {
+        if (maxSize <= 0) throw new IllegalArgumentException("Invalid cache size: " + maxSize);
+
+        this.maxSize = maxSize;
+    }
+
+    public RenderedQuestion render(TriviaQuestion question) {
+        var key = question.getQuestion();
+        var rendered = renderedQuestions.get(key);
+        if (rendered != null) return rendered;
+
+        rendered = RenderedQuestion.of(question);
+        if (renderedQuestions.putIfAbsent(key, rendered) == null) {
+            insertionOrder.add(key);
+            evictOverflow();
+        }
+
+        return rendered;
+    }
+
+    public int size() {
+        return renderedQuestions.size();
+    }
+
+    private void evictOverflow() {
+        while (renderedQuestions.size() > maxSize) {
+            var eldest = insertionOrder.poll();
+            if (eldest == null) return;
+
+            renderedQuestions.remove(eldest);
+        }
+    }
+}
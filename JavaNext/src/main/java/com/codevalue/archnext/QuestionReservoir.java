@@ -0,0 +1,278 @@
+package com.codevalue.archnext;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongPredicate;
+
+/**
+ * Questions pool shared by all the users. The questions stay in the pool when they are drawn, so each of them is
+ * served to every user who hasn't seen it, and only the oldest ones are evicted once the pool is over the high
+ * watermark. The pool is filled up to the high watermark on start, and later on new questions are loaded only
+ * once a user is running out of the questions they haven't seen, so in the common case users are served from
+ * memory and the amount of upstream calls doesn't depend on the amount of users.
+ */
+public class QuestionReservoir {
+    // opentdb.com doesn't return more than 50 questions per call
+    public static final int MAX_BATCH_SIZE = 50;
+    private static final long REFILL_INTERVAL_SECONDS = 5;
+    private static final long DEFAULT_REFILL_LATENCY_NANOS = TimeUnit.SECONDS.toNanos(1);
+    // the weight of the latest refill in the average refill latency
+    private static final double REFILL_LATENCY_WEIGHT = 0.2;
+    // the questions left unseen by the drawing user when the draw starts loading more of them
+    private static final int UNSEEN_LOW_WATERMARK = 10;
+    private static final long EXHAUSTED_FILTER_RETRY_NANOS = TimeUnit.SECONDS.toNanos(REFILL_INTERVAL_SECONDS);
+
+    public interface QuestionsLoader {
+        CompletableFuture<List<TriviaQuestion>> load(int amount);
+
+        /**
+         * Loads the questions, where the loader may skip the ones {@code isKnown} accepts the fingerprints of
+         * before even creating them. Called on any thread.
+         */
+        default CompletableFuture<List<TriviaQuestion>> load(int amount, LongPredicate isKnown) {
+            return load(amount);
+        }
+
+        /**
+         * Loads the questions matching the filter. The loaders which can't filter return any questions,
+         * which are kept in the reservoir all the same.
+         */
+        default CompletableFuture<List<TriviaQuestion>> load(int amount, QuestionFilter filter, LongPredicate isKnown) {
+            return load(amount, isKnown);
+        }
+    }
+
+    private final QuestionsLoader loader;
+    private final int lowWatermark;
+    private final int highWatermark;
+    private final QuestionIndex questions = new QuestionIndex();
+    private final FingerprintSet fingerprints = new FingerprintSet();
+    private final SingleFlight<QuestionFilter, Void> filteredRefills = new SingleFlight<>();
+    // of both the plain and the filtered loads
+    private final LatencyHistogram loadLatencies = new LatencyHistogram();
+    private final LongAdder loadFailuresCount = new LongAdder();
+    // the filters the last load of which brought nothing new, till their next load is allowed, guarded by this
+    private final Map<QuestionFilter, Long> exhaustedFilters = new HashMap<>();
+    private final ScheduledExecutorService refiller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        var thread = new Thread(runnable, "question-reservoir-refiller");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // all three guarded by this
+    private boolean isFilling;
+    private CompletableFuture<Void> pendingRefill;
+    // the unfiltered questions the draws found missing, which are loaded back to back, up to the high watermark
+    private int missingCount;
+    // written by the completing refills only, which never overlap
+    private volatile long averageRefillLatencyNanos = DEFAULT_REFILL_LATENCY_NANOS;
+
+    public QuestionReservoir(QuestionsLoader loader, int lowWatermark, int highWatermark) {
+        if (lowWatermark < 0 || highWatermark < lowWatermark) {
+            throw new IllegalArgumentException("Invalid watermarks: low " + lowWatermark + ", high " + highWatermark);
+        }
+
+        this.loader = loader;
+        this.lowWatermark = lowWatermark;
+        this.highWatermark = highWatermark;
+    }
+
+    public void start() {
+        refiller.scheduleWithFixedDelay(this::refillIfNeeded, 0, REFILL_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    public void stop() {
+        refiller.shutdownNow();
+    }
+
+    public synchronized int size() {
+        return questions.size();
+    }
+
+    /**
+     * The moving average of how long the successful refills take, the upstream latency as the users see it.
+     */
+    public long getAverageRefillLatencyNanos() {
+        return averageRefillLatencyNanos;
+    }
+
+    public LatencyHistogram getLoadLatencies() {
+        return loadLatencies;
+    }
+
+    public long getLoadFailuresCount() {
+        return loadFailuresCount.sum();
+    }
+
+    // the categories of all the questions ever loaded
+    public synchronized Set<String> getCategories() {
+        return questions.getCategories();
+    }
+
+    /**
+     * Draws up to {@code maxCount} questions which are not contained in {@code seenQuestions}.
+     */
+    public List<TriviaQuestion> draw(SeenQuestions seenQuestions, int maxCount) {
+        return draw(seenQuestions, maxCount, QuestionFilter.ANY);
+    }
+
+    /**
+     * Draws up to {@code maxCount} questions matching the filter which are not contained in {@code seenQuestions},
+     * leaving them in the reservoir for the other users. Once few of them are left unseen by the user, more
+     * questions of the filter start loading.
+     */
+    public List<TriviaQuestion> draw(SeenQuestions seenQuestions, int maxCount, QuestionFilter filter) {
+        // the questions over the count only tell whether the user is running out of the unseen ones
+        var lookaheadCount = maxCount + UNSEEN_LOW_WATERMARK;
+        var drawn = new ArrayList<TriviaQuestion>(lookaheadCount);
+        synchronized (this) {
+            questions.draw(seenQuestions, lookaheadCount, filter, drawn);
+            // the refill starts right away rather than on the next refiller run, so the reservoir doesn't run dry
+            refillIfNeeded();
+        }
+
+        if (drawn.size() < lookaheadCount) {
+            if (filter.isAny()) {
+                synchronized (this) {
+                    missingCount = Math.min(highWatermark, missingCount + lookaheadCount - drawn.size());
+                }
+            }
+
+            refill(filter);
+        }
+
+        if (drawn.size() > maxCount) {
+            drawn.subList(maxCount, drawn.size()).clear();
+        }
+
+        return drawn;
+    }
+
+    /**
+     * Starts loading the next batch of questions unless it is already being loaded.
+     * The returned future completes once the batch is added to the reservoir.
+     */
+    public synchronized CompletableFuture<Void> refill() {
+        isFilling = true;
+        return pendingRefill != null ? pendingRefill : startRefill();
+    }
+
+    /**
+     * Starts loading a batch of the questions matching the filter, passing the filter upstream, unless it is
+     * already being loaded or the previous load brought nothing new just now.
+     */
+    public CompletableFuture<Void> refill(QuestionFilter filter) {
+        synchronized (this) {
+            var retryNanos = exhaustedFilters.get(filter);
+            if (retryNanos != null) {
+                if (System.nanoTime() - retryNanos < 0) return CompletableFuture.completedFuture(null);
+
+                exhaustedFilters.remove(filter);
+            }
+        }
+
+        if (filter.isAny()) return refill();
+
+        var startNanos = System.nanoTime();
+        return filteredRefills.execute(filter, () -> loader.load(MAX_BATCH_SIZE, filter, this::contains)
+                .thenAcceptAsync(loaded -> {
+                    loadLatencies.record(System.nanoTime() - startNanos);
+                    synchronized (this) {
+                        if (add(loaded) == 0) {
+                            exhaustedFilters.put(filter, System.nanoTime() + EXHAUSTED_FILTER_RETRY_NANOS);
+                        }
+                    }
+                }, refiller)
+                .whenComplete((ignored, throwable) -> {
+                    if (throwable != null) {
+                        loadFailuresCount.increment();
+                        System.out.println("Couldn't load the questions of " + filter + ", error: " + throwable);
+                    }
+                })
+        );
+    }
+
+    private synchronized void refillIfNeeded() {
+        if (questions.size() < lowWatermark || missingCount > 0) {
+            isFilling = true;
+        }
+
+        if (isFilling && pendingRefill == null) {
+            startRefill();
+        }
+    }
+
+    private CompletableFuture<Void> startRefill() {
+        var refill = new CompletableFuture<Void>();
+        pendingRefill = refill;
+
+        var startNanos = System.nanoTime();
+        // the loaded questions are added by the refiller, not holding back the thread the loader completes on
+        loader.load(MAX_BATCH_SIZE, this::contains).whenCompleteAsync((loaded, throwable) -> {
+            synchronized (this) {
+                pendingRefill = null;
+                // the batches are loaded back to back till the high watermark or till the missing questions are
+                // loaded, while after a failed batch or one without new questions the loading waits for the next
+                // refiller run
+                if (throwable == null) {
+                    var added = add(loaded);
+                    missingCount = Math.max(0, missingCount - added);
+                    if (added > 0) {
+                        refillIfNeeded();
+                    } else {
+                        missingCount = 0;
+                        exhaustedFilters.put(QuestionFilter.ANY, System.nanoTime() + EXHAUSTED_FILTER_RETRY_NANOS);
+                    }
+                }
+            }
+
+            if (throwable != null) {
+                loadFailuresCount.increment();
+                System.out.println("Couldn't refill the questions reservoir, error: " + throwable);
+                refill.completeExceptionally(throwable);
+                return;
+            }
+
+            var latencyNanos = System.nanoTime() - startNanos;
+            loadLatencies.record(latencyNanos);
+            averageRefillLatencyNanos += (long) (REFILL_LATENCY_WEIGHT * (latencyNanos - averageRefillLatencyNanos));
+            refill.complete(null);
+        }, refiller);
+
+        return refill;
+    }
+
+    private synchronized boolean contains(long fingerprint) {
+        return fingerprints.contains(fingerprint);
+    }
+
+    // returns the amount of the questions added, evicting the oldest ones over the high watermark
+    private int add(List<TriviaQuestion> loaded) {
+        var added = 0;
+        for (var question : loaded) {
+            if (!fingerprints.contains(question.getFingerprint())) {
+                fingerprints.add(question.getFingerprint());
+                questions.add(question);
+                added++;
+            }
+        }
+
+        if (questions.size() >= highWatermark) {
+            isFilling = false;
+        }
+
+        while (questions.size() > highWatermark) {
+            fingerprints.remove(questions.evictOldest().getFingerprint());
+        }
+
+        return added;
+    }
+}
@@ -0,0 +1,48 @@
+package com.codevalue.archnext;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Trivia question decoded to the plain text it is presented to the users with.
+ * The correct answer is kept as the last one of the answers.
+ */
+public final class RenderedQuestion {
+    private final String question;
+    private final String[] answers;
+
+    RenderedQuestion(String question, String[] answers) {
+        this.question = question;
+        this.answers = answers;
+    }
+
+    public static RenderedQuestion of(TriviaQuestion triviaQuestion) {
+        var incorrectAnswers = triviaQuestion.getIncorrectAnswers();
+        var answers = new String[incorrectAnswers.size() + 1];
+        for (int i = 0; i < incorrectAnswers.size(); i++) {
+            answers[i] = HtmlEntities.toText(incorrectAnswers.get(i));
+        }
+
+        answers[answers.length - 1] = HtmlEntities.toText(triviaQuestion.getCorrectAnswer());
+        return new RenderedQuestion(HtmlEntities.toText(triviaQuestion.getQuestion()), answers);
+    }
+
+    public String getQuestion() {
+        return question;
+    }
+
+    public int getAnswersCount() {
+        return answers.length;
+    }
+
+    /**
+     * Returns a new list of the answers where the correct one is placed at {@code correctAnswerIndex}.
+     */
+    public List<String> getAnswers(int correctAnswerIndex) {
+        var shuffled = new ArrayList<>(Arrays.asList(answers));
+        Collections.swap(shuffled, correctAnswerIndex, answers.length - 1);
+        return shuffled;
+    }
+}
@@ -0,0 +1,215 @@
+package com.codevalue.archnext;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongConsumer;
+
+/**
+ * The users' scores, kept apart from the sessions, so they outlive /bye. The scores are accumulated in
+ * {@link LongAdder}s, which don't contend however many answers are scored at once, and are read from memory
+ * without taking any lock but the store's segment one. The scores of the users not seen for the idle timeout
+ * are evicted, as are the least recently active ones beyond the maximal count.
+ * <p>
+ * The correct answers rank the users in the overall {@link Leaderboard} and in the one of the question's
+ * category, updated as the answers are scored under the lock of the user's score only. In the cluster mode
+ * the score moves, with its rankings, to the node the user's partition is handed off to.
+ */
+public class Scoreboard {
+    private static final long SWEEP_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    private static final String TOP_TITLE = "Top players";
+
+    public static final class Score {
+        private final LongAdder answersCount = new LongAdder();
+        private final LongAdder correctAnswersCount = new LongAdder();
+        // the ranked scores, guarded by the score itself
+        private final Map<String, Long> categoryCorrectAnswersCounts = new HashMap<>();
+        private long rankedCorrectAnswersCount;
+        // the name the user is ranked by
+        private String rankedName;
+        private boolean isEvicted;
+
+        public long getAnswersCount() {
+            return answersCount.sum();
+        }
+
+        public long getCorrectAnswersCount() {
+            return correctAnswersCount.sum();
+        }
+    }
+
+    private final int topSize;
+    private final SessionStore<Score> scores;
+    private final Leaderboard leaderboard;
+    private final Map<String, Leaderboard> categoryLeaderboards = new ConcurrentHashMap<>();
+    private final LongAdder answersCount = new LongAdder();
+    private final LongAdder correctAnswersCount = new LongAdder();
+
+    public Scoreboard(int maxSize, long idleTimeoutMillis, int topSize) {
+        this.topSize = topSize;
+        leaderboard = new Leaderboard(topSize, TOP_TITLE);
+        scores = new SessionStore<>(maxSize, idleTimeoutMillis, SWEEP_INTERVAL_MILLIS);
+        scores.setEvictionListener(this::unrank);
+    }
+
+    public void start() {
+        scores.start();
+    }
+
+    public void stop() {
+        scores.stop();
+    }
+
+    /**
+     * Scores the user's answer to a question of the category, the name being the one the user is ranked by.
+     */
+    public void record(long userId, String name, String category, boolean isCorrect) {
+        var score = scores.computeIfAbsent(userId, id -> new Score());
+        score.answersCount.increment();
+        answersCount.increment();
+        if (!isCorrect) return;
+
+        score.correctAnswersCount.increment();
+        correctAnswersCount.increment();
+        synchronized (score) {
+            // the answer raced with the eviction, it still counts for the totals
+            if (score.isEvicted) return;
+
+            var rankedCount = score.rankedCorrectAnswersCount;
+            score.rankedCorrectAnswersCount = rankedCount + 1;
+            score.rankedName = name;
+            leaderboard.update(userId, name, rankedCount, rankedCount + 1);
+            if (category == null) return;
+
+            var categoryCount = score.categoryCorrectAnswersCounts.getOrDefault(category, 0L);
+            score.categoryCorrectAnswersCounts.put(category, categoryCount + 1);
+            getCategoryLeaderboard(category).update(userId, name, categoryCount, categoryCount + 1);
+        }
+    }
+
+    // null when the user hasn't answered any questions yet
+    public Score get(long userId) {
+        return scores.get(userId);
+    }
+
+    public void forEachUser(LongConsumer consumer) {
+        scores.forEach((userId, score) -> consumer.accept(userId));
+    }
+
+    /**
+     * Removes the user's score along with its rankings, returning its state to be restored on another node
+     * of the cluster, or null when the user has no score.
+     */
+    public ByteBuffer release(long userId) {
+        var score = scores.remove(userId);
+        if (score == null) return null;
+
+        var bytes = new ByteArrayOutputStream();
+        try (var output = new DataOutputStream(bytes)) {
+            synchronized (score) {
+                unrank(userId, score);
+                output.writeLong(score.answersCount.sum());
+                output.writeLong(score.correctAnswersCount.sum());
+                output.writeUTF(score.rankedName != null ? score.rankedName : "");
+                output.writeLong(score.rankedCorrectAnswersCount);
+                output.writeShort(score.categoryCorrectAnswersCounts.size());
+                for (var entry : score.categoryCorrectAnswersCounts.entrySet()) {
+                    output.writeUTF(entry.getKey());
+                    output.writeLong(entry.getValue());
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return ByteBuffer.wrap(bytes.toByteArray());
+    }
+
+    /**
+     * Adds the score released by another node to the user's score here, ranking the user by it.
+     */
+    public void restore(long userId, ByteBuffer state) {
+        var score = scores.computeIfAbsent(userId, id -> new Score());
+        try (var input = new DataInputStream(
+                new ByteArrayInputStream(state.array(), state.arrayOffset() + state.position(), state.remaining())
+        )) {
+            score.answersCount.add(input.readLong());
+            score.correctAnswersCount.add(input.readLong());
+            var name = input.readUTF();
+            var restoredCount = input.readLong();
+            synchronized (score) {
+                if (score.isEvicted) return;
+
+                if (restoredCount > 0) {
+                    var rankedCount = score.rankedCorrectAnswersCount;
+                    score.rankedCorrectAnswersCount = rankedCount + restoredCount;
+                    score.rankedName = name;
+                    leaderboard.update(userId, name, rankedCount, rankedCount + restoredCount);
+                }
+
+                var categoriesCount = input.readUnsignedShort();
+                for (int i = 0; i < categoriesCount; i++) {
+                    var category = input.readUTF();
+                    var restoredCategoryCount = input.readLong();
+                    var categoryCount = score.categoryCorrectAnswersCounts.getOrDefault(category, 0L);
+                    score.categoryCorrectAnswersCounts.put(category, categoryCount + restoredCategoryCount);
+                    getCategoryLeaderboard(category).update(
+                            userId,
+                            name,
+                            categoryCount,
+                            categoryCount + restoredCategoryCount
+                    );
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public Leaderboard getLeaderboard() {
+        return leaderboard;
+    }
+
+    // null when nobody has answered the questions of the category correctly yet
+    public Leaderboard getLeaderboard(String category) {
+        return categoryLeaderboards.get(category);
+    }
+
+    public int size() {
+        return scores.size();
+    }
+
+    public long getAnswersCount() {
+        return answersCount.sum();
+    }
+
+    public long getCorrectAnswersCount() {
+        return correctAnswersCount.sum();
+    }
+
+    private Leaderboard getCategoryLeaderboard(String category) {
+        return categoryLeaderboards.computeIfAbsent(
+                category,
+                c -> new Leaderboard(topSize, TOP_TITLE + " of " + HtmlEntities.toText(c))
+        );
+    }
+
+    private void unrank(long userId, Score score) {
+        synchronized (score) {
+            score.isEvicted = true;
+            leaderboard.remove(userId, score.rankedCorrectAnswersCount);
+            for (var entry : score.categoryCorrectAnswersCounts.entrySet()) {
+                getCategoryLeaderboard(entry.getKey()).remove(userId, entry.getValue());
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.codevalue.archnext;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The questions a user has already been asked, kept as 64-bit fingerprints of the question texts instead of
+ * the texts themselves. The implementations never report a seen question as unseen, so the user is never
+ * asked the same question twice.
+ */
+public interface SeenQuestions {
+    boolean contains(long fingerprint);
+
+    void add(long fingerprint);
+
+    /**
+     * Estimated memory taken by the set.
+     */
+    long getFootprintBytes();
+
+    /**
+     * The amount of bytes {@link #writeTo(ByteBuffer)} puts into the buffer.
+     */
+    int getSerializedSize();
+
+    /**
+     * Serializes the set, along with its type, to be restored by {@link #readFrom(ByteBuffer)}.
+     */
+    void writeTo(ByteBuffer buffer);
+
+    static SeenQuestions readFrom(ByteBuffer buffer) {
+        var type = buffer.get();
+        return switch (type) {
+            case FingerprintSet.SERIALIZED_TYPE -> FingerprintSet.readFrom(buffer);
+            case BloomSeenQuestions.SERIALIZED_TYPE -> BloomSeenQuestions.readFrom(buffer);
+            default -> throw new IllegalArgumentException("Unknown seen questions type: " + type);
+        };
+    }
+
+    /**
+     * 64-bit FNV-1a of the text, spread with the Murmur3 finalizer. Never returns 0, so the fingerprints can be
+     * stored in the tables which use 0 for the empty slots.
+     */
+    static long fingerprintOf(String text) {
+        var hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < text.length(); i++) {
+            hash ^= text.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+
+        return spread(hash);
+    }
+
+    /**
+     * The same fingerprint as of the string of the given characters, computed without creating the string.
+     */
+    static long fingerprintOf(char[] text, int offset, int length) {
+        var hash = 0xcbf29ce484222325L;
+        for (int i = offset; i < offset + length; i++) {
+            hash ^= text[i];
+            hash *= 0x100000001b3L;
+        }
+
+        return spread(hash);
+    }
+
+    private static long spread(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash != 0 ? hash : 1;
+    }
+}
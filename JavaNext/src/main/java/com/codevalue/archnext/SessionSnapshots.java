@@ -0,0 +1,122 @@
+package com.codevalue.archnext;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Snapshot file of the user sessions, each one stored as an opaque state encoded by the caller into a heap buffer.
+ * <p>
+ * The file starts with the magic number and the format version, followed by the records of the user id,
+ * the state length and the state bytes. A snapshot is written to a temporary file which then replaces the
+ * previous snapshot, so a crash in the middle of writing leaves the previous snapshot intact.
+ */
+public class SessionSnapshots {
+    private static final int MAGIC = 0x54515353;
+    private static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    public interface SessionSink {
+        void accept(long userId, ByteBuffer state) throws IOException;
+    }
+
+    public interface SessionSource {
+        void forEach(SessionSink sink) throws IOException;
+    }
+
+    private final Path path;
+    private volatile long lastSnapshotDurationMillis;
+    private volatile long lastSnapshotSizeBytes;
+    private volatile int lastSnapshotSessionsCount;
+    private volatile long lastRestoreDurationMillis;
+
+    public SessionSnapshots(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Writes all the sessions of the source into a new snapshot.
+     */
+    public synchronized void save(SessionSource source) throws IOException {
+        var startNanos = System.nanoTime();
+        var temporaryPath = path.resolveSibling(path.getFileName() + ".tmp");
+        var sessionsCount = new int[1];
+        try (var output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryPath), BUFFER_SIZE))) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            source.forEach((userId, state) -> {
+                output.writeLong(userId);
+                output.writeInt(state.remaining());
+                output.write(state.array(), state.arrayOffset() + state.position(), state.remaining());
+                sessionsCount[0]++;
+            });
+        }
+
+        Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        lastSnapshotSizeBytes = Files.size(path);
+        lastSnapshotSessionsCount = sessionsCount[0];
+        lastSnapshotDurationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Passes all the sessions of the last snapshot to the sink, returns their amount,
+     * or 0 if there is no snapshot yet. The state buffers are reused, so the sink should not keep them.
+     */
+    public synchronized int restore(SessionSink sink) throws IOException {
+        if (!Files.exists(path)) return 0;
+
+        var startNanos = System.nanoTime();
+        var sessionsCount = 0;
+        var state = new byte[BUFFER_SIZE];
+        try (var input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE))) {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                throw new IOException("Not a sessions snapshot file or an unsupported version of it: " + path);
+            }
+
+            while (true) {
+                long userId;
+                try {
+                    userId = input.readLong();
+                } catch (EOFException e) {
+                    break;
+                }
+
+                var length = input.readInt();
+                if (state.length < length) {
+                    state = new byte[Math.max(length, state.length * 2)];
+                }
+
+                input.readFully(state, 0, length);
+                sink.accept(userId, ByteBuffer.wrap(state, 0, length));
+                sessionsCount++;
+            }
+        }
+
+        lastRestoreDurationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        return sessionsCount;
+    }
+
+    public long getLastSnapshotDurationMillis() {
+        return lastSnapshotDurationMillis;
+    }
+
+    public long getLastSnapshotSizeBytes() {
+        return lastSnapshotSizeBytes;
+    }
+
+    public int getLastSnapshotSessionsCount() {
+        return lastSnapshotSessionsCount;
+    }
+
+    public long getLastRestoreDurationMillis() {
+        return lastRestoreDurationMillis;
+    }
+}
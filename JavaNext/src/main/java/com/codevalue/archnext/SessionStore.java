@@ -0,0 +1,323 @@
+package com.codevalue.archnext;
+
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongFunction;
+
+/**
+ * Sessions keyed by the primitive user id, stored in segmented open addressing tables, so neither the keys nor
+ * the table entries are boxed. A background sweeper evicts the sessions idle for longer than the idle timeout
+ * and, when there are more sessions than the maximal size, the least recently accessed ones. An evicted
+ * session is simply gone, so its user starts over exactly as after the very first /start.
+ */
+public class SessionStore<V> {
+    public interface EntryConsumer<V> {
+        void accept(long key, V value);
+    }
+
+    private static final int SEGMENTS_COUNT = 64;
+    private static final int INITIAL_SEGMENT_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.75f;
+    // key + access time + compressed reference per slot
+    private static final int SLOT_FOOTPRINT_BYTES = Long.BYTES + Integer.BYTES + Integer.BYTES;
+    private static final int ARRAY_HEADER_BYTES = 16;
+
+    private static final class Segment {
+        long[] keys = new long[INITIAL_SEGMENT_CAPACITY];
+        Object[] values = new Object[INITIAL_SEGMENT_CAPACITY];
+        // seconds since the store creation
+        int[] accessTimes = new int[INITIAL_SEGMENT_CAPACITY];
+        int size;
+    }
+
+    private final int maxSize;
+    private final long idleTimeoutSeconds;
+    private final long sweepIntervalMillis;
+    private final long createdNanos = System.nanoTime();
+    private final Segment[] segments = new Segment[SEGMENTS_COUNT];
+    private final LongAdder idleEvictionsCount = new LongAdder();
+    private final LongAdder overflowEvictionsCount = new LongAdder();
+    private volatile EntryConsumer<? super V> evictionListener;
+    private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        var thread = new Thread(runnable, "session-store-sweeper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public SessionStore(int maxSize, long idleTimeoutMillis, long sweepIntervalMillis) {
+        if (maxSize <= 0) throw new IllegalArgumentException("Invalid max size: " + maxSize);
+        if (idleTimeoutMillis <= 0) throw new IllegalArgumentException("Invalid idle timeout: " + idleTimeoutMillis);
+
+        this.maxSize = maxSize;
+        this.idleTimeoutSeconds = Math.max(1, TimeUnit.MILLISECONDS.toSeconds(idleTimeoutMillis));
+        this.sweepIntervalMillis = sweepIntervalMillis;
+        for (int i = 0; i < SEGMENTS_COUNT; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * Sets the consumer called for every evicted session, under the lock of its segment, so it should be quick.
+     * The removed sessions are not passed to it.
+     */
+    public void setEvictionListener(EntryConsumer<? super V> evictionListener) {
+        this.evictionListener = evictionListener;
+    }
+
+    public void start() {
+        sweeper.scheduleWithFixedDelay(this::sweep, sweepIntervalMillis, sweepIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        sweeper.shutdownNow();
+    }
+
+    /**
+     * Returns the session of the given user, if there is one, marking it as accessed.
+     */
+    public V get(long key) {
+        var hash = hash(key);
+        var segment = segmentOf(hash);
+        synchronized (segment) {
+            var slot = findSlot(segment, key, hash);
+            if (slot < 0) return null;
+
+            segment.accessTimes[slot] = now();
+            return valueAt(segment, slot);
+        }
+    }
+
+    public V computeIfAbsent(long key, LongFunction<V> factory) {
+        var hash = hash(key);
+        var segment = segmentOf(hash);
+        synchronized (segment) {
+            var slot = findSlot(segment, key, hash);
+            if (slot >= 0) {
+                segment.accessTimes[slot] = now();
+                return valueAt(segment, slot);
+            }
+
+            var value = factory.apply(key);
+            if (segment.size + 1 > segment.keys.length * LOAD_FACTOR) {
+                resize(segment);
+            }
+
+            insert(segment, key, hash, value, now());
+            return value;
+        }
+    }
+
+    public V remove(long key) {
+        var hash = hash(key);
+        var segment = segmentOf(hash);
+        synchronized (segment) {
+            var slot = findSlot(segment, key, hash);
+            if (slot < 0) return null;
+
+            var value = this.<V>valueAt(segment, slot);
+            removeAt(segment, slot);
+            return value;
+        }
+    }
+
+    /**
+     * Calls the consumer for every session. The sessions of a segment are copied under its lock and the consumer
+     * is called after releasing it, so the consumer doesn't block the lookups however long it takes.
+     */
+    public void forEach(EntryConsumer<? super V> consumer) {
+        for (var segment : segments) {
+            long[] keys;
+            Object[] values;
+            synchronized (segment) {
+                keys = new long[segment.size];
+                values = new Object[segment.size];
+                var i = 0;
+                for (int slot = 0; slot < segment.keys.length; slot++) {
+                    if (segment.values[slot] != null) {
+                        keys[i] = segment.keys[slot];
+                        values[i++] = segment.values[slot];
+                    }
+                }
+            }
+
+            for (int i = 0; i < keys.length; i++) {
+                @SuppressWarnings("unchecked")
+                var value = (V) values[i];
+                consumer.accept(keys[i], value);
+            }
+        }
+    }
+
+    public int size() {
+        var size = 0;
+        for (var segment : segments) {
+            synchronized (segment) {
+                size += segment.size;
+            }
+        }
+
+        return size;
+    }
+
+    /**
+     * Estimated memory taken by the tables themselves, not including the sessions they reference.
+     */
+    public long getTableFootprintBytes() {
+        var footprint = 0L;
+        for (var segment : segments) {
+            synchronized (segment) {
+                footprint += (long) segment.keys.length * SLOT_FOOTPRINT_BYTES + 3 * ARRAY_HEADER_BYTES;
+            }
+        }
+
+        return footprint;
+    }
+
+    public long getIdleEvictionsCount() {
+        return idleEvictionsCount.sum();
+    }
+
+    public long getOverflowEvictionsCount() {
+        return overflowEvictionsCount.sum();
+    }
+
+    void sweep() {
+        var idleBefore = (int) (now() - idleTimeoutSeconds);
+        var maxSegmentSize = Math.max(1, maxSize / SEGMENTS_COUNT);
+        for (var segment : segments) {
+            synchronized (segment) {
+                idleEvictionsCount.add(evictAccessedBefore(segment, idleBefore, Integer.MAX_VALUE));
+                if (segment.size > maxSegmentSize) {
+                    overflowEvictionsCount.add(evictLeastRecentlyAccessed(segment, segment.size - maxSegmentSize));
+                }
+            }
+        }
+
+        System.out.println(
+                "Sessions: " + size() + ", tables footprint: " + getTableFootprintBytes() / 1024 + " KB, evicted idle: " +
+                        getIdleEvictionsCount() + ", evicted on overflow: " + getOverflowEvictionsCount()
+        );
+    }
+
+    private int evictAccessedBefore(Segment segment, int time, int limit) {
+        var evicted = 0;
+        // removal shifts the following entries back, so the slot is checked again after it
+        for (int slot = 0; slot < segment.keys.length && evicted < limit; ) {
+            if (segment.values[slot] != null && segment.accessTimes[slot] < time) {
+                var listener = evictionListener;
+                if (listener != null) {
+                    listener.accept(segment.keys[slot], valueAt(segment, slot));
+                }
+
+                removeAt(segment, slot);
+                evicted++;
+            } else {
+                slot++;
+            }
+        }
+
+        return evicted;
+    }
+
+    private int evictLeastRecentlyAccessed(Segment segment, int count) {
+        var accessTimes = new int[segment.size];
+        var i = 0;
+        for (int slot = 0; slot < segment.keys.length; slot++) {
+            if (segment.values[slot] != null) {
+                accessTimes[i++] = segment.accessTimes[slot];
+            }
+        }
+
+        Arrays.sort(accessTimes);
+        // the access times have a second resolution, so only a part of the sessions accessed last may be evicted
+        var lastEvictedTime = accessTimes[count - 1];
+        var evicted = evictAccessedBefore(segment, lastEvictedTime, Integer.MAX_VALUE);
+        return evicted + evictAccessedBefore(segment, lastEvictedTime + 1, count - evicted);
+    }
+
+    private int findSlot(Segment segment, long key, long hash) {
+        var mask = segment.keys.length - 1;
+        for (int slot = (int) hash & mask; segment.values[slot] != null; slot = (slot + 1) & mask) {
+            if (segment.keys[slot] == key) return slot;
+        }
+
+        return -1;
+    }
+
+    private void insert(Segment segment, long key, long hash, Object value, int accessTime) {
+        var mask = segment.keys.length - 1;
+        var slot = (int) hash & mask;
+        while (segment.values[slot] != null) {
+            slot = (slot + 1) & mask;
+        }
+
+        segment.keys[slot] = key;
+        segment.values[slot] = value;
+        segment.accessTimes[slot] = accessTime;
+        segment.size++;
+    }
+
+    // backward shift deletion, so the probe sequences stay intact without tombstones
+    private void removeAt(Segment segment, int slot) {
+        var mask = segment.keys.length - 1;
+        segment.values[slot] = null;
+        segment.size--;
+
+        var emptySlot = slot;
+        for (int next = (slot + 1) & mask; segment.values[next] != null; next = (next + 1) & mask) {
+            var idealSlot = (int) hash(segment.keys[next]) & mask;
+            var isInPlace = emptySlot <= next
+                    ? emptySlot < idealSlot && idealSlot <= next
+                    : emptySlot < idealSlot || idealSlot <= next;
+            if (isInPlace) continue;
+
+            segment.keys[emptySlot] = segment.keys[next];
+            segment.values[emptySlot] = segment.values[next];
+            segment.accessTimes[emptySlot] = segment.accessTimes[next];
+            segment.values[next] = null;
+            emptySlot = next;
+        }
+    }
+
+    private void resize(Segment segment) {
+        var keys = segment.keys;
+        var values = segment.values;
+        var accessTimes = segment.accessTimes;
+
+        segment.keys = new long[keys.length * 2];
+        segment.values = new Object[keys.length * 2];
+        segment.accessTimes = new int[keys.length * 2];
+        segment.size = 0;
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (values[slot] != null) {
+                insert(segment, keys[slot], hash(keys[slot]), values[slot], accessTimes[slot]);
+            }
+        }
+    }
+
+    private Segment segmentOf(long hash) {
+        return segments[(int) (hash >>> 58) & (SEGMENTS_COUNT - 1)];
+    }
+
+    private int now() {
+        return (int) TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - createdNanos);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T valueAt(Segment segment, int slot) {
+        return (T) segment.values[slot];
+    }
+
+    // the Murmur3 finalizer, spreading the sequential ids over the whole table
+    private static long hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+}
@@ -0,0 +1,44 @@
+package com.codevalue.archnext;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent asynchronous operations per key: while an operation for a key is in progress,
+ * the callers requesting the same key get the pending future instead of starting the operation again.
+ */
+public class SingleFlight<K, V> {
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    public CompletableFuture<V> execute(K key, Supplier<CompletableFuture<V>> operation) {
+        var pending = inFlight.get(key);
+        if (pending != null) return pending;
+
+        var promise = new CompletableFuture<V>();
+        pending = inFlight.putIfAbsent(key, promise);
+        if (pending != null) return pending;
+
+        try {
+            operation.get().whenComplete((value, throwable) -> {
+                inFlight.remove(key, promise);
+                if (throwable != null) {
+                    promise.completeExceptionally(throwable);
+                    return;
+                }
+
+                promise.complete(value);
+            });
+        } catch (RuntimeException e) {
+            inFlight.remove(key, promise);
+            promise.completeExceptionally(e);
+        }
+
+        return promise;
+    }
+
+    public boolean isInFlight(K key) {
+        return inFlight.containsKey(key);
+    }
+}
@@ -0,0 +1,405 @@
+package com.codevalue.archnext;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongPredicate;
+import java.util.function.Supplier;
+
+/**
+ * Loads the questions from the Open Trivia Database API, or from any other server speaking its protocol.
+ * <p>
+ * The questions are requested with a session token of the API, so the API never returns the questions it has
+ * already returned to this loader. Once the token has returned all the questions it is reset, and once it
+ * expires a new one is requested. When the server has no tokens, the questions are requested without them.
+ * <p>
+ * The filtered questions are requested with the category, difficulty and type parameters of the API, where
+ * the category ids are requested from the API once.
+ * <p>
+ * The requests are sent asynchronously by the JDK HTTP client of the loader, over HTTP/2 where the server supports
+ * it and over the HTTP/1.1 connections it keeps open otherwise, and the responses are parsed from their bytes once
+ * they are received, so no thread waits for the server meanwhile, and a few threads parse the responses of all
+ * the loaders.
+ */
+public class TriviaApiLoader implements QuestionReservoir.QuestionsLoader {
+    private static final int RESPONSE_CODE_SUCCESS = 0;
+    // returned with a token as well, when the token has less questions left than asked for
+    private static final int RESPONSE_CODE_NO_RESULTS = 1;
+    private static final int RESPONSE_CODE_TOKEN_NOT_FOUND = 3;
+    private static final int RESPONSE_CODE_TOKEN_EMPTY = 4;
+    private static final int RESPONSE_CODE_RATE_LIMIT = 5;
+    // the codes counted, the last one being "rate limit exceeded"
+    public static final int RESPONSE_CODES_COUNT = 6;
+    private static final long TOKEN_RETRY_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+    private static final long CATEGORIES_RETRY_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+    private static final ObjectReader JSON_RESPONSE_READER = new ObjectMapper().readerFor(JsonNode.class);
+    private static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(5);
+    private static final Duration DEFAULT_READ_TIMEOUT = Duration.ofSeconds(10);
+    // opentdb.com answers an IP once every 5 seconds, so the retries of a load are sent that far apart
+    private static final Duration DEFAULT_RETRY_DELAY = Duration.ofSeconds(5);
+    private static final int MAX_RATE_LIMITED_RETRIES = 3;
+    // the responses are parsed as they arrive, which takes a thread a fraction of a millisecond, so a few of them
+    // serve the loaders of all the servers, instead of the thread per concurrent request of the default executor,
+    // while one of them waiting for the locks of the known questions doesn't hold the other responses back
+    private static final int RESPONSE_THREADS_COUNT = 4;
+    private static final Executor RESPONSES_EXECUTOR = Executors.newFixedThreadPool(
+            RESPONSE_THREADS_COUNT,
+            runnable -> {
+                var thread = new Thread(runnable, "trivia-api-responses");
+                thread.setDaemon(true);
+                return thread;
+            }
+    );
+
+    private static final class Batch {
+        final int responseCode;
+        final List<TriviaQuestion> questions;
+
+        Batch(int responseCode, List<TriviaQuestion> questions) {
+            this.responseCode = responseCode;
+            this.questions = questions;
+        }
+    }
+
+    private interface ResponseReader<T> {
+        T read(byte[] response) throws IOException;
+    }
+
+    private final String apiUrl;
+    private final String tokenApiUrl;
+    private final String categoryApiUrl;
+    private final HttpClient httpClient;
+    private final Duration readTimeout;
+    private final Executor retryExecutor;
+    private final SingleFlight<String, String> tokenRequests = new SingleFlight<>();
+    private final AtomicLongArray responseCodeCounts = new AtomicLongArray(RESPONSE_CODES_COUNT);
+    private final LongAdder requestFailuresCount = new LongAdder();
+    // both guarded by this; null token when there is none yet or the server has no tokens
+    private String token;
+    private long nextTokenRequestNanos = System.nanoTime();
+    // the ids of the categories by their plain text names, both guarded by this; null till requested
+    private CompletableFuture<Map<String, Integer>> categoryIds;
+    private long nextCategoriesRequestNanos = System.nanoTime();
+
+    public TriviaApiLoader(String apiUrl) {
+        this(apiUrl, true);
+    }
+
+    public TriviaApiLoader(String apiUrl, boolean isUsingTokens) {
+        this(apiUrl, isUsingTokens, DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT);
+    }
+
+    /**
+     * The read timeout is the time a request waits for the response, after which it fails as the server doesn't
+     * answer, while the connect timeout fails it earlier when the server can't be connected to.
+     */
+    public TriviaApiLoader(String apiUrl, boolean isUsingTokens, Duration connectTimeout, Duration readTimeout) {
+        this(apiUrl, isUsingTokens, connectTimeout, readTimeout, DEFAULT_RETRY_DELAY);
+    }
+
+    /**
+     * The retry delay is the time between the requests of a load retried on the API's rate limit or its lack
+     * of the filtered questions, at least the interval the server rate limits the requests by.
+     */
+    public TriviaApiLoader(
+            String apiUrl,
+            boolean isUsingTokens,
+            Duration connectTimeout,
+            Duration readTimeout,
+            Duration retryDelay
+    ) {
+        this.apiUrl = apiUrl;
+        this.readTimeout = readTimeout;
+        retryExecutor = CompletableFuture.delayedExecutor(
+                retryDelay.toNanos(),
+                TimeUnit.NANOSECONDS,
+                RESPONSES_EXECUTOR
+        );
+        // HTTP/2 is negotiated over TLS, while over plain HTTP it would cost an upgrade attempt the servers ignore
+        httpClient = HttpClient.newBuilder()
+                .version(apiUrl.startsWith("https:") ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(connectTimeout)
+                .executor(RESPONSES_EXECUTOR)
+                .build();
+        // the token and category APIs live next to the questions one, as api_token.php next to api.php
+        var baseUrl = apiUrl.substring(0, apiUrl.lastIndexOf('/') + 1);
+        tokenApiUrl = isUsingTokens ? baseUrl + "api_token.php" : null;
+        categoryApiUrl = baseUrl + "api_category.php";
+    }
+
+    public String getApiUrl() {
+        return apiUrl;
+    }
+
+    // the questions responses with the code, which are the ones the server answered, but maybe not with questions
+    public long getResponseCodeCount(int responseCode) {
+        return responseCodeCounts.get(responseCode);
+    }
+
+    // the questions requests the server didn't answer or answered with an HTTP error
+    public long getRequestFailuresCount() {
+        return requestFailuresCount.sum();
+    }
+
+    @Override
+    public CompletableFuture<List<TriviaQuestion>> load(int amount) {
+        return load(amount, fingerprint -> false);
+    }
+
+    /**
+     * Reads the response with {@link TriviaQuestionsReader}, skipping the known questions.
+     */
+    @Override
+    public CompletableFuture<List<TriviaQuestion>> load(int amount, LongPredicate isKnown) {
+        return load(amount, QuestionFilter.ANY, isKnown);
+    }
+
+    /**
+     * A category the API doesn't know, or any category while its ids can't be requested, is left unfiltered.
+     * The API answers with "no results" when the filter has less questions than asked for, either at all or left
+     * for the token, so the amount is halved till it has, and once even a single question is too many, the token
+     * is reset and the questions are requested once again. The requests rate limited by the API are retried
+     * a few times, and every retry waits for the retry delay first.
+     */
+    @Override
+    public CompletableFuture<List<TriviaQuestion>> load(int amount, QuestionFilter filter, LongPredicate isKnown) {
+        var categoryId = filter.getCategory() != null
+                ? getCategoryIds().thenApply(ids -> ids.get(HtmlEntities.toText(filter.getCategory())))
+                : CompletableFuture.<Integer>completedFuture(null);
+
+        return categoryId.thenCompose(category -> getToken().thenCompose(
+                token -> new Attempt(amount, filter, category, isKnown).load(amount, token)
+        ));
+    }
+
+    // the requests of a single load, one after another
+    private final class Attempt {
+        final int requestedAmount;
+        final QuestionFilter filter;
+        final Integer categoryId;
+        final LongPredicate isKnown;
+        // both changed by the responses, which never overlap
+        boolean isTokenRetryAllowed = true;
+        int rateLimitedRetriesLeft = MAX_RATE_LIMITED_RETRIES;
+
+        Attempt(int requestedAmount, QuestionFilter filter, Integer categoryId, LongPredicate isKnown) {
+            this.requestedAmount = requestedAmount;
+            this.filter = filter;
+            this.categoryId = categoryId;
+            this.isKnown = isKnown;
+        }
+
+        CompletableFuture<List<TriviaQuestion>> load(int amount, String token) {
+            return requestQuestions(amount, filter, categoryId, isKnown, token).thenCompose(batch -> {
+                if (batch.responseCode == RESPONSE_CODE_SUCCESS) {
+                    return CompletableFuture.completedFuture(batch.questions);
+                }
+
+                if (batch.responseCode == RESPONSE_CODE_RATE_LIMIT && rateLimitedRetriesLeft > 0) {
+                    rateLimitedRetriesLeft--;
+                    return afterRetryDelay(() -> load(amount, token));
+                }
+
+                if (batch.responseCode == RESPONSE_CODE_NO_RESULTS && !filter.isAny()) {
+                    if (amount > 1) return afterRetryDelay(() -> load(amount / 2, token));
+                    if (token == null || !isTokenRetryAllowed) {
+                        return CompletableFuture.completedFuture(List.<TriviaQuestion>of());
+                    }
+                }
+
+                if (token != null && isTokenRetryAllowed) {
+                    switch (batch.responseCode) {
+                        case RESPONSE_CODE_TOKEN_NOT_FOUND -> {
+                            System.out.println("The trivia API session token has expired, requesting a new one");
+                            isTokenRetryAllowed = false;
+                            dropToken(token);
+                            return afterRetryDelay(TriviaApiLoader.this::getToken).thenCompose(
+                                    newToken -> afterRetryDelay(() -> load(requestedAmount, newToken))
+                            );
+                        }
+                        case RESPONSE_CODE_NO_RESULTS, RESPONSE_CODE_TOKEN_EMPTY -> {
+                            System.out.println(
+                                    "The trivia API session token has returned all the questions, resetting it"
+                            );
+                            isTokenRetryAllowed = false;
+                            return afterRetryDelay(() -> resetToken(token)).thenCompose(
+                                    resetToken -> afterRetryDelay(() -> load(requestedAmount, resetToken))
+                            );
+                        }
+                    }
+                }
+
+                return CompletableFuture.failedFuture(new IllegalStateException(
+                        "Couldn't get new questions, response code: " + batch.responseCode
+                ));
+            });
+        }
+    }
+
+    private <T> CompletableFuture<T> afterRetryDelay(Supplier<CompletableFuture<T>> request) {
+        return CompletableFuture.runAsync(() -> {}, retryExecutor).thenCompose(ignored -> request.get());
+    }
+
+    private CompletableFuture<Batch> requestQuestions(
+            int amount,
+            QuestionFilter filter,
+            Integer categoryId,
+            LongPredicate isKnown,
+            String token
+    ) {
+        var query = new StringBuilder("amount=").append(amount);
+        if (categoryId != null) {
+            appendParameter(query, "category", categoryId.toString());
+        }
+
+        if (filter.getDifficulty() != null) {
+            appendParameter(query, "difficulty", filter.getDifficulty());
+        }
+
+        if (filter.getType() != null) {
+            appendParameter(query, "type", filter.getType());
+        }
+
+        if (token != null) {
+            appendParameter(query, "token", token);
+        }
+
+        return get(apiUrl, query, response -> {
+            var questions = new ArrayList<TriviaQuestion>(amount);
+            var responseCode = TriviaQuestionsReader.read(response, isKnown, questions::add);
+            return new Batch(responseCode, questions);
+        }).whenComplete((batch, throwable) -> {
+            if (throwable != null) {
+                requestFailuresCount.increment();
+            } else if (batch.responseCode >= 0 && batch.responseCode < RESPONSE_CODES_COUNT) {
+                responseCodeCounts.incrementAndGet(batch.responseCode);
+            }
+        });
+    }
+
+    // completes with null when the questions are to be requested without a token
+    private CompletableFuture<String> getToken() {
+        synchronized (this) {
+            if (tokenApiUrl == null || token != null) return CompletableFuture.completedFuture(token);
+            if (System.nanoTime() - nextTokenRequestNanos < 0) return CompletableFuture.completedFuture(null);
+        }
+
+        return tokenRequests.execute("request", () -> requestToken(new StringBuilder("command=request")));
+    }
+
+    // completes with the token to go on with, which is null when the token couldn't be reset
+    private CompletableFuture<String> resetToken(String expiredToken) {
+        return tokenRequests.execute("reset", () -> requestToken(
+                appendParameter(new StringBuilder("command=reset"), "token", expiredToken)
+        ));
+    }
+
+    private CompletableFuture<String> requestToken(StringBuilder query) {
+        return get(tokenApiUrl, query, response -> {
+            var tokenResponse = JSON_RESPONSE_READER.<JsonNode>readValue(response);
+            var token = tokenResponse.path("token").asText(null);
+            if (tokenResponse.path("response_code").asInt(-1) != RESPONSE_CODE_SUCCESS || token == null) {
+                throw new IOException("Unexpected trivia API token response: " + tokenResponse);
+            }
+
+            return token;
+        }).handle((token, throwable) -> {
+            synchronized (this) {
+                this.token = token;
+                if (throwable != null) {
+                    nextTokenRequestNanos = System.nanoTime() + TOKEN_RETRY_INTERVAL_NANOS;
+                }
+            }
+
+            if (throwable != null) {
+                System.out.println("Couldn't get a trivia API session token, going on without it for now: " + throwable);
+            }
+
+            return token;
+        });
+    }
+
+    // completes with no ids while they can't be requested
+    private synchronized CompletableFuture<Map<String, Integer>> getCategoryIds() {
+        if (categoryIds != null) return categoryIds;
+        if (System.nanoTime() - nextCategoriesRequestNanos < 0) return CompletableFuture.completedFuture(Map.of());
+
+        categoryIds = this.<Map<String, Integer>>get(categoryApiUrl, null, response -> {
+            var ids = new HashMap<String, Integer>();
+            for (var category : JSON_RESPONSE_READER.<JsonNode>readValue(response).path("trivia_categories")) {
+                ids.put(HtmlEntities.toText(category.path("name").asText()), category.path("id").asInt());
+            }
+
+            return ids;
+        }).exceptionally(throwable -> {
+            System.out.println("Couldn't get the trivia API categories, going on without filtering by them for now: " + throwable);
+            synchronized (this) {
+                categoryIds = null;
+                nextCategoriesRequestNanos = System.nanoTime() + CATEGORIES_RETRY_INTERVAL_NANOS;
+            }
+
+            return Map.of();
+        });
+
+        return categoryIds;
+    }
+
+    private synchronized void dropToken(String expiredToken) {
+        if (expiredToken.equals(token)) {
+            token = null;
+        }
+    }
+
+    // the responses other than 2xx fail the request, as their bodies are not the API's JSON
+    private <T> CompletableFuture<T> get(String url, StringBuilder query, ResponseReader<T> reader) {
+        var request = HttpRequest.newBuilder(URI.create(query == null ? url : url + "?" + query))
+                .timeout(readTimeout)
+                .header("Accept", "application/json")
+                .GET()
+                .build();
+        var result = new CompletableFuture<T>();
+        httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray()).whenComplete((response, throwable) -> {
+            if (throwable != null) {
+                result.completeExceptionally(throwable);
+                return;
+            }
+
+            if (response.statusCode() / 100 != 2) {
+                result.completeExceptionally(new IOException("Unexpected trivia API response status: " + response.statusCode()));
+                return;
+            }
+
+            try {
+                result.complete(reader.read(response.body()));
+            } catch (IOException | RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        });
+
+        return result;
+    }
+
+    private static StringBuilder appendParameter(StringBuilder query, String name, String value) {
+        return query.append('&').append(name).append('=').append(URLEncoder.encode(value, StandardCharsets.UTF_8));
+    }
+}
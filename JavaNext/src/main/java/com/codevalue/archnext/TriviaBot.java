@@ -1,41 +1,245 @@
 package com.codevalue.archnext;
 
-import org.glassfish.jersey.jackson.internal.jackson.jaxrs.json.JacksonJsonProvider;
-import org.jsoup.Jsoup;
+import org.telegram.telegrambots.bots.DefaultBotOptions;
 import org.telegram.telegrambots.bots.TelegramLongPollingBot;
 import org.telegram.telegrambots.meta.api.methods.BotApiMethod;
 import org.telegram.telegrambots.meta.api.methods.polls.SendPoll;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
 import org.telegram.telegrambots.meta.api.objects.Update;
-import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.api.objects.polls.PollAnswer;
 
-import javax.ws.rs.client.Client;
-import javax.ws.rs.client.ClientBuilder;
-import javax.ws.rs.client.InvocationCallback;
-import javax.ws.rs.core.MediaType;
+import javax.management.JMException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongPredicate;
 
 public class TriviaBot extends TelegramLongPollingBot {
-    private static final String TRIVIA_API = "https://opentdb.com/api.php";
+    public interface UserStateSink {
+        void accept(long userId, ByteBuffer session, ByteBuffer score);
+    }
+
+    private interface CommandHandler {
+        // returns the reply, or null when there is none or the handler sends it later with the command reply
+        BotApiMethod<?> handle(CommandReply reply, String commandText);
+    }
+
+    private static final class Command {
+        final CommandHandler handler;
+        final LatencyHistogram latencies;
+
+        Command(CommandHandler handler, LatencyHistogram latencies) {
+            this.handler = handler;
+            this.latencies = latencies;
+        }
+    }
+
+    // sends the reply of a command, recording how long the command took till then
+    private final class CommandReply {
+        final Update update;
+        final LatencyHistogram latencies;
+        final long startNanos;
+
+        CommandReply(Update update, LatencyHistogram latencies, long startNanos) {
+            this.update = update;
+            this.latencies = latencies;
+            this.startNanos = startNanos;
+        }
 
-    private interface UpdatedQuestionsHandler {
-        void onUpdatedQuestionsAvailable(UserContext context, boolean isSuccess);
+        // never blocks, so the mailboxes reply with it
+        void send(BotApiMethod<?> response) {
+            sendResponse(update, response);
+            latencies.record(System.nanoTime() - startNanos);
+        }
+    }
+
+    // carries the category of the question along for scoring its answer, it isn't sent to Telegram
+    private static final class QuizPoll extends SendPoll {
+        private final String category;
+
+        QuizPoll(String category) {
+            this.category = category;
+        }
+    }
+
+    private static final class NextRequest {
+        final Update update;
+        // null for any category
+        final String category;
+        // the category and the user's difficulty, set by the message of the user's mailbox taking the request
+        QuestionFilter filter;
+
+        NextRequest(Update update, String category) {
+            this.update = update;
+            this.category = category;
+        }
     }
 
     private static class UserContext {
-        final Set<String> processedQuestions = new HashSet<>();
+        final Mailbox mailbox;
+
+        // the state below is only accessed by the messages of the mailbox
+        final SeenQuestions processedQuestions;
         final List<TriviaQuestion> questionsPool = new ArrayList<>();
+        final Queue<NextRequest> awaitingRequests = new ArrayDeque<>();
+        // null for any, the pool only has questions of this difficulty; not kept in the snapshots
+        String difficulty;
+        // the pace of the user, so the pool is refilled before it runs dry, not kept in the snapshots
+        long lastNextRequestNanos;
+        long averageNextIntervalNanos;
+        boolean isPrefetching;
+        // the prefetched questions still in the pool, which are wasted if the session ends or the difficulty
+        // changes before they are asked
+        int unaskedPrefetchedCount;
+
+        UserContext(Executor mailboxExecutor) {
+            this(mailboxExecutor, newSeenQuestions());
+        }
+
+        UserContext(Executor mailboxExecutor, SeenQuestions processedQuestions) {
+            mailbox = new Mailbox(mailboxExecutor);
+            this.processedQuestions = processedQuestions;
+        }
     }
 
+    private static final int USER_POOL_SIZE = 10;
+    // till the pace of a user is known
+    private static final int DEFAULT_PREFETCH_THRESHOLD = 3;
+    // the questions kept over the ones the user is expected to answer while the pool is refilled
+    private static final int PREFETCH_MARGIN = 1;
+    private static final double NEXT_INTERVAL_WEIGHT = 0.25;
+    private static final int RENDERED_QUESTIONS_CACHE_SIZE = 10_000;
+    private static final long SESSIONS_SWEEP_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final int SNAPSHOT_CHUNK_SIZE = 1024;
     private static final String COMMAND_PREFIX = "/";
-    private static final String HELP_TEXT = "You can request next trivia question by sending /next or finish the session by sending /bye.";
+    private static final String HELP_TEXT = "You can request next trivia question by sending /next, or /next <category> for a question of the category, choose the difficulty of the questions by sending /difficulty, see your score by sending /score, the top players by sending /top or /top <category> or finish the session by sending /bye.";
+    private static final Set<String> DIFFICULTIES = Set.of("easy", "medium", "hard");
+    private static final String ANY_DIFFICULTY = "any";
+    private static final String DIFFICULTY_HELP_TEXT = "You can choose it by sending /difficulty easy, medium, hard or any.";
+    // the constant parts of the replies, so building a reply concatenates the least
+    private static final String GREETING_SUFFIX = "!\n" + HELP_TEXT;
+    private static final String UNKNOWN_COMMAND_SUFFIX = "'\n" + HELP_TEXT;
+    private static final String UNKNOWN_USER_TEXT = "I beg your pardon, but who are you? We haven't been introduced yet... (please /start me)";
+    private static final int TOP_SIZE = 10;
+    private static final String MBEAN_NAME = "com.codevalue.archnext:type=TriviaBot";
 
-    private final Random random = new Random();
-    private final Client httpClient = ClientBuilder.newClient().register(JacksonJsonProvider.class);
-    private final ConcurrentMap<Integer, UserContext> userContexts = new ConcurrentHashMap<>();
+    private final SessionStore<UserContext> userContexts = new SessionStore<>(
+            BotConfig.getMaxSessions(),
+            TimeUnit.MINUTES.toMillis(BotConfig.getSessionIdleTimeoutMinutes()),
+            SESSIONS_SWEEP_INTERVAL_MILLIS
+    );
+    private final ExecutorService userMailboxesExecutor = new ForkJoinPool(
+            Runtime.getRuntime().availableProcessors(),
+            ForkJoinPool.defaultForkJoinWorkerThreadFactory,
+            null,
+            true
+    );
+    private final QuestionRenderer questionRenderer = new QuestionRenderer(RENDERED_QUESTIONS_CACHE_SIZE);
+    // null when the corpus is disabled or couldn't be opened
+    private final QuestionCorpus questionCorpus;
+    private final QuestionReservoir questionReservoir;
+    // null unless the questions are loaded from several sources
+    private final HedgedQuestionsLoader hedgedQuestionsLoader;
+    // null when the snapshots are disabled
+    private final SessionSnapshots sessionSnapshots;
+    private final ScheduledExecutorService sessionsSnapshotter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        var thread = new Thread(runnable, "sessions-snapshotter");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final SingleFlight<UserContext, Boolean> userPoolRefills = new SingleFlight<>();
+    private final OutboundPipeline outboundPipeline = new OutboundPipeline(
+            this::executeAsync,
+            BotConfig.getOutboundQueueCapacity(),
+            BotConfig.getOutboundMaxInFlight(),
+            BotConfig.getOutboundGlobalRate(),
+            BotConfig.getOutboundChatRate(),
+            BotConfig.getOutboundChatBurst(),
+            BotConfig.getOutboundMaxChatPending()
+    );
+    private final PollRegistry pollRegistry = new PollRegistry(
+            BotConfig.getMaxPendingPolls(),
+            TimeUnit.MINUTES.toMillis(BotConfig.getPollAnswerTimeoutMinutes())
+    );
+    private final Scoreboard scoreboard = new Scoreboard(
+            BotConfig.getMaxScores(),
+            TimeUnit.DAYS.toMillis(BotConfig.getScoreIdleTimeoutDays()),
+            TOP_SIZE
+    );
+    private final UpdateDispatcher updateDispatcher = new UpdateDispatcher(BotConfig.getDispatchMode());
+    private final Metrics metrics = new Metrics();
+    private final CommandRouter<Command> commandRouter = createCommandRouter();
+    private final LatencyHistogram poolSizes = metrics.histogram(
+            "triviabot_user_pool_size",
+            "",
+            "The questions in the user's pool when a next request arrives"
+    );
+    // only used by the thread adopting the users handed off by the other nodes
+    private final byte[] adoptionStringBuffer = new byte[QuestionCorpus.STRING_BUFFER_SIZE];
+    private final LongAdder awaitingRequestsCount = new LongAdder();
+    private final LongAdder nextRequestsCount = new LongAdder();
+    private final LongAdder poolHitsCount = new LongAdder();
+    private final LongAdder prefetchesCount = new LongAdder();
+    private final LongAdder prefetchedQuestionsCount = new LongAdder();
+    private final LongAdder wastedPrefetchedQuestionsCount = new LongAdder();
+
+    public TriviaBot() {
+        super(createBotOptions());
+        questionCorpus = openQuestionCorpus();
+        var questionsLoader = createRemoteQuestionsLoader();
+        hedgedQuestionsLoader = questionsLoader instanceof HedgedQuestionsLoader
+                ? (HedgedQuestionsLoader) questionsLoader
+                : null;
+        if (questionCorpus != null) {
+            questionsLoader = new CorpusQuestionsLoader(questionCorpus, questionsLoader);
+        }
+
+        questionReservoir = createQuestionReservoir(questionsLoader);
+        questionReservoir.start();
+        userContexts.setEvictionListener((userId, userContext) -> recordWastedPrefetches(userContext));
+        userContexts.start();
+        scoreboard.start();
+        outboundPipeline.start();
+        sessionSnapshots = BotConfig.getSessionSnapshotPath().map(path -> new SessionSnapshots(Path.of(path))).orElse(null);
+        registerMetrics();
+    }
+
+    /**
+     * Creates the bot which gets its questions from the given loader instead of the trivia API,
+     * e.g. for running it against fixtures in benchmarks.
+     */
+    public TriviaBot(DefaultBotOptions options, QuestionReservoir.QuestionsLoader questionsLoader) {
+        super(options);
+        questionCorpus = null;
+        sessionSnapshots = null;
+        hedgedQuestionsLoader = null;
+        questionReservoir = createQuestionReservoir(questionsLoader);
+        questionReservoir.start();
+        userContexts.setEvictionListener((userId, userContext) -> recordWastedPrefetches(userContext));
+        userContexts.start();
+        scoreboard.start();
+        outboundPipeline.start();
+        registerMetrics();
+    }
+
+    /**
+     * The metrics of the bot, which are registered as an MBean as well.
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
 
     @Override
     public String getBotUsername() {
@@ -47,8 +251,166 @@ public class TriviaBot extends TelegramLongPollingBot {
         return BotConfig.getBotToken();
     }
 
+    @Override
+    public void onClosing() {
+        updateDispatcher.close();
+        questionReservoir.stop();
+        if (hedgedQuestionsLoader != null) {
+            hedgedQuestionsLoader.close();
+        }
+
+        userContexts.stop();
+        scoreboard.stop();
+        sessionsSnapshotter.shutdownNow();
+        snapshotSessions();
+        userMailboxesExecutor.shutdown();
+        outboundPipeline.stop();
+        closeQuestionCorpus();
+        super.onClosing();
+    }
+
+    /**
+     * Restores the sessions from the last snapshot, if there is one, and starts taking the periodic snapshots.
+     * Should be called before the bot starts receiving updates.
+     */
+    public void restoreSessions() {
+        if (sessionSnapshots == null) return;
+
+        try {
+            var stringBuffer = new byte[QuestionCorpus.STRING_BUFFER_SIZE];
+            var restoredCount = sessionSnapshots.restore(
+                    (userId, state) -> userContexts.computeIfAbsent(userId, id -> decodeUserContext(state, stringBuffer))
+            );
+            System.out.println(
+                    "Restored " + restoredCount + " sessions in " + sessionSnapshots.getLastRestoreDurationMillis() + " ms"
+            );
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Failed to restore the sessions: " + e);
+            e.printStackTrace();
+        }
+
+        var intervalSeconds = BotConfig.getSessionSnapshotIntervalSeconds();
+        sessionsSnapshotter.scheduleWithFixedDelay(this::snapshotSessions, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Saves the snapshot of all the sessions. The sessions are copied by the messages of their own mailboxes,
+     * so the updates of a user only wait for the copying of the user's own state.
+     */
+    public void snapshotSessions() {
+        if (sessionSnapshots == null || userMailboxesExecutor.isShutdown()) return;
+
+        try {
+            sessionSnapshots.save(this::forEachSessionState);
+            System.out.println(
+                    "Saved the snapshot of " + sessionSnapshots.getLastSnapshotSessionsCount() + " sessions, " +
+                            sessionSnapshots.getLastSnapshotSizeBytes() / 1024 + " KB in " +
+                            sessionSnapshots.getLastSnapshotDurationMillis() + " ms"
+            );
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Failed to save the sessions snapshot: " + e);
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Removes the sessions and the scores of the users the predicate accepts, passing their states to the sink
+     * so they are adopted by another node of the cluster, either of them null when the user has none. The sessions
+     * are copied by the messages of their mailboxes, after the messages posted before them, once the updates
+     * of the users dispatched so far have reached the mailboxes.
+     */
+    public void releaseUsers(LongPredicate isReleased, UserStateSink sink) {
+        // otherwise an update still on its way would post to the removed session or create a new one here
+        updateDispatcher.awaitUsers(isReleased);
+
+        var userIds = new ArrayList<Long>();
+        var sessions = new ArrayList<CompletableFuture<ByteBuffer>>();
+        userContexts.forEach((userId, userContext) -> {
+            if (isReleased.test(userId) && userContexts.remove(userId) != null) {
+                userIds.add(userId);
+                sessions.add(userContext.mailbox.ask(() -> encodeUserContext(userContext)));
+            }
+        });
+
+        for (int i = 0; i < userIds.size(); i++) {
+            long userId = userIds.get(i);
+            sink.accept(userId, sessions.get(i).join(), scoreboard.release(userId));
+        }
+
+        // the users having scores, but no sessions
+        scoreboard.forEachUser(userId -> {
+            if (isReleased.test(userId)) {
+                var score = scoreboard.release(userId);
+                if (score != null) {
+                    sink.accept(userId, null, score);
+                }
+            }
+        });
+    }
+
+    /**
+     * Adopts the session and the score released by another node of the cluster, either of them may be null.
+     * Called by a single thread at a time, the one receiving the handoffs.
+     */
+    public void adoptUser(long userId, ByteBuffer session, ByteBuffer score) {
+        if (session != null) {
+            userContexts.computeIfAbsent(userId, id -> decodeUserContext(session, adoptionStringBuffer));
+        }
+
+        if (score != null) {
+            scoreboard.restore(userId, score);
+        }
+    }
+
+    public long getNextRequestsCount() {
+        return nextRequestsCount.sum();
+    }
+
+    // the next requests which found questions in the user's pool
+    public long getPoolHitsCount() {
+        return poolHitsCount.sum();
+    }
+
+    public long getPrefetchesCount() {
+        return prefetchesCount.sum();
+    }
+
+    public long getPrefetchedQuestionsCount() {
+        return prefetchedQuestionsCount.sum();
+    }
+
+    // the prefetched questions left unasked when their sessions ended or their difficulty changed
+    public long getWastedPrefetchedQuestionsCount() {
+        return wastedPrefetchedQuestionsCount.sum();
+    }
+
+    public long getScoredAnswersCount() {
+        return scoreboard.getAnswersCount();
+    }
+
+    public long getCorrectAnswersCount() {
+        return scoreboard.getCorrectAnswersCount();
+    }
+
     @Override
     public void onUpdateReceived(Update update) {
+        try {
+            // holds the updates polling while the replies can't be sent fast enough
+            outboundPipeline.awaitCapacity();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        updateDispatcher.dispatch(update, this::handleUpdate);
+    }
+
+    private void handleUpdate(Update update) {
+        if (update.hasPollAnswer()) {
+            handlePollAnswer(update.getPollAnswer());
+            return;
+        }
+
         if (!update.hasMessage()) return;
 
         var message = update.getMessage();
@@ -60,145 +422,742 @@ public class TriviaBot extends TelegramLongPollingBot {
     }
 
     private void handleCommand(Update update) {
+        var startNanos = System.nanoTime();
         var commandText = update.getMessage().getText();
-        var response = switch (commandText) {
-            case "/start" -> handleSessionStart(update);
-            case "/bye" -> handleSessionEnd(update);
-            case "/next" -> handleNextRequest(update);
-            default -> getDefaultResponse(update, commandText);
-        };
+        var command = commandRouter.route(commandText);
+        if (command == null) return;
 
-        sendResponse(response);
+        var reply = new CommandReply(update, command.latencies, startNanos);
+        var response = command.handler.handle(reply, commandText);
+        if (response != null) {
+            reply.send(response);
+        }
     }
 
-    private void sendResponse(BotApiMethod<?> response) {
-        if (response != null) {
-            try {
-                execute(response);
-            } catch (TelegramApiException e) {
-                System.out.println("Failed to send the response: " + e);
-                e.printStackTrace();
+    private CommandRouter<Command> createCommandRouter() {
+        var commands = new HashMap<String, Command>();
+        addCommand(commands, "/start", (reply, text) -> handleSessionStart(reply.update));
+        addCommand(commands, "/next", (reply, text) -> handleNextRequest(reply, CommandRouter.getArguments(text)));
+        addCommand(
+                commands,
+                "/difficulty",
+                (reply, text) -> handleDifficultyRequest(reply, CommandRouter.getArguments(text))
+        );
+        addCommand(commands, "/score", (reply, text) -> handleScoreRequest(reply.update));
+        addCommand(commands, "/top", (reply, text) -> handleTopRequest(reply.update, CommandRouter.getArguments(text)));
+        addCommand(commands, "/bye", (reply, text) -> handleSessionEnd(reply.update));
+
+        var unknownCommand = new Command(
+                (reply, text) -> getDefaultResponse(reply.update, text),
+                registerCommandLatencies("other")
+        );
+        return new CommandRouter<>(BotConfig.getBotName(), commands, unknownCommand);
+    }
+
+    private void addCommand(Map<String, Command> commands, String name, CommandHandler handler) {
+        commands.put(name, new Command(handler, registerCommandLatencies(name)));
+    }
+
+    // never blocks, so it is used by the mailboxes as well
+    private void sendResponse(Update update, BotApiMethod<?> response) {
+        if (response == null) return;
+
+        var chatId = String.valueOf(update.getMessage().getChatId());
+        if (!(response instanceof QuizPoll)) {
+            outboundPipeline.send(chatId, response);
+            return;
+        }
+
+        // the poll id is known only once Telegram has sent the poll
+        var poll = (QuizPoll) response;
+        long userId = update.getMessage().getFrom().getId();
+        outboundPipeline.send(chatId, poll, message -> {
+            if (message.hasPoll()) {
+                pollRegistry.register(message.getPoll().getId(), userId, poll.getCorrectOptionId(), poll.category);
             }
+        });
+    }
+
+    // the quiz answers can't be changed, so every poll is scored once
+    private void handlePollAnswer(PollAnswer answer) {
+        var poll = pollRegistry.take(answer.getPollId());
+        if (poll == null || answer.getUser() == null || answer.getUser().getId() != poll.getUserId()) return;
+
+        var optionIds = answer.getOptionIds();
+        scoreboard.record(
+                poll.getUserId(),
+                answer.getUser().getFirstName(),
+                poll.getCategory(),
+                optionIds != null && optionIds.contains(poll.getCorrectOptionId())
+        );
+    }
+
+    // the tops are rendered once per change of their players, and served from memory as /score is
+    private SendMessage handleTopRequest(Update update, String categoryName) {
+        if (categoryName.isEmpty()) return buildSendMessage(scoreboard.getLeaderboard().getTopText(), update);
+
+        var categories = findCategories(categoryName);
+        if (categories.size() != 1) return getUnknownCategoryResponse(update, categoryName, categories);
+
+        var leaderboard = scoreboard.getLeaderboard(categories.get(0));
+        if (leaderboard == null) {
+            return buildSendMessage(
+                    "Nobody has answered the questions of " + HtmlEntities.toText(categories.get(0)) + " correctly yet.",
+                    update
+            );
+        }
+
+        return buildSendMessage(leaderboard.getTopText(), update);
+    }
+
+    // served from the scoreboard as is, so it neither waits for the user's mailbox nor needs a session
+    private SendMessage handleScoreRequest(Update update) {
+        var score = scoreboard.get(update.getMessage().getFrom().getId());
+        if (score == null) {
+            return buildSendMessage(
+                    update.getMessage().getFrom().getFirstName() + ", you haven't answered any questions yet.",
+                    update
+            );
         }
+
+        return buildSendMessage(
+                update.getMessage().getFrom().getFirstName() + ", you have answered " +
+                        score.getCorrectAnswersCount() + " of " + score.getAnswersCount() + " questions correctly.",
+                update
+        );
     }
 
     private SendMessage handleSessionStart(Update update) {
-        userContexts.putIfAbsent(update.getMessage().getFrom().getId(), new UserContext());
+        userContexts.computeIfAbsent(update.getMessage().getFrom().getId(), id -> new UserContext(userMailboxesExecutor));
         return buildSendMessage(
-                "Hello " + update.getMessage().getFrom().getFirstName() + "!\n" + HELP_TEXT,
+                "Hello " + update.getMessage().getFrom().getFirstName() + GREETING_SUFFIX,
                 update
         );
     }
 
-    private BotApiMethod<?> handleNextRequest(final Update update) {
+    // the question is taken by a message of the user's mailbox, which replies, so the updates thread never waits
+    private BotApiMethod<?> handleNextRequest(CommandReply reply, String categoryName) {
+        var update = reply.update;
         var userContext = userContexts.get(update.getMessage().getFrom().getId());
-        if (userContext == null) {
-            return buildSendMessage(
-                    "I beg your pardon, but who are you? We haven't been introduced yet... (please /start me)",
+        if (userContext == null) return getUnknownUserResponse(update);
+
+        String category = null;
+        if (!categoryName.isEmpty()) {
+            var categories = findCategories(categoryName);
+            if (categories.size() != 1) return getUnknownCategoryResponse(update, categoryName, categories);
+
+            category = categories.get(0);
+        }
+
+        var request = new NextRequest(update, category);
+        userContext.mailbox.post(() -> {
+            var question = takeNextQuestion(userContext, request);
+            if (question != null) {
+                reply.send(question);
+                return;
+            }
+
+            // the pool is refilled for the plain requests, while the category ones wait for the reservoir
+            var refill = request.category == null
+                    ? userPoolRefills.execute(userContext, () -> updateQuestions(userContext, request.filter, false))
+                    : questionReservoir.refill(request.filter);
+            refill.whenComplete((ignored, throwable) -> answerAwaitingRequests(userContext));
+
+            reply.send(buildSendMessage(
+                    update.getMessage().getFrom().getFirstName() + ", please wait till I find more questions for you...",
                     update
-            );
+            ));
+        });
+
+        return null;
+    }
+
+    // the difficulty is read and changed by the messages of the user's mailbox, the changing one replying as well
+    private SendMessage handleDifficultyRequest(CommandReply reply, String difficultyName) {
+        var update = reply.update;
+        var userContext = userContexts.get(update.getMessage().getFrom().getId());
+        if (userContext == null) return getUnknownUserResponse(update);
+
+        if (difficultyName.isEmpty()) {
+            userContext.mailbox.post(() -> reply.send(buildSendMessage(
+                    "Your questions are of " +
+                            (userContext.difficulty != null ? userContext.difficulty : ANY_DIFFICULTY) +
+                            " difficulty. " + DIFFICULTY_HELP_TEXT,
+                    update
+            )));
+            return null;
         }
 
-        if (userContext.questionsPool.isEmpty()) {
-            updateQuestions(
-                    userContext,
-                    (context, isSuccess) -> {
-                        if (isSuccess) {
-                            SendPoll poll = getNextQuestion(context, update);
-                            sendResponse(poll);
-                            return;
-                        }
-
-                        sendResponse(
-                                buildSendMessage(
-                                        "Sorry, " + update.getMessage().getFrom().getFirstName() + ", but I cannot find more questions now, please try again later.",
-                                        update
-                                )
-                        );
-                    }
-            );
+        var name = difficultyName.toLowerCase(Locale.ROOT);
+        if (!DIFFICULTIES.contains(name) && !ANY_DIFFICULTY.equals(name)) {
+            return buildSendMessage("Sorry, I don't know the difficulty '" + difficultyName + "'. " + DIFFICULTY_HELP_TEXT, update);
+        }
+
+        var difficulty = ANY_DIFFICULTY.equals(name) ? null : name;
+        userContext.mailbox.post(() -> {
+            // the pool only has questions of the user's difficulty, which stay seen though, as they were drawn
+            if (difficulty != null && !difficulty.equals(userContext.difficulty)) {
+                wastedPrefetchedQuestionsCount.add(getUnaskedPrefetchedCount(userContext));
+                userContext.questionsPool.clear();
+                userContext.unaskedPrefetchedCount = 0;
+            }
+
+            userContext.difficulty = difficulty;
+            reply.send(buildSendMessage("From now on your questions are of " + name + " difficulty.", update));
+        });
+
+        return null;
+    }
+
+    // the categories the name is a part of, or only the category the name is of
+    private List<String> findCategories(String categoryName) {
+        var name = categoryName.toLowerCase(Locale.ROOT);
+        var categories = new ArrayList<String>();
+        for (var category : questionReservoir.getCategories()) {
+            var text = HtmlEntities.toText(category).toLowerCase(Locale.ROOT);
+            if (text.equals(name)) return List.of(category);
+
+            if (text.contains(name)) {
+                categories.add(category);
+            }
+        }
 
+        return categories;
+    }
+
+    private SendMessage getUnknownCategoryResponse(Update update, String categoryName, List<String> matchingCategories) {
+        if (!matchingCategories.isEmpty()) {
             return buildSendMessage(
-                    update.getMessage().getFrom().getFirstName() + ", please wait till I find more questions for you...",
+                    "Which one do you mean? " + getCategoriesText(matchingCategories),
                     update
             );
         }
 
-        return getNextQuestion(userContext, update);
+        var categories = new ArrayList<>(questionReservoir.getCategories());
+        return buildSendMessage(
+                "Sorry, I don't know the category '" + categoryName + "'. " +
+                        (categories.isEmpty() ? "I don't know any categories yet." : "I know these: " + getCategoriesText(categories)),
+                update
+        );
+    }
+
+    private static String getCategoriesText(List<String> categories) {
+        var text = new StringJoiner(", ");
+        for (var category : categories) {
+            text.add(HtmlEntities.toText(category));
+        }
+
+        return text.toString();
+    }
+
+    // returns null when the request has to wait for the pool refill
+    private SendPoll takeNextQuestion(UserContext userContext, NextRequest request) {
+        recordNextRequest(userContext);
+        poolSizes.record(userContext.questionsPool.size());
+        request.filter = QuestionFilter.of(request.category, userContext.difficulty, null);
+        if (userContext.awaitingRequests.isEmpty()) {
+            var question = takeQuestion(userContext, request.filter, true);
+            if (question != null) {
+                prefetchIfNeeded(userContext);
+                return buildPoll(question, request.update);
+            }
+        }
+
+        // the request is answered in its turn once the pool refill, either pending or new one, completes
+        userContext.awaitingRequests.add(request);
+        awaitingRequestsCount.increment();
+        return null;
+    }
+
+    private void answerAwaitingRequests(UserContext userContext) {
+        userContext.mailbox.post(() -> {
+            NextRequest request;
+            while ((request = userContext.awaitingRequests.poll()) != null) {
+                awaitingRequestsCount.decrement();
+                var question = takeQuestion(userContext, request.filter, false);
+                sendResponse(
+                        request.update,
+                        question == null
+                                ? buildSendMessage(
+                                        "Sorry, " + request.update.getMessage().getFrom().getFirstName() + ", but I cannot find more questions now, please try again later.",
+                                        request.update
+                                )
+                                : buildPoll(question, request.update)
+                );
+            }
+        });
+    }
+
+    /**
+     * Takes the last question of the pool matching the filter, or else draws one from the reservoir. The pool
+     * is refilled for the plain requests only, while the category ones are drawn one by one, as they are rare.
+     * Returns null when there is no question.
+     */
+    private TriviaQuestion takeQuestion(UserContext userContext, QuestionFilter filter, boolean isCountingHits) {
+        var pool = userContext.questionsPool;
+        for (int i = pool.size() - 1; i >= 0; i--) {
+            if (filter.matches(pool.get(i))) {
+                if (isCountingHits) {
+                    poolHitsCount.increment();
+                }
+
+                return removeFromPool(userContext, i);
+            }
+        }
+
+        if (filter.getCategory() == null) {
+            fillPool(userContext, false);
+            return pool.isEmpty() ? null : removeFromPool(userContext, pool.size() - 1);
+        }
+
+        var drawn = questionReservoir.draw(userContext.processedQuestions, 1, filter);
+        if (drawn.isEmpty()) return null;
+
+        var question = drawn.get(0);
+        userContext.processedQuestions.add(question.getFingerprint());
+        return question;
     }
 
-    private SendPoll getNextQuestion(UserContext userContext, Update update) {
-        var poll = new SendPoll();
+    private static TriviaQuestion removeFromPool(UserContext userContext, int index) {
+        // the prefetched questions are the last ones in the pool, so they are asked first
+        if (userContext.unaskedPrefetchedCount > 0) {
+            userContext.unaskedPrefetchedCount--;
+        }
+
+        return userContext.questionsPool.remove(index);
+    }
+
+    private SendPoll buildPoll(TriviaQuestion question, Update update) {
+        var renderedQuestion = questionRenderer.render(question);
+
+        var poll = new QuizPoll(question.getCategory());
         poll.setChatId(update.getMessage().getChatId());
         poll.setType("quiz");
+        // only the answers to the non-anonymous polls are sent to the bot
+        poll.setAnonymous(false);
+        poll.setQuestion(renderedQuestion.getQuestion());
 
-        var question = userContext.questionsPool.remove(userContext.questionsPool.size() - 1);
-        userContext.processedQuestions.add(question.getQuestion());
-        poll.setQuestion(Jsoup.parse(question.getQuestion()).text());
+        var correctOptionId = ThreadLocalRandom.current().nextInt(renderedQuestion.getAnswersCount());
+        poll.setOptions(renderedQuestion.getAnswers(correctOptionId));
+        poll.setCorrectOptionId(correctOptionId);
 
-        var answers = question.getIncorrectAnswers()
-                .stream()
-                .map(answer -> Jsoup.parse(answer).text())
-                .collect(Collectors.toList());
+        return poll;
+    }
 
-        var insertIndex = random.nextInt(answers.size());
-        answers.add(insertIndex, Jsoup.parse(question.getCorrectAnswer()).text());
-        poll.setOptions(answers);
-        poll.setCorrectOptionId(insertIndex);
+    private void recordNextRequest(UserContext userContext) {
+        nextRequestsCount.increment();
+        var nowNanos = System.nanoTime();
+        if (userContext.lastNextRequestNanos != 0) {
+            var intervalNanos = nowNanos - userContext.lastNextRequestNanos;
+            userContext.averageNextIntervalNanos = userContext.averageNextIntervalNanos == 0
+                    ? intervalNanos
+                    : userContext.averageNextIntervalNanos +
+                            (long) (NEXT_INTERVAL_WEIGHT * (intervalNanos - userContext.averageNextIntervalNanos));
+        }
 
-        return poll;
+        userContext.lastNextRequestNanos = nowNanos;
     }
 
-    private void updateQuestions(final UserContext userContext, final UpdatedQuestionsHandler updateHandler) {
-        httpClient
-                .target(TRIVIA_API)
-                .queryParam("amount", 10)
-                .request(MediaType.APPLICATION_JSON)
-                .async()
-                .get(new InvocationCallback<TriviaQuestionsSet>() {
-                    @Override
-                    public void completed(TriviaQuestionsSet triviaQuestionsSet) {
-                        if (triviaQuestionsSet.getResponseCode() != 0) {
-                            System.out.println("Couldn't get new questions, response code: " + triviaQuestionsSet.getResponseCode());
-                            updateHandler.onUpdatedQuestionsAvailable(userContext, false);
-                            return;
-                        }
-
-                        userContext.questionsPool.addAll(
-                                triviaQuestionsSet.getResults()
-                                    .stream()
-                                    .filter(question -> !userContext.processedQuestions.contains(question.getQuestion()))
-                                    .collect(Collectors.toList())
-                        );
-
-                        if (userContext.questionsPool.size() == 0) {
-                            updateHandler.onUpdatedQuestionsAvailable(userContext, false);
-                            return;
-                        }
-
-                        updateHandler.onUpdatedQuestionsAvailable(userContext, true);
-                    }
+    /**
+     * Starts refilling the pool once it has less questions than the user is expected to ask for while the
+     * reservoir refills, so the user's next requests don't wait for the upstream. The reservoir is drawn from
+     * right away when it has questions for the user, and refilled in the background otherwise.
+     */
+    private void prefetchIfNeeded(UserContext userContext) {
+        if (userContext.isPrefetching || userContext.questionsPool.size() >= getPrefetchThreshold(userContext)) return;
 
-                    @Override
-                    public void failed(Throwable throwable) {
-                        System.out.println("Couldn't get new questions, error: " + throwable);
-                        updateHandler.onUpdatedQuestionsAvailable(userContext, false);
-                    }
+        prefetchesCount.increment();
+        if (fillPool(userContext, true) > 0) return;
+
+        userContext.isPrefetching = true;
+        var filter = getPoolFilter(userContext);
+        userPoolRefills
+                .execute(userContext, () -> updateQuestions(userContext, filter, true))
+                .whenComplete((ignored, throwable) -> {
+                    userContext.mailbox.post(() -> userContext.isPrefetching = false);
+                    answerAwaitingRequests(userContext);
                 });
     }
 
+    private int getPrefetchThreshold(UserContext userContext) {
+        if (userContext.averageNextIntervalNanos <= 0) return DEFAULT_PREFETCH_THRESHOLD;
+
+        var expectedRequests = Math.ceil(
+                (double) questionReservoir.getAverageRefillLatencyNanos() / userContext.averageNextIntervalNanos
+        );
+        return (int) Math.min(USER_POOL_SIZE - 1, expectedRequests + PREFETCH_MARGIN);
+    }
+
+    private static QuestionFilter getPoolFilter(UserContext userContext) {
+        return QuestionFilter.of(null, userContext.difficulty, null);
+    }
+
+    // the drawn questions are marked as seen right away, so the pool never gets the same question twice
+    private int fillPool(UserContext userContext, boolean isPrefetch) {
+        var drawn = questionReservoir.draw(
+                userContext.processedQuestions,
+                USER_POOL_SIZE - userContext.questionsPool.size(),
+                getPoolFilter(userContext)
+        );
+        for (var question : drawn) {
+            userContext.processedQuestions.add(question.getFingerprint());
+        }
+
+        userContext.questionsPool.addAll(drawn);
+        if (isPrefetch) {
+            userContext.unaskedPrefetchedCount += drawn.size();
+            prefetchedQuestionsCount.add(drawn.size());
+        }
+
+        return drawn.size();
+    }
+
+    private CompletableFuture<Boolean> updateQuestions(
+            final UserContext userContext,
+            QuestionFilter filter,
+            boolean isPrefetch
+    ) {
+        return questionReservoir.refill(filter)
+                .handle((ignored, throwable) -> userContext.mailbox.ask(() -> {
+                    if (throwable == null) {
+                        fillPool(userContext, isPrefetch);
+                    }
+
+                    return !userContext.questionsPool.isEmpty();
+                }))
+                .thenCompose(refilled -> refilled);
+    }
+
+    // the states are requested in chunks, so neither the mailboxes nor the memory are flooded by the requests
+    private void forEachSessionState(SessionSnapshots.SessionSink sink) throws IOException {
+        var userIds = new long[SNAPSHOT_CHUNK_SIZE];
+        var states = new ArrayList<CompletableFuture<ByteBuffer>>(SNAPSHOT_CHUNK_SIZE);
+        try {
+            userContexts.forEach((userId, userContext) -> {
+                userIds[states.size()] = userId;
+                states.add(userContext.mailbox.ask(() -> encodeUserContext(userContext)));
+                if (states.size() == SNAPSHOT_CHUNK_SIZE) {
+                    writeSessionStates(sink, userIds, states);
+                }
+            });
+
+            writeSessionStates(sink, userIds, states);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static void writeSessionStates(
+            SessionSnapshots.SessionSink sink,
+            long[] userIds,
+            List<CompletableFuture<ByteBuffer>> states
+    ) {
+        try {
+            for (int i = 0; i < states.size(); i++) {
+                sink.accept(userIds[i], states.get(i).join());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        states.clear();
+    }
+
+    // the seen questions followed by the questions pool, only called by the messages of the user's mailbox
+    private static ByteBuffer encodeUserContext(UserContext userContext) {
+        var size = userContext.processedQuestions.getSerializedSize() + Short.BYTES;
+        var questions = new ArrayList<ByteBuffer>(userContext.questionsPool.size());
+        for (var question : userContext.questionsPool) {
+            var record = QuestionCorpus.encode(question);
+            size += record.remaining();
+            questions.add(record);
+        }
+
+        var state = ByteBuffer.allocate(size);
+        userContext.processedQuestions.writeTo(state);
+        state.putShort((short) questions.size());
+        questions.forEach(state::put);
+        return state.flip();
+    }
+
+    private UserContext decodeUserContext(ByteBuffer state, byte[] stringBuffer) {
+        var userContext = new UserContext(userMailboxesExecutor, SeenQuestions.readFrom(state));
+        var questionsCount = Short.toUnsignedInt(state.getShort());
+        var offset = state.position();
+        for (int i = 0; i < questionsCount; i++) {
+            userContext.questionsPool.add(QuestionCorpus.decode(state, offset, stringBuffer));
+            offset += QuestionCorpus.recordLengthAt(state, offset);
+        }
+
+        return userContext;
+    }
+
+    // hedges the trivia API servers, and the fixtures if there are any, unless there is only one of them
+    private QuestionReservoir.QuestionsLoader createRemoteQuestionsLoader() {
+        var loaders = new ArrayList<QuestionReservoir.QuestionsLoader>();
+        for (var url : BotConfig.getTriviaApiUrls()) {
+            var loader = new TriviaApiLoader(
+                    url,
+                    BotConfig.isTriviaApiSessionTokensEnabled(),
+                    Duration.ofMillis(BotConfig.getTriviaApiConnectTimeoutMillis()),
+                    Duration.ofMillis(BotConfig.getTriviaApiReadTimeoutMillis())
+            );
+            registerMetrics(loader);
+            loaders.add(loader);
+        }
+
+        var fixturesPath = BotConfig.getQuestionFixturesPath();
+        if (fixturesPath.isPresent()) {
+            try {
+                loaders.add(FixtureQuestionsLoader.fromFile(Path.of(fixturesPath.get())));
+            } catch (IOException e) {
+                System.out.println("Failed to read the fixture questions, going on without them: " + e);
+                e.printStackTrace();
+            }
+        }
+
+        if (loaders.isEmpty()) throw new IllegalStateException("No trivia API servers nor fixture questions");
+        if (loaders.size() == 1) return loaders.get(0);
+
+        var hedgedLoader = new HedgedQuestionsLoader(loaders);
+        metrics.counter("triviabot_hedged_loads_total", "The questions loads hedged over the sources", hedgedLoader::getLoadsCount);
+        metrics.counter("triviabot_hedged_loads_hedged_total", "The loads which asked more than one source", hedgedLoader::getHedgedCount);
+        metrics.counter(
+                "triviabot_hedged_loads_backup_wins_total",
+                "The loads answered by other than the preferred source",
+                hedgedLoader::getBackupWinsCount
+        );
+        return hedgedLoader;
+    }
+
+    private LatencyHistogram registerCommandLatencies(String command) {
+        return metrics.histogram(
+                "triviabot_command_duration_seconds",
+                Metrics.labels(Metrics.label("command", command)),
+                "The time from receiving a command till its reply is queued"
+        );
+    }
+
+    private void registerMetrics(TriviaApiLoader loader) {
+        var server = Metrics.label("server", loader.getApiUrl());
+        for (int code = 0; code < TriviaApiLoader.RESPONSE_CODES_COUNT; code++) {
+            var responseCode = code;
+            metrics.counter(
+                    "triviabot_trivia_api_responses_total",
+                    Metrics.labels(server, Metrics.label("code", String.valueOf(code))),
+                    "The trivia API questions responses by their response codes",
+                    () -> loader.getResponseCodeCount(responseCode)
+            );
+        }
+
+        metrics.counter(
+                "triviabot_trivia_api_request_failures_total",
+                Metrics.labels(server),
+                "The trivia API questions requests which failed or got an HTTP error",
+                loader::getRequestFailuresCount
+        );
+    }
+
+    private void registerMetrics() {
+        metrics.gauge("triviabot_sessions", "The active sessions", userContexts::size);
+        metrics.counter(
+                "triviabot_sessions_evicted_total",
+                Metrics.labels(Metrics.label("reason", "idle")),
+                "The sessions evicted by the store",
+                userContexts::getIdleEvictionsCount
+        );
+        metrics.counter(
+                "triviabot_sessions_evicted_total",
+                Metrics.labels(Metrics.label("reason", "overflow")),
+                "The sessions evicted by the store",
+                userContexts::getOverflowEvictionsCount
+        );
+        metrics.gauge("triviabot_sessions_table_bytes", "The footprint of the sessions tables", userContexts::getTableFootprintBytes);
+        metrics.gauge("triviabot_awaiting_requests", "The next requests waiting for the questions", awaitingRequestsCount::sum);
+        metrics.counter("triviabot_next_requests_total", "The next requests", nextRequestsCount::sum);
+        metrics.counter("triviabot_pool_hits_total", "The next requests which found questions in the user's pool", poolHitsCount::sum);
+        metrics.counter("triviabot_prefetches_total", "The user pool prefetches", prefetchesCount::sum);
+        metrics.counter("triviabot_prefetched_questions_total", "The questions prefetched into the user pools", prefetchedQuestionsCount::sum);
+        metrics.counter(
+                "triviabot_wasted_prefetched_questions_total",
+                "The prefetched questions left unasked when their sessions ended or their difficulty changed",
+                wastedPrefetchedQuestionsCount::sum
+        );
+
+        metrics.gauge("triviabot_pending_polls", "The quiz polls awaiting their answers", pollRegistry::size);
+        metrics.counter(
+                "triviabot_expired_polls_total",
+                "The quiz polls dropped unanswered on timeout or overflow",
+                pollRegistry::getExpiredCount
+        );
+        metrics.counter("triviabot_poll_answers_total", "The scored quiz poll answers", scoreboard::getAnswersCount);
+        metrics.counter(
+                "triviabot_correct_poll_answers_total",
+                "The scored quiz poll answers which were correct",
+                scoreboard::getCorrectAnswersCount
+        );
+        metrics.gauge("triviabot_scores", "The users having scores", scoreboard::size);
+        metrics.gauge("triviabot_ranked_players", "The players in the overall leaderboard", scoreboard.getLeaderboard()::size);
+
+        metrics.gauge("triviabot_reservoir_questions", "The questions in the reservoir", questionReservoir::size);
+        metrics.histogram(
+                "triviabot_upstream_load_duration_seconds",
+                "",
+                "The successful questions loads of the reservoir",
+                questionReservoir.getLoadLatencies()
+        );
+        metrics.counter(
+                "triviabot_upstream_load_failures_total",
+                "The failed questions loads of the reservoir",
+                questionReservoir::getLoadFailuresCount
+        );
+
+        metrics.gauge("triviabot_outbound_queue_depth", "The replies queued for sending", outboundPipeline::getQueueDepth);
+        metrics.gauge("triviabot_outbound_in_flight", "The replies sent and not answered yet", outboundPipeline::getInFlightCount);
+        metrics.counter("triviabot_outbound_sent_total", "The replies Telegram confirmed", outboundPipeline::getSentCount);
+        metrics.counter(
+                "triviabot_outbound_dropped_total",
+                "The replies dropped on a full queue or over the replies held for their chat",
+                outboundPipeline::getDroppedCount
+        );
+        metrics.counter("triviabot_outbound_retried_total", "The replies retried after a 429", outboundPipeline::getRetriedCount);
+        metrics.counter("triviabot_outbound_failed_total", "The replies which failed", outboundPipeline::getFailedCount);
+        metrics.histogram(
+                "triviabot_execute_duration_seconds",
+                "",
+                "The Telegram execute calls, successful or not",
+                outboundPipeline.getExecuteLatencies()
+        );
+
+        if (sessionSnapshots != null) {
+            metrics.gauge(
+                    "triviabot_last_snapshot_duration_milliseconds",
+                    "The duration of the last sessions snapshot",
+                    sessionSnapshots::getLastSnapshotDurationMillis
+            );
+            metrics.gauge("triviabot_last_snapshot_bytes", "The size of the last sessions snapshot", sessionSnapshots::getLastSnapshotSizeBytes);
+            metrics.gauge(
+                    "triviabot_last_snapshot_sessions",
+                    "The sessions in the last sessions snapshot",
+                    sessionSnapshots::getLastSnapshotSessionsCount
+            );
+        }
+
+        try {
+            metrics.registerMBean(MBEAN_NAME);
+        } catch (JMException e) {
+            System.out.println("Failed to register the metrics MBean: " + e);
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * The options of the bots talking to the configured Telegram Bot API server.
+     */
+    public static DefaultBotOptions createBotOptions() {
+        var options = new DefaultBotOptions();
+        BotConfig.getTelegramApiUrl().ifPresent(options::setBaseUrl);
+        return options;
+    }
+
+    private static QuestionCorpus openQuestionCorpus() {
+        var path = BotConfig.getQuestionCorpusPath();
+        if (path.isEmpty()) return null;
+
+        try {
+            var corpus = QuestionCorpus.open(Path.of(path.get()));
+            System.out.println(
+                    "Opened the questions corpus " + path.get() + ": " + corpus.size() + " questions, " +
+                            corpus.getFileSize() / 1024 + " KB"
+            );
+            return corpus;
+        } catch (IOException e) {
+            System.out.println("Failed to open the questions corpus, going on without it: " + e);
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private void closeQuestionCorpus() {
+        if (questionCorpus == null) return;
+
+        try {
+            questionCorpus.close();
+        } catch (IOException e) {
+            System.out.println("Failed to close the questions corpus: " + e);
+            e.printStackTrace();
+        }
+    }
+
+    private static SeenQuestions newSeenQuestions() {
+        return switch (BotConfig.getSeenQuestionsMode()) {
+            case FINGERPRINTS -> new FingerprintSet();
+            case BLOOM_FILTER -> new BloomSeenQuestions(BotConfig.getSeenQuestionsFalsePositiveRate());
+        };
+    }
+
+    private QuestionReservoir createQuestionReservoir(QuestionReservoir.QuestionsLoader questionsLoader) {
+        var preparingLoader = new QuestionReservoir.QuestionsLoader() {
+            @Override
+            public CompletableFuture<List<TriviaQuestion>> load(int amount) {
+                return questionsLoader.load(amount).thenApply(TriviaBot.this::prepareQuestions);
+            }
+
+            @Override
+            public CompletableFuture<List<TriviaQuestion>> load(int amount, LongPredicate isKnown) {
+                return questionsLoader.load(amount, isKnown).thenApply(TriviaBot.this::prepareQuestions);
+            }
+
+            @Override
+            public CompletableFuture<List<TriviaQuestion>> load(int amount, QuestionFilter filter, LongPredicate isKnown) {
+                return questionsLoader.load(amount, filter, isKnown).thenApply(TriviaBot.this::prepareQuestions);
+            }
+        };
+
+        return new QuestionReservoir(
+                preparingLoader,
+                BotConfig.getReservoirLowWatermark(),
+                BotConfig.getReservoirHighWatermark()
+        );
+    }
+
+    // rendering and fingerprinting the questions here keeps both off the updates handling path
+    private List<TriviaQuestion> prepareQuestions(List<TriviaQuestion> questions) {
+        for (var question : questions) {
+            questionRenderer.render(question);
+            question.getFingerprint();
+        }
+
+        return questions;
+    }
+
     private SendMessage handleSessionEnd(Update update) {
-        if (userContexts.remove(update.getMessage().getFrom().getId()) == null) return null;
+        var userContext = userContexts.remove(update.getMessage().getFrom().getId());
+        if (userContext == null) return null;
 
+        recordWastedPrefetches(userContext);
         return buildSendMessage(
                 "Good bye " + update.getMessage().getFrom().getFirstName() + ", see you next time!",
                 update
         );
     }
 
+    // the prefetched questions left in the pool of the ended session, which is either removed or evicted
+    private void recordWastedPrefetches(UserContext userContext) {
+        userContext.mailbox.post(() -> wastedPrefetchedQuestionsCount.add(getUnaskedPrefetchedCount(userContext)));
+    }
+
+    private static int getUnaskedPrefetchedCount(UserContext userContext) {
+        return Math.min(userContext.unaskedPrefetchedCount, userContext.questionsPool.size());
+    }
+
+    private static SendMessage getUnknownUserResponse(Update update) {
+        return buildSendMessage(UNKNOWN_USER_TEXT, update);
+    }
+
     private SendMessage getDefaultResponse(Update update, String commandText) {
         return buildSendMessage(
-                "Sorry, I don't understand this command: '" + commandText + "'\n" + HELP_TEXT,
+                "Sorry, I don't understand this command: '" + commandText + UNKNOWN_COMMAND_SUFFIX,
                 update
         );
     }
@@ -1,5 +1,6 @@
 package com.codevalue.archnext;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import java.util.List;
@@ -23,6 +24,31 @@ public class TriviaQuestion {
     @JsonProperty("difficulty")
     private String difficulty;
 
+    // computed on the first use, 0 till then
+    private volatile long fingerprint;
+
+    // used by Jackson
+    private TriviaQuestion() {
+    }
+
+    TriviaQuestion(
+            String question,
+            String correctAnswer,
+            List<String> incorrectAnswers,
+            String category,
+            String type,
+            String difficulty,
+            long fingerprint
+    ) {
+        this.question = question;
+        this.correctAnswer = correctAnswer;
+        this.incorrectAnswers = incorrectAnswers;
+        this.category = category;
+        this.type = type;
+        this.difficulty = difficulty;
+        this.fingerprint = fingerprint;
+    }
+
     public String getQuestion() {
         return question;
     }
@@ -34,4 +60,27 @@ public class TriviaQuestion {
     public List<String> getIncorrectAnswers() {
         return incorrectAnswers;
     }
+
+    public String getCategory() {
+        return category;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getDifficulty() {
+        return difficulty;
+    }
+
+    @JsonIgnore
+    public long getFingerprint() {
+        var fingerprint = this.fingerprint;
+        if (fingerprint == 0) {
+            fingerprint = SeenQuestions.fingerprintOf(question);
+            this.fingerprint = fingerprint;
+        }
+
+        return fingerprint;
+    }
 }
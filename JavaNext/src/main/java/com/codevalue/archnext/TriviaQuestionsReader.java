@@ -0,0 +1,182 @@
+package com.codevalue.archnext;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.LongPredicate;
+
+/**
+ * Reads the trivia API responses token by token, instead of binding them to {@link TriviaQuestionsSet}.
+ * The fingerprint of a question is computed from the parser's buffer as soon as its text is reached, so a
+ * question which is already known is skipped before any of its strings are created, and the category, type and
+ * difficulty values, which repeat over all the questions, are shared instead of being created for each of them.
+ * <p>
+ * The questions are expected to have their text before the answers, as the API returns them; the answers of
+ * the questions having it otherwise are still read, just not skipped.
+ */
+public final class TriviaQuestionsReader {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final int SHARED_VALUES_CACHE_SIZE = 256;
+    // racy, but the strings are immutable, so a thread sees either a complete string or none
+    private static final String[] SHARED_VALUES = new String[SHARED_VALUES_CACHE_SIZE];
+
+    private TriviaQuestionsReader() {
+    }
+
+    /**
+     * Hands the questions of the response, except the ones {@code isKnown} accepts the fingerprints of, to the
+     * sink. Returns the response code, 0 for a successful response.
+     */
+    public static int read(InputStream input, LongPredicate isKnown, Consumer<TriviaQuestion> sink) throws IOException {
+        try (var parser = JSON_FACTORY.createParser(input)) {
+            return read(parser, isKnown, sink);
+        }
+    }
+
+    public static int read(byte[] input, LongPredicate isKnown, Consumer<TriviaQuestion> sink) throws IOException {
+        try (var parser = JSON_FACTORY.createParser(input)) {
+            return read(parser, isKnown, sink);
+        }
+    }
+
+    private static int read(JsonParser parser, LongPredicate isKnown, Consumer<TriviaQuestion> sink) throws IOException {
+        expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+        var responseCode = -1;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            var field = parser.getCurrentName();
+            var token = parser.nextToken();
+            if ("response_code".equals(field)) {
+                expect(parser, token, JsonToken.VALUE_NUMBER_INT);
+                responseCode = parser.getIntValue();
+            } else if ("results".equals(field) && token == JsonToken.START_ARRAY) {
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    var question = readQuestion(parser, isKnown);
+                    if (question != null) {
+                        sink.accept(question);
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+
+        if (responseCode < 0) throw new JsonParseException(parser, "No response code in the trivia API response");
+        return responseCode;
+    }
+
+    // returns null for a known question
+    private static TriviaQuestion readQuestion(JsonParser parser, LongPredicate isKnown) throws IOException {
+        String question = null;
+        String correctAnswer = null;
+        List<String> incorrectAnswers = null;
+        String category = null;
+        String type = null;
+        String difficulty = null;
+        long fingerprint = 0;
+        var isSkipped = false;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            var field = parser.getCurrentName();
+            var token = parser.nextToken();
+            if (isSkipped || token == JsonToken.VALUE_NULL) {
+                parser.skipChildren();
+                continue;
+            }
+
+            switch (field) {
+                case "question":
+                    expect(parser, token, JsonToken.VALUE_STRING);
+                    fingerprint = SeenQuestions.fingerprintOf(
+                            parser.getTextCharacters(),
+                            parser.getTextOffset(),
+                            parser.getTextLength()
+                    );
+                    isSkipped = isKnown.test(fingerprint);
+                    if (!isSkipped) {
+                        question = parser.getText();
+                    }
+                    break;
+                case "correct_answer":
+                    expect(parser, token, JsonToken.VALUE_STRING);
+                    correctAnswer = parser.getText();
+                    break;
+                case "incorrect_answers":
+                    expect(parser, token, JsonToken.START_ARRAY);
+                    incorrectAnswers = new ArrayList<>(3);
+                    while (parser.nextToken() == JsonToken.VALUE_STRING) {
+                        incorrectAnswers.add(parser.getText());
+                    }
+                    expect(parser, parser.currentToken(), JsonToken.END_ARRAY);
+                    break;
+                case "category":
+                    category = readSharedValue(parser, token);
+                    break;
+                case "type":
+                    type = readSharedValue(parser, token);
+                    break;
+                case "difficulty":
+                    difficulty = readSharedValue(parser, token);
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+
+        expect(parser, parser.currentToken(), JsonToken.END_OBJECT);
+        if (isSkipped) return null;
+        if (question == null) throw new JsonParseException(parser, "No text of a trivia question");
+
+        return new TriviaQuestion(
+                question,
+                correctAnswer,
+                incorrectAnswers != null ? incorrectAnswers : List.of(),
+                category,
+                type,
+                difficulty,
+                fingerprint
+        );
+    }
+
+    private static String readSharedValue(JsonParser parser, JsonToken token) throws IOException {
+        expect(parser, token, JsonToken.VALUE_STRING);
+        var chars = parser.getTextCharacters();
+        var offset = parser.getTextOffset();
+        var length = parser.getTextLength();
+
+        var hash = 0;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + chars[i];
+        }
+
+        var slot = (hash ^ (hash >>> 16)) & (SHARED_VALUES_CACHE_SIZE - 1);
+        var shared = SHARED_VALUES[slot];
+        if (shared != null && contentEquals(shared, chars, offset, length)) return shared;
+
+        shared = new String(chars, offset, length);
+        SHARED_VALUES[slot] = shared;
+        return shared;
+    }
+
+    private static boolean contentEquals(String string, char[] chars, int offset, int length) {
+        if (string.length() != length) return false;
+
+        for (int i = 0; i < length; i++) {
+            if (string.charAt(i) != chars[offset + i]) return false;
+        }
+
+        return true;
+    }
+
+    private static void expect(JsonParser parser, JsonToken actual, JsonToken expected) throws JsonParseException {
+        if (actual != expected) {
+            throw new JsonParseException(parser, "Unexpected token in the trivia API response: " + actual + ", expected: " + expected);
+        }
+    }
+}
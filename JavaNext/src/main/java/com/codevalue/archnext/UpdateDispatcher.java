@@ -0,0 +1,97 @@
+package com.codevalue.archnext;
+
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.LongPredicate;
+
+/**
+ * Hands the updates over to their handler according to the configured {@link BotConfig.DispatchMode}.
+ * In the virtual threads mode every update is handled on its own thread, so the handlers blocked on sending
+ * their replies don't hold the other ones back, while the updates of the same user are still handled
+ * sequentially, in the order they were received.
+ */
+public class UpdateDispatcher {
+    private static final CompletableFuture<Void> IDLE = CompletableFuture.completedFuture(null);
+
+    private final ExecutorService executor;
+    private final ConcurrentMap<Integer, CompletableFuture<Void>> userQueues = new ConcurrentHashMap<>();
+
+    public UpdateDispatcher(BotConfig.DispatchMode mode) {
+        executor = switch (mode) {
+            case INLINE -> null;
+            case VIRTUAL_THREADS -> newVirtualThreadPerTaskExecutor();
+        };
+    }
+
+    public void dispatch(Update update, Consumer<Update> handler) {
+        if (executor == null) {
+            handler.accept(update);
+            return;
+        }
+
+        var userId = getUserId(update);
+        if (userId == null) {
+            executor.execute(() -> handle(update, handler));
+            return;
+        }
+
+        var queueTail = userQueues.compute(
+                userId,
+                (id, previous) -> (previous != null ? previous : IDLE).thenRunAsync(() -> handle(update, handler), executor)
+        );
+        queueTail.whenComplete((ignored, throwable) -> userQueues.remove(userId, queueTail));
+    }
+
+    /**
+     * Waits till the updates dispatched so far of the users the predicate accepts are handled.
+     */
+    public void awaitUsers(LongPredicate isAwaited) {
+        userQueues.forEach((userId, queueTail) -> {
+            if (isAwaited.test(userId)) {
+                queueTail.exceptionally(throwable -> null).join();
+            }
+        });
+    }
+
+    public void close() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    private static void handle(Update update, Consumer<Update> handler) {
+        // a failed handler shouldn't break the chain of the following updates of the same user
+        try {
+            handler.accept(update);
+        } catch (RuntimeException e) {
+            System.out.println("Failed to handle update " + update.getUpdateId() + ": " + e);
+            e.printStackTrace();
+        }
+    }
+
+    private static Integer getUserId(Update update) {
+        if (update.hasMessage() && update.getMessage().getFrom() != null) return update.getMessage().getFrom().getId();
+        if (update.hasPollAnswer()) return update.getPollAnswer().getUser().getId();
+        return null;
+    }
+
+    // the project is compiled for Java 14, so the virtual threads are looked up when running on a JVM having them
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            System.out.println("Virtual threads are not available on this JVM, using a cached thread pool instead");
+            return Executors.newCachedThreadPool(runnable -> {
+                var thread = new Thread(runnable, "update-handler");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.codevalue.archnext;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Receives the updates Telegram pushes to the bot's webhook on an embedded JDK HTTP server. The update is
+ * parsed straight from the request body stream and acknowledged before it is handled, so Telegram doesn't
+ * wait for the handling to deliver the following updates; a malformed update is rejected with 400, as
+ * redelivering it wouldn't help. When a secret token is given, the requests without it are rejected with 401.
+ */
+public class WebhookServer {
+    private static final ObjectReader UPDATE_READER = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+            .readerFor(Update.class);
+    private static final int STOP_DELAY_SECONDS = 1;
+    private static final String SECRET_TOKEN_HEADER = "X-Telegram-Bot-Api-Secret-Token";
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Consumer<Update> updatesHandler;
+    // null when the requests aren't checked for it
+    private final byte[] secretToken;
+    private final LongAdder receivedCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+
+    public WebhookServer(
+            String host,
+            int port,
+            String path,
+            String secretToken,
+            int threadsCount,
+            Consumer<Update> updatesHandler
+    ) throws IOException {
+        this.updatesHandler = updatesHandler;
+        this.secretToken = secretToken != null ? secretToken.getBytes(StandardCharsets.UTF_8) : null;
+        var threadNumber = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(threadsCount, runnable -> {
+            var thread = new Thread(runnable, "webhook-handler-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        server = HttpServer.create(new InetSocketAddress(host, port), 0);
+        server.setExecutor(executor);
+        server.createContext(path, this::handle);
+    }
+
+    public void start() {
+        server.start();
+        System.out.println("Receiving the updates on " + server.getAddress());
+    }
+
+    public void stop() {
+        server.stop(STOP_DELAY_SECONDS);
+        executor.shutdown();
+    }
+
+    // the actual port when started on port 0
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public long getReceivedCount() {
+        return receivedCount.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        Update update;
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            if (!hasSecretToken(exchange)) {
+                rejectedCount.increment();
+                exchange.sendResponseHeaders(401, -1);
+                return;
+            }
+
+            try (var body = exchange.getRequestBody()) {
+                update = UPDATE_READER.readValue(body);
+            } catch (JsonProcessingException e) {
+                rejectedCount.increment();
+                System.out.println("Rejected a malformed update: " + e.getOriginalMessage());
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+
+            receivedCount.increment();
+            exchange.sendResponseHeaders(200, -1);
+        } finally {
+            exchange.close();
+        }
+
+        // the connection is free for the next update already, while this one is handled
+        try {
+            updatesHandler.accept(update);
+        } catch (RuntimeException e) {
+            System.out.println("Failed to handle update " + update.getUpdateId() + ": " + e);
+            e.printStackTrace();
+        }
+    }
+
+    private boolean hasSecretToken(HttpExchange exchange) {
+        if (secretToken == null) return true;
+
+        var token = exchange.getRequestHeaders().getFirst(SECRET_TOKEN_HEADER);
+        return token != null && MessageDigest.isEqual(secretToken, token.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,25 @@
+package com.codevalue.archnext.benchmarks;
+
+import com.codevalue.archnext.TriviaBot;
+import org.telegram.telegrambots.meta.api.methods.BotApiMethod;
+
+import java.io.Serializable;
+import java.util.function.Consumer;
+
+/**
+ * The Java6 TriviaBot whose replies are handed to a consumer instead of being sent to Telegram.
+ * It sends all the replies with execute, and starts nothing in the background, so it needs no questions loader.
+ */
+public class StubbedTriviaBot extends TriviaBot {
+    private final Consumer<BotApiMethod<?>> replies;
+
+    public StubbedTriviaBot(Consumer<BotApiMethod<?>> replies) {
+        this.replies = replies;
+    }
+
+    @Override
+    public <T extends Serializable, Method extends BotApiMethod<T>> T execute(Method method) {
+        replies.accept(method);
+        return null;
+    }
+}
@@ -0,0 +1,62 @@
+package com.codevalue.archnext.benchmarks;
+
+import com.codevalue.archnext.TriviaBot;
+import org.openjdk.jmh.annotations.*;
+import org.telegram.telegrambots.ApiContextInitializer;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures onUpdateReceived up to the execute call for the commands which don't need any questions,
+ * so it runs against both the Java6 and JavaNext bots. The JavaNext bot hands the replies over to its outbound
+ * pipeline, so for it the execute calls happen on the pipeline's thread. Both bots are the {@link StubbedTriviaBot}
+ * of their implementation, so the JavaNext one gets the fixture questions instead of starting the trivia API refills.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+// the telegrambots API context is initialized with Guice, which needs to define classes reflectively
+@Fork(value = 1, jvmArgsAppend = {"--enable-preview", "--add-opens", "java.base/java.lang=ALL-UNNAMED"})
+public class CommandDispatchBenchmark {
+    private TriviaBot bot;
+    private long sentResponses;
+    private Update start;
+    private Update unknownCommand;
+    private Update plainText;
+
+    @Setup
+    public void setUp() {
+        ApiContextInitializer.init();
+        bot = new StubbedTriviaBot(reply -> sentResponses++);
+
+        start = Fixtures.textMessage(1, "/start");
+        unknownCommand = Fixtures.textMessage(1, "/help");
+        plainText = Fixtures.textMessage(1, "hello there");
+    }
+
+    @TearDown
+    public void tearDown() {
+        bot.onClosing();
+    }
+
+    @Benchmark
+    public long start() {
+        bot.onUpdateReceived(start);
+        return sentResponses;
+    }
+
+    @Benchmark
+    public long unknownCommand() {
+        bot.onUpdateReceived(unknownCommand);
+        return sentResponses;
+    }
+
+    @Benchmark
+    public long plainText() {
+        bot.onUpdateReceived(plainText);
+        return sentResponses;
+    }
+}
@@ -0,0 +1,94 @@
+package com.codevalue.archnext.benchmarks;
+
+import com.codevalue.archnext.CommandRouter;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares routing a mixed load of commands, with arguments and bot name suffixes among them, by splitting
+ * the text and switching on the command, as TriviaBot used to, against the precomputed table of
+ * {@link CommandRouter}. Both hand the handler and the arguments over to a blackhole, the arguments being
+ * taken out only for the commands using them. The texts are new strings, as those of the updates are, and the
+ * baseline is the cost of creating them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class CommandRoutingBenchmark {
+    private static final String BOT_NAME = "j25trivia_bot";
+    // mostly /next, as the load generator's default mix
+    private static final String[] COMMANDS = {
+            "/next", "/next", "/next", "/next@j25trivia_bot", "/next", "/next history", "/next", "/next@J25Trivia_Bot",
+            "/start", "/next", "/difficulty hard", "/next", "/bye", "/next", "/help", "/next@other_bot",
+    };
+
+    private static final char[][] COMMAND_CHARS = new char[COMMANDS.length][];
+
+    static {
+        for (int i = 0; i < COMMANDS.length; i++) {
+            COMMAND_CHARS[i] = COMMANDS[i].toCharArray();
+        }
+    }
+
+    private static final int START = 0;
+    private static final int NEXT = 1;
+    private static final int DIFFICULTY = 2;
+    private static final int BYE = 3;
+    private static final int UNKNOWN = 4;
+
+    private final CommandRouter<Integer> router = new CommandRouter<>(
+            BOT_NAME,
+            Map.of("/start", START, "/next", NEXT, "/difficulty", DIFFICULTY, "/bye", BYE),
+            UNKNOWN
+    );
+    private int nextCommand;
+
+    @Benchmark
+    public void stringSwitch(Blackhole blackhole) {
+        var text = nextCommand();
+        var separatorIndex = text.indexOf(' ');
+        var command = separatorIndex < 0 ? text : text.substring(0, separatorIndex);
+        var argument = separatorIndex < 0 ? "" : text.substring(separatorIndex + 1).trim();
+        // the suffixed commands fell through to the unknown command reply
+        var handler = switch (command) {
+            case "/start" -> START;
+            case "/next" -> NEXT;
+            case "/difficulty" -> DIFFICULTY;
+            case "/bye" -> BYE;
+            default -> UNKNOWN;
+        };
+
+        blackhole.consume(handler);
+        blackhole.consume(argument);
+    }
+
+    @Benchmark
+    public void commandRouter(Blackhole blackhole) {
+        var text = nextCommand();
+        var handler = router.route(text);
+        if (handler == null) return;
+
+        blackhole.consume(handler.intValue());
+        if (handler == NEXT || handler == DIFFICULTY) {
+            blackhole.consume(CommandRouter.getArguments(text));
+        }
+    }
+
+    @Benchmark
+    public void baseline(Blackhole blackhole) {
+        blackhole.consume(nextCommand());
+    }
+
+    // a new string, as deserialized from every update, so its hash code isn't cached
+    private String nextCommand() {
+        var command = COMMAND_CHARS[nextCommand];
+        nextCommand = (nextCommand + 1) % COMMAND_CHARS.length;
+        return new String(command);
+    }
+}
@@ -0,0 +1,140 @@
+package com.codevalue.archnext.benchmarks;
+
+import com.codevalue.archnext.TriviaQuestion;
+import com.codevalue.archnext.TriviaQuestionsSet;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.telegram.telegrambots.meta.api.objects.Message;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Synthetic Telegram updates and trivia API payloads the benchmarks are run against.
+ */
+public final class Fixtures {
+    // as the trivia API has them, HTML-encoded, with their ids starting from the first category id
+    public static final List<String> CATEGORIES = List.of(
+            "General Knowledge",
+            "Science &amp; Nature",
+            "History",
+            "Geography",
+            "Entertainment: Video Games"
+    );
+    public static final int FIRST_CATEGORY_ID = 9;
+    public static final List<String> DIFFICULTIES = List.of("easy", "medium", "hard");
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private Fixtures() {
+    }
+
+    /**
+     * Lifts the Telegram flood limits the bot's replies are sent under, as there is no Telegram behind the stubbed
+     * execute calls, unless the limits are set explicitly by the environment variables.
+     */
+    public static void liftOutboundLimits() {
+        for (var name : new String[] {"OUTBOUND_GLOBAL_RATE", "OUTBOUND_CHAT_RATE"}) {
+            if (System.getProperty(name) == null) {
+                System.setProperty(name, "0");
+            }
+        }
+    }
+
+    public static Update textMessage(long userId, String text) {
+        try {
+            return OBJECT_MAPPER.readValue(textMessageJson(userId, text), Update.class);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the update as Telegram sends it, i.e. as it is received by the webhook.
+     */
+    public static String textMessageJson(long userId, String text) {
+        return "{\"update_id\":" + userId + ",\"message\":{" +
+                "\"message_id\":1,\"date\":1590000000," +
+                "\"chat\":{\"id\":" + userId + ",\"type\":\"private\"}," +
+                "\"from\":{\"id\":" + userId + ",\"first_name\":\"User" + userId + "\",\"is_bot\":false}," +
+                "\"text\":" + quote(text) + "}}";
+    }
+
+    /**
+     * Returns the message Telegram responds with to sending a quiz poll to the chat.
+     */
+    public static Message sentPoll(String chatId, String pollId) {
+        try {
+            return OBJECT_MAPPER.readValue(
+                    "{\"message_id\":2,\"date\":1590000000,\"chat\":{\"id\":" + chatId + ",\"type\":\"private\"}," +
+                            "\"poll\":{\"id\":" + quote(pollId) + ",\"question\":\"?\",\"options\":[]," +
+                            "\"is_anonymous\":false,\"type\":\"quiz\"}}",
+                    Message.class
+            );
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static Update pollAnswer(long userId, String pollId, int optionId) {
+        try {
+            return OBJECT_MAPPER.readValue(
+                    "{\"update_id\":" + userId + ",\"poll_answer\":{\"poll_id\":" + quote(pollId) + "," +
+                            "\"user\":{\"id\":" + userId + ",\"first_name\":\"User" + userId + "\",\"is_bot\":false}," +
+                            "\"option_ids\":[" + optionId + "]}}",
+                    Update.class
+            );
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns a trivia API response containing {@code count} questions numbered starting from {@code firstNumber}.
+     * The questions go round the categories and difficulties by their numbers.
+     */
+    public static byte[] questionsPayload(int firstNumber, int count) {
+        return questionsPayload(firstNumber, count, null, null);
+    }
+
+    /**
+     * Same, but the questions are of the given category and difficulty, unless these are null.
+     */
+    public static byte[] questionsPayload(int firstNumber, int count, String category, String difficulty) {
+        var json = new StringBuilder("{\"response_code\":0,\"results\":[");
+        for (int i = 0; i < count; i++) {
+            var number = firstNumber + i;
+            if (i > 0) json.append(',');
+            json.append("{\"category\":")
+                    .append(quote(category != null ? category : CATEGORIES.get(number % CATEGORIES.size())))
+                    .append(",\"type\":\"multiple\",\"difficulty\":")
+                    .append(quote(difficulty != null ? difficulty : DIFFICULTIES.get(number / CATEGORIES.size() % DIFFICULTIES.size())))
+                    .append(',')
+                    .append("\"question\":\"Which of these is the &quot;answer&quot; #").append(number).append("?\",")
+                    .append("\"correct_answer\":\"Caf&eacute; ").append(number).append("\",")
+                    .append("\"incorrect_answers\":[\"Option A").append(number)
+                    .append("\",\"Option &amp; B").append(number)
+                    .append("\",\"Option C").append(number).append("\"]}");
+        }
+
+        return json.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    public static List<TriviaQuestion> questions(int firstNumber, int count) {
+        try {
+            return OBJECT_MAPPER.readValue(questionsPayload(firstNumber, count), TriviaQuestionsSet.class).getResults();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String quote(String text) {
+        try {
+            return OBJECT_MAPPER.writeValueAsString(text);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
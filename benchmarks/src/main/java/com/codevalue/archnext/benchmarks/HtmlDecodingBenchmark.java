@@ -0,0 +1,34 @@
+package com.codevalue.archnext.benchmarks;
+
+import com.codevalue.archnext.HtmlEntities;
+import org.jsoup.Jsoup;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares decoding a trivia API value with a full Jsoup document against the entities decoder.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class HtmlDecodingBenchmark {
+    @Param({
+            "Which planet is the largest in the Solar System?",
+            "In &quot;Pok&eacute;mon&quot;, what&#039;s the name of Ash&#039;s first Pok&eacute;mon?"
+    })
+    public String value;
+
+    @Benchmark
+    public String jsoupDocumentText() {
+        return Jsoup.parse(value).text();
+    }
+
+    @Benchmark
+    public String entitiesDecoder() {
+        return HtmlEntities.toText(value);
+    }
+}
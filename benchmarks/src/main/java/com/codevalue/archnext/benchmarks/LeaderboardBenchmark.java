@@ -0,0 +1,90 @@
+package com.codevalue.archnext.benchmarks;
+
+import com.codevalue.archnext.Leaderboard;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The leaderboard behind /top with 1M ranked players: a score change, the cached top, the top rendered again
+ * after a change of its players, and, as the baseline, picking the top out of all the players' scores,
+ * as a /top without the leaderboard would have to. The scores are skewed towards the low ones, as most players
+ * answer only a few questions. The category leaderboards are the same structure with fewer players each.
+ * The heap taken by the ranked players is printed on setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--enable-preview", "-Xmx2g"})
+public class LeaderboardBenchmark {
+    private static final int TOP_SIZE = 10;
+    private static final String NAME = "Player";
+
+    @Param({"1000000"})
+    public int playersCount;
+
+    private Leaderboard leaderboard;
+    private long[] scores;
+
+    @Setup
+    public void setUp() {
+        var random = new Random(42);
+        scores = new long[playersCount];
+
+        var runtime = Runtime.getRuntime();
+        System.gc();
+        var usedBefore = runtime.totalMemory() - runtime.freeMemory();
+        leaderboard = new Leaderboard(TOP_SIZE, "Top players");
+        for (int userId = 0; userId < playersCount; userId++) {
+            scores[userId] = 1 + (long) (-Math.log(1 - random.nextDouble()) * 10);
+            leaderboard.update(userId, NAME, 0, scores[userId]);
+        }
+
+        System.gc();
+        var usedAfter = runtime.totalMemory() - runtime.freeMemory();
+        System.out.println(
+                "Leaderboard of " + leaderboard.size() + " players: ~" + (usedAfter - usedBefore) / playersCount +
+                        " bytes per player"
+        );
+    }
+
+    @Benchmark
+    public void update() {
+        var userId = ThreadLocalRandom.current().nextInt(playersCount);
+        var score = scores[userId]++;
+        leaderboard.update(userId, NAME, score, score + 1);
+    }
+
+    @Benchmark
+    public String cachedTopText() {
+        return leaderboard.getTopText();
+    }
+
+    @Benchmark
+    public String topTextAfterTopChange() {
+        var userId = leaderboard.getTop(TOP_SIZE).get(ThreadLocalRandom.current().nextInt(TOP_SIZE)).getUserId();
+        var score = scores[(int) userId]++;
+        leaderboard.update(userId, NAME, score, score + 1);
+        return leaderboard.getTopText();
+    }
+
+    @Benchmark
+    public long scanTop() {
+        var top = new PriorityQueue<Long>(TOP_SIZE + 1);
+        for (var score : scores) {
+            if (top.size() < TOP_SIZE || score > top.peek()) {
+                top.add(score);
+                if (top.size() > TOP_SIZE) {
+                    top.poll();
+                }
+            }
+        }
+
+        return top.peek();
+    }
+}
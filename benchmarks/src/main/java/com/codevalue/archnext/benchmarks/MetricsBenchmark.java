@@ -0,0 +1,61 @@
+package com.codevalue.archnext.benchmarks;
+
+import com.codevalue.archnext.LatencyHistogram;
+import com.codevalue.archnext.Metrics;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The cost of the metrics: recording a latency, as done for every command and Telegram call, which should
+ * neither allocate nor contend, and writing out a registry of the bot's size in the Prometheus text format,
+ * as done for every scrape.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class MetricsBenchmark {
+    private final Metrics metrics = new Metrics();
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final LongAdder counter = new LongAdder();
+
+    @Setup
+    public void setUp() {
+        for (var command : new String[]{"/start", "/next", "/difficulty", "/bye", "other"}) {
+            var histogram = metrics.histogram(
+                    "triviabot_command_duration_seconds",
+                    Metrics.labels(Metrics.label("command", command)),
+                    "The command latencies"
+            );
+            for (int i = 1; i <= 100_000; i++) {
+                histogram.record(i * 1_000L);
+            }
+        }
+
+        for (int i = 0; i < 30; i++) {
+            metrics.counter("triviabot_counter_" + i + "_total", "A counter", counter::sum);
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void recordLatency() {
+        latencies.record(ThreadLocalRandom.current().nextLong(10_000_000));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void incrementCounter() {
+        counter.increment();
+    }
+
+    @Benchmark
+    public String scrape() {
+        return metrics.toPrometheusText();
+    }
+}
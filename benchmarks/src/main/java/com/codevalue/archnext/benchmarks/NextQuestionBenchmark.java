@@ -0,0 +1,86 @@
+package com.codevalue.archnext.benchmarks;
+
+import com.codevalue.archnext.TriviaQuestion;
+import org.openjdk.jmh.annotations.*;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures /next handling of the JavaNext bot: pool draws, poll rendering and SendPoll construction.
+ * Every user is sent a request per invocation and their replies, which the users' mailboxes send through the
+ * outbound pipeline, are waited for, so the result isn't just the hand-off of the requests to the mailboxes.
+ * The questions are loaded synchronously from a fixtures corpus, so the refills of the users' pools
+ * (one in every ten requests of a user) are included in the result without the upstream latency.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--enable-preview", "-Xmx2g"})
+public class NextQuestionBenchmark {
+    private static final int USERS_COUNT = 1_000;
+    private static final int CORPUS_SIZE = 200_000;
+
+    private List<TriviaQuestion> corpus;
+    private int corpusPosition;
+    private StubbedTriviaBot bot;
+    private long sentResponses;
+    private long awaitedReplies;
+    private Update[] nextRequests;
+
+    @Setup
+    public void setUpCorpus() {
+        corpus = Fixtures.questions(0, CORPUS_SIZE);
+        nextRequests = new Update[USERS_COUNT];
+        for (int i = 0; i < USERS_COUNT; i++) {
+            nextRequests[i] = Fixtures.textMessage(i + 1, "/next");
+        }
+    }
+
+    // the users' sessions are started over on every iteration, so they don't run out of questions
+    @Setup(Level.Iteration)
+    public void setUpBot() {
+        bot = new StubbedTriviaBot(this::loadQuestions, reply -> sentResponses++, Runnable::run);
+
+        for (int i = 0; i < USERS_COUNT; i++) {
+            bot.onUpdateReceived(Fixtures.textMessage(i + 1, "/start"));
+        }
+
+        // every /start is answered with a single reply
+        awaitedReplies = USERS_COUNT;
+        bot.awaitReplies(awaitedReplies);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDownBot() {
+        bot.onClosing();
+    }
+
+    // the replies are waited for together, so the result isn't dominated by the wake-ups of the handling threads
+    @Benchmark
+    @OperationsPerInvocation(USERS_COUNT)
+    public long next() {
+        for (var nextRequest : nextRequests) {
+            bot.onUpdateReceived(nextRequest);
+        }
+
+        awaitedReplies += USERS_COUNT;
+        bot.awaitReplies(awaitedReplies);
+        return sentResponses;
+    }
+
+    private CompletableFuture<List<TriviaQuestion>> loadQuestions(int amount) {
+        var questions = new ArrayList<TriviaQuestion>(amount);
+        for (int i = 0; i < amount; i++) {
+            questions.add(corpus.get(corpusPosition));
+            corpusPosition = (corpusPosition + 1) % CORPUS_SIZE;
+        }
+
+        return CompletableFuture.completedFuture(questions);
+    }
+}
@@ -0,0 +1,57 @@
+package com.codevalue.archnext.benchmarks;
+
+import com.codevalue.archnext.QuestionCorpus;
+import com.codevalue.archnext.TriviaQuestion;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures serving a batch of questions from the memory-mapped corpus, to be compared with binding the same
+ * amount of questions from a trivia API response in {@link QuestionsDeserializationBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class QuestionCorpusBenchmark {
+    private static final int CORPUS_SIZE = 10_000;
+
+    @Param({"10", "50", "500"})
+    public int questionsCount;
+
+    private Path corpusPath;
+    private QuestionCorpus corpus;
+    private int nextIndex;
+
+    @Setup
+    public void setUp() throws IOException {
+        corpusPath = Files.createTempFile("questions", ".corpus");
+        Files.delete(corpusPath);
+        corpus = QuestionCorpus.open(corpusPath);
+        corpus.append(Fixtures.questions(0, CORPUS_SIZE));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        corpus.close();
+        Files.delete(corpusPath);
+    }
+
+    @Benchmark
+    public List<TriviaQuestion> read() throws IOException {
+        if (nextIndex + questionsCount > CORPUS_SIZE) {
+            nextIndex = 0;
+        }
+
+        var questions = corpus.read(nextIndex, nextIndex + questionsCount);
+        nextIndex += questionsCount;
+        return questions;
+    }
+}
@@ -0,0 +1,37 @@
+package com.codevalue.archnext.benchmarks;
+
+import com.codevalue.archnext.TriviaQuestionsSet;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures binding of the trivia API responses to TriviaQuestionsSet, the way the Jersey Jackson provider does it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class QuestionsDeserializationBenchmark {
+    @Param({"10", "50", "500"})
+    public int questionsCount;
+
+    private byte[] payload;
+    private ObjectReader reader;
+
+    @Setup
+    public void setUp() {
+        payload = Fixtures.questionsPayload(0, questionsCount);
+        reader = new ObjectMapper().readerFor(TriviaQuestionsSet.class);
+    }
+
+    @Benchmark
+    public TriviaQuestionsSet bind() throws IOException {
+        return reader.readValue(payload);
+    }
+}
@@ -0,0 +1,67 @@
+package com.codevalue.archnext.benchmarks;
+
+import com.codevalue.archnext.FingerprintSet;
+import com.codevalue.archnext.TriviaQuestion;
+import com.codevalue.archnext.TriviaQuestionsReader;
+import com.codevalue.archnext.TriviaQuestionsSet;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares ingesting the trivia API responses by binding them to TriviaQuestionsSet and dropping the known
+ * questions afterwards, as the Jersey Jackson provider used to, with the token by token TriviaQuestionsReader,
+ * which skips the known questions before creating them. Run with {@code -prof gc} for the allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class QuestionsStreamingBenchmark {
+    @Param({"10", "50", "500"})
+    public int questionsCount;
+
+    // the share of the response questions which are known already
+    @Param({"0", "0.5"})
+    public double knownShare;
+
+    private byte[] payload;
+    private ObjectReader reader;
+    private final FingerprintSet knownQuestions = new FingerprintSet();
+
+    @Setup
+    public void setUp() {
+        payload = Fixtures.questionsPayload(0, questionsCount);
+        reader = new ObjectMapper().readerFor(TriviaQuestionsSet.class);
+        for (var question : Fixtures.questions(0, (int) (questionsCount * knownShare))) {
+            knownQuestions.add(question.getFingerprint());
+        }
+    }
+
+    @Benchmark
+    public List<TriviaQuestion> bind() throws IOException {
+        TriviaQuestionsSet questionsSet = reader.readValue(payload);
+        var questions = new ArrayList<TriviaQuestion>(questionsSet.getResults().size());
+        for (var question : questionsSet.getResults()) {
+            if (!knownQuestions.contains(question.getFingerprint())) {
+                questions.add(question);
+            }
+        }
+
+        return questions;
+    }
+
+    @Benchmark
+    public List<TriviaQuestion> stream() throws IOException {
+        var questions = new ArrayList<TriviaQuestion>(questionsCount);
+        TriviaQuestionsReader.read(payload, knownQuestions::contains, questions::add);
+        return questions;
+    }
+}
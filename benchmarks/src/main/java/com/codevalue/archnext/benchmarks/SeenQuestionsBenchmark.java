@@ -0,0 +1,71 @@
+package com.codevalue.archnext.benchmarks;
+
+import com.codevalue.archnext.BloomSeenQuestions;
+import com.codevalue.archnext.FingerprintSet;
+import com.codevalue.archnext.SeenQuestions;
+import com.codevalue.archnext.TriviaQuestion;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the seen questions checks done for every question drawn from the reservoir: the full question texts
+ * in a HashSet, as the user contexts used to keep them, against the fingerprint set and the Bloom filter.
+ * Half of the checked questions are seen ones. The footprints of the fingerprint set and the Bloom filter
+ * are printed on setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class SeenQuestionsBenchmark {
+    @Param({"100", "1000", "10000"})
+    public int seenCount;
+
+    private final Set<String> questionTexts = new HashSet<>();
+    private final SeenQuestions fingerprints = new FingerprintSet();
+    private final SeenQuestions bloomFilter = new BloomSeenQuestions(0.001);
+    private List<TriviaQuestion> checkedQuestions;
+    private int nextCheck;
+
+    @Setup
+    public void setUp() {
+        checkedQuestions = Fixtures.questions(0, seenCount * 2);
+        for (var question : checkedQuestions.subList(0, seenCount)) {
+            questionTexts.add(question.getQuestion());
+            fingerprints.add(question.getFingerprint());
+            bloomFilter.add(question.getFingerprint());
+        }
+
+        System.out.println(
+                "Footprints: fingerprints " + fingerprints.getFootprintBytes() + " bytes, Bloom filter " +
+                        bloomFilter.getFootprintBytes() + " bytes"
+        );
+    }
+
+    @Benchmark
+    public boolean questionTextsContains() {
+        return questionTexts.contains(nextQuestion().getQuestion());
+    }
+
+    @Benchmark
+    public boolean fingerprintsContains() {
+        return fingerprints.contains(nextQuestion().getFingerprint());
+    }
+
+    @Benchmark
+    public boolean bloomFilterContains() {
+        return bloomFilter.contains(nextQuestion().getFingerprint());
+    }
+
+    private TriviaQuestion nextQuestion() {
+        var question = checkedQuestions.get(nextCheck);
+        nextCheck = nextCheck + 1 < checkedQuestions.size() ? nextCheck + 1 : 0;
+        return question;
+    }
+}
@@ -0,0 +1,54 @@
+package com.codevalue.archnext.benchmarks;
+
+import com.codevalue.archnext.SessionStore;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The same lookups as {@link UserContextsLookupBenchmark}, done in the primitive keyed {@link SessionStore}
+ * TriviaBot keeps its sessions in.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--enable-preview", "-Xmx2g"})
+public class SessionStoreBenchmark {
+    private static final int LOOKUPS_COUNT = 1 << 16;
+
+    @Param({"1000", "100000", "1000000"})
+    public int usersCount;
+
+    private SessionStore<Object> userContexts;
+    private int[] lookedUpIds;
+    private int nextLookup;
+
+    @Setup
+    public void setUp() {
+        userContexts = new SessionStore<>(usersCount * 2, TimeUnit.DAYS.toMillis(1), TimeUnit.DAYS.toMillis(1));
+
+        var random = new Random(42);
+        var ids = new int[usersCount];
+        for (int i = 0; i < usersCount; i++) {
+            ids[i] = random.nextInt(Integer.MAX_VALUE);
+            userContexts.computeIfAbsent(ids[i], id -> new Object());
+        }
+
+        lookedUpIds = new int[LOOKUPS_COUNT];
+        for (int i = 0; i < LOOKUPS_COUNT; i++) {
+            lookedUpIds[i] = ids[random.nextInt(usersCount)];
+        }
+
+        System.out.println("Tables footprint: " + userContexts.getTableFootprintBytes() / 1024 + " KB");
+    }
+
+    @Benchmark
+    public Object lookup() {
+        var userId = lookedUpIds[nextLookup];
+        nextLookup = (nextLookup + 1) & (LOOKUPS_COUNT - 1);
+        return userContexts.get(userId);
+    }
+}
@@ -0,0 +1,91 @@
+package com.codevalue.archnext.benchmarks;
+
+import com.codevalue.archnext.QuestionReservoir;
+import com.codevalue.archnext.TriviaBot;
+import org.telegram.telegrambots.bots.DefaultBotOptions;
+import org.telegram.telegrambots.meta.api.methods.BotApiMethod;
+import org.telegram.telegrambots.meta.api.methods.polls.SendPoll;
+import org.telegram.telegrambots.meta.updateshandlers.SentCallback;
+
+import java.io.Serializable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * TriviaBot whose replies are handed to a consumer instead of being sent to Telegram.
+ * The asynchronously sent replies are handed over on the given executor, the polls being responded to with
+ * the messages Telegram would send back, so their answers can be scored.
+ */
+public class StubbedTriviaBot extends TriviaBot {
+    static {
+        Fixtures.liftOutboundLimits();
+    }
+
+    private final Consumer<BotApiMethod<?>> replies;
+    private final Executor asyncRepliesExecutor;
+    private final AtomicLong repliesCount = new AtomicLong();
+
+    /**
+     * The bot getting the fixture questions, which hands the asynchronously sent replies over right away.
+     * The Java6 implementation has the same constructor, so the benchmarks common to both create the bot with it.
+     */
+    public StubbedTriviaBot(Consumer<BotApiMethod<?>> replies) {
+        this(amount -> CompletableFuture.completedFuture(Fixtures.questions(0, amount)), replies, Runnable::run);
+    }
+
+    public StubbedTriviaBot(
+            QuestionReservoir.QuestionsLoader questionsLoader,
+            Consumer<BotApiMethod<?>> replies,
+            Executor asyncRepliesExecutor
+    ) {
+        super(new DefaultBotOptions(), questionsLoader);
+        this.replies = replies;
+        this.asyncRepliesExecutor = asyncRepliesExecutor;
+    }
+
+    @Override
+    public <T extends Serializable, Method extends BotApiMethod<T>> T execute(Method method) {
+        replies.accept(method);
+        repliesCount.incrementAndGet();
+        return null;
+    }
+
+    @Override
+    public <T extends Serializable, Method extends BotApiMethod<T>, Callback extends SentCallback<T>> void executeAsync(
+            Method method,
+            Callback callback
+    ) {
+        asyncRepliesExecutor.execute(() -> {
+            // the sent polls are registered for their answers before the replies consumer may answer them
+            callback.onResult(method, method instanceof SendPoll ? sentPoll((SendPoll) method) : null);
+            replies.accept(method);
+            repliesCount.incrementAndGet();
+        });
+    }
+
+    /**
+     * Waits till the replies consumer has been handed the given number of replies since the bot was created,
+     * so a benchmark can wait for the replies sent by the users' mailboxes and the outbound pipeline.
+     * It yields rather than spins, so the threads sending the replies get to run on a machine with few cores.
+     */
+    public void awaitReplies(long count) {
+        while (repliesCount.get() < count) {
+            Thread.yield();
+        }
+    }
+
+    /**
+     * The id of the poll as the stubbed Telegram response has it, unique among the polls sent to the chat
+     * and not answered yet.
+     */
+    public static String getPollId(SendPoll poll) {
+        return poll.getChatId() + ":" + System.identityHashCode(poll);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends Serializable> T sentPoll(SendPoll poll) {
+        return (T) Fixtures.sentPoll(poll.getChatId(), getPollId(poll));
+    }
+}
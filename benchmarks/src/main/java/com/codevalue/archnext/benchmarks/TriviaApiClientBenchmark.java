@@ -0,0 +1,123 @@
+package com.codevalue.archnext.benchmarks;
+
+import com.codevalue.archnext.TriviaApiLoader;
+import com.codevalue.archnext.TriviaQuestion;
+import com.codevalue.archnext.TriviaQuestionsReader;
+import com.codevalue.archnext.benchmarks.load.TriviaApiStub;
+import org.openjdk.jmh.annotations.*;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.InvocationCallback;
+import javax.ws.rs.core.MediaType;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the questions refills of {@link TriviaApiLoader} over the JDK HTTP client against requesting them with
+ * the Jersey client's async invoker, as the loader used to, from a local {@link TriviaApiStub} answering at once,
+ * so the difference is the cost of the clients. Both read the responses with {@link TriviaQuestionsReader}.
+ * A refill is a single request, a burst is as many requests at once as the reservoir sends when refilling
+ * the pools of several filters.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+// without the no delay option the stub's responses wait for the delayed acknowledgements of their headers
+@Fork(value = 1, jvmArgsAppend = {"--enable-preview", "-Dsun.net.httpserver.nodelay=true"})
+public class TriviaApiClientBenchmark {
+    private static final int BURST_SIZE = 16;
+
+    @Param({"10", "50"})
+    public int amount;
+
+    private TriviaApiStub api;
+    private TriviaApiLoader loader;
+    private Client jerseyClient;
+
+    @Setup
+    public void setUp() throws IOException {
+        api = new TriviaApiStub(0, 0);
+        loader = new TriviaApiLoader(api.getUrl(), false);
+        jerseyClient = ClientBuilder.newClient();
+    }
+
+    @TearDown
+    public void tearDown() {
+        jerseyClient.close();
+        api.close();
+    }
+
+    @Benchmark
+    public List<TriviaQuestion> jdkClientRefill() {
+        return loader.load(amount).join();
+    }
+
+    @Benchmark
+    public List<TriviaQuestion> jerseyRefill() {
+        return loadWithJersey().join();
+    }
+
+    @Benchmark
+    public int jdkClientBurst() {
+        var loads = new ArrayList<CompletableFuture<List<TriviaQuestion>>>(BURST_SIZE);
+        for (int i = 0; i < BURST_SIZE; i++) {
+            loads.add(loader.load(amount));
+        }
+
+        return join(loads);
+    }
+
+    @Benchmark
+    public int jerseyBurst() {
+        var loads = new ArrayList<CompletableFuture<List<TriviaQuestion>>>(BURST_SIZE);
+        for (int i = 0; i < BURST_SIZE; i++) {
+            loads.add(loadWithJersey());
+        }
+
+        return join(loads);
+    }
+
+    private CompletableFuture<List<TriviaQuestion>> loadWithJersey() {
+        var result = new CompletableFuture<List<TriviaQuestion>>();
+        jerseyClient
+                .target(api.getUrl())
+                .queryParam("amount", amount)
+                .request(MediaType.APPLICATION_JSON)
+                .async()
+                .get(new InvocationCallback<InputStream>() {
+                    @Override
+                    public void completed(InputStream response) {
+                        try (response) {
+                            var questions = new ArrayList<TriviaQuestion>(amount);
+                            TriviaQuestionsReader.read(response, fingerprint -> false, questions::add);
+                            result.complete(questions);
+                        } catch (IOException | RuntimeException e) {
+                            result.completeExceptionally(e);
+                        }
+                    }
+
+                    @Override
+                    public void failed(Throwable throwable) {
+                        result.completeExceptionally(throwable);
+                    }
+                });
+
+        return result;
+    }
+
+    private static int join(List<CompletableFuture<List<TriviaQuestion>>> loads) {
+        var count = 0;
+        for (var load : loads) {
+            count += load.join().size();
+        }
+
+        return count;
+    }
+}
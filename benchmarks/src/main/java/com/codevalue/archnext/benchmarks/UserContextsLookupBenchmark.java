@@ -0,0 +1,52 @@
+package com.codevalue.archnext.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the session lookups the way TriviaBot used to do them: a ConcurrentHashMap keyed by the boxed Telegram
+ * user id. Compare with {@link SessionStoreBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--enable-preview", "-Xmx2g"})
+public class UserContextsLookupBenchmark {
+    private static final int LOOKUPS_COUNT = 1 << 16;
+
+    @Param({"1000", "100000", "1000000"})
+    public int usersCount;
+
+    private final ConcurrentMap<Integer, Object> userContexts = new ConcurrentHashMap<>();
+    private int[] lookedUpIds;
+    private int nextLookup;
+
+    @Setup
+    public void setUp() {
+        var random = new Random(42);
+        var ids = new int[usersCount];
+        for (int i = 0; i < usersCount; i++) {
+            // Telegram user ids are sparse, so the ids are not sequential here either
+            ids[i] = random.nextInt(Integer.MAX_VALUE);
+            userContexts.put(ids[i], new Object());
+        }
+
+        lookedUpIds = new int[LOOKUPS_COUNT];
+        for (int i = 0; i < LOOKUPS_COUNT; i++) {
+            lookedUpIds[i] = ids[random.nextInt(usersCount)];
+        }
+    }
+
+    @Benchmark
+    public Object lookup() {
+        var userId = lookedUpIds[nextLookup];
+        nextLookup = (nextLookup + 1) & (LOOKUPS_COUNT - 1);
+        return userContexts.get(userId);
+    }
+}
@@ -0,0 +1,253 @@
+package com.codevalue.archnext.benchmarks.load;
+
+import com.codevalue.archnext.ClusterIngress;
+import com.codevalue.archnext.ClusterWorker;
+import com.codevalue.archnext.TriviaApiLoader;
+import com.codevalue.archnext.benchmarks.Fixtures;
+import com.codevalue.archnext.benchmarks.StubbedTriviaBot;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the throughput of the cluster mode as workers are added: an in-process {@link ClusterIngress} routes
+ * {@code /start} and {@code /next} updates of the simulated users, as fast as the workers take them, to worker JVMs
+ * started on the same machine, every one running a stubbed bot with its own local {@link TriviaApiStub}.
+ * The queues of the ingress are bounded, so the rate of the routed updates is the rate the workers handle them at.
+ * <p>
+ * The execute latency simulates the Telegram round trip of every reply, with at most the max in flight replies
+ * of a worker awaiting it, which bounds the throughput of a single worker as the Telegram round trips do in
+ * production. With the rebalance option set, after the last measurement a worker joins the cluster and then another
+ * one leaves it, while the load goes on, and the handoffs are reported; the workers report the replies to the unknown
+ * users on exit, which are the sessions lost by the handoffs, as every user starts the session once.
+ * <p>
+ * Options (all optional): {@code --workers=1,2,4 --users=10000 --duration-seconds=20 --warmup-seconds=5
+ * --execute-latency-millis=20 --max-in-flight=16 --api-latency-millis=50 --routers=1 --rebalance=true}
+ */
+public class ClusterLoad {
+    private static final int PARTITIONS_COUNT = 1024;
+    private static final int QUEUE_CAPACITY = 1000;
+    private static final int OUTBOUND_QUEUE_CAPACITY = 1000;
+    private static final long MEMBERSHIP_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(60);
+    private static final String UNKNOWN_USER_TEXT_PREFIX = "I beg your pardon";
+
+    private final Map<String, String> options;
+    private final List<Update> starts = new ArrayList<>();
+    private final List<Update> nexts = new ArrayList<>();
+    private volatile boolean isRunning;
+
+    public static void main(String[] args) throws Exception {
+        var options = new HashMap<String, String>();
+        for (var arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Options are expected in the --name=value form, got: " + arg);
+            }
+
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+
+        if ("worker".equals(options.get("role"))) {
+            runWorker(options);
+        } else {
+            new ClusterLoad(options).run();
+        }
+
+        System.exit(0);
+    }
+
+    public ClusterLoad(Map<String, String> options) {
+        this.options = options;
+    }
+
+    public void run() throws Exception {
+        var usersCount = (int) getLongOption(options, "users", 10_000);
+        for (long id = 1; id <= usersCount; id++) {
+            starts.add(Fixtures.textMessage(id, "/start"));
+            nexts.add(Fixtures.textMessage(id, "/next"));
+        }
+
+        var workersCounts = new ArrayList<Integer>();
+        for (var count : options.getOrDefault("workers", "1,2,4").split(",")) {
+            workersCounts.add(Integer.parseInt(count.trim()));
+        }
+
+        var results = new ArrayList<String>();
+        for (int i = 0; i < workersCounts.size(); i++) {
+            var isLast = i == workersCounts.size() - 1;
+            results.add(measure(workersCounts.get(i), isLast && Boolean.parseBoolean(options.getOrDefault("rebalance", "true"))));
+        }
+
+        System.out.println("=== Results");
+        results.forEach(System.out::println);
+    }
+
+    private String measure(int workersCount, boolean isRebalanced) throws Exception {
+        var ingress = new ClusterIngress(0, PARTITIONS_COUNT, QUEUE_CAPACITY);
+        ingress.start();
+        var workers = new ArrayList<Process>();
+        for (int i = 0; i < workersCount; i++) {
+            workers.add(startWorker(ingress.getPort(), "worker-" + i));
+        }
+        awaitMembership(ingress, workersCount);
+
+        isRunning = true;
+        var routersCount = (int) getLongOption(options, "routers", 1);
+        var routers = new ArrayList<Thread>();
+        for (int i = 0; i < routersCount; i++) {
+            var router = i;
+            var thread = new Thread(() -> route(ingress, router, routersCount), "router-" + i);
+            thread.start();
+            routers.add(thread);
+        }
+
+        var warmupSeconds = getLongOption(options, "warmup-seconds", 5);
+        var durationSeconds = getLongOption(options, "duration-seconds", 20);
+        System.out.println("Warming up for " + warmupSeconds + " seconds with " + workersCount + " workers...");
+        Thread.sleep(TimeUnit.SECONDS.toMillis(warmupSeconds));
+        var startCount = ingress.getRoutedCount();
+        var startNanos = System.nanoTime();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(durationSeconds));
+        var rate = (ingress.getRoutedCount() - startCount) / ((System.nanoTime() - startNanos) / 1e9);
+        var result = String.format("%d workers: %.0f updates/s", workersCount, rate);
+        System.out.println(result);
+
+        if (isRebalanced) {
+            var handoffsCount = ingress.getHandoffsCount();
+            var handoffBytesCount = ingress.getHandoffBytesCount();
+            var heldCount = ingress.getHeldCount();
+            System.out.println("Adding a worker...");
+            var joined = startWorker(ingress.getPort(), "worker-" + workersCount);
+            workers.add(joined);
+            awaitMembership(ingress, workersCount + 1);
+            System.out.println("Removing a worker...");
+            // the shutdown hook of the worker leaves the cluster
+            workers.remove(0).destroy();
+            awaitMembership(ingress, workersCount);
+            result += String.format(
+                    ", then a join and a leave handed off %d partitions, %d KB, %d updates were held for them",
+                    ingress.getHandoffsCount() - handoffsCount,
+                    (ingress.getHandoffBytesCount() - handoffBytesCount) / 1024,
+                    ingress.getHeldCount() - heldCount
+            );
+        }
+
+        isRunning = false;
+        for (var router : routers) {
+            router.interrupt();
+            router.join();
+        }
+
+        ingress.stop();
+        for (var worker : workers) {
+            worker.waitFor();
+        }
+
+        return result + ", dropped: " + ingress.getDroppedCount();
+    }
+
+    // every user starts the session once and then keeps asking for the next questions
+    private void route(ClusterIngress ingress, int router, int routersCount) {
+        var random = ThreadLocalRandom.current();
+        var isStarted = new boolean[starts.size()];
+        while (isRunning && !Thread.currentThread().isInterrupted()) {
+            var index = random.nextInt(starts.size() / routersCount) * routersCount + router;
+            if (isStarted[index]) {
+                ingress.route(nexts.get(index));
+            } else {
+                isStarted[index] = true;
+                ingress.route(starts.get(index));
+            }
+        }
+    }
+
+    private Process startWorker(int ingressPort, String nodeId) throws Exception {
+        var command = new ArrayList<String>();
+        command.add(ProcessHandle.current().info().command().orElse("java"));
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.add("-DOUTBOUND_MAX_IN_FLIGHT=" + getLongOption(options, "max-in-flight", 16));
+        command.add("-DOUTBOUND_QUEUE_CAPACITY=" + OUTBOUND_QUEUE_CAPACITY);
+        command.add("-DSESSION_SNAPSHOT_PATH=");
+        command.add("-DQUESTION_CORPUS_PATH=");
+        command.add("-DMETRICS_PORT=0");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(ClusterLoad.class.getName());
+        command.add("--role=worker");
+        command.add("--ingress-port=" + ingressPort);
+        command.add("--node-id=" + nodeId);
+        command.add("--execute-latency-millis=" + getLongOption(options, "execute-latency-millis", 20));
+        command.add("--api-latency-millis=" + getLongOption(options, "api-latency-millis", 50));
+        return new ProcessBuilder(command).inheritIO().start();
+    }
+
+    private static void awaitMembership(ClusterIngress ingress, int workersCount) throws InterruptedException {
+        var deadline = System.currentTimeMillis() + MEMBERSHIP_TIMEOUT_MILLIS;
+        while (ingress.getWorkersCount() != workersCount || ingress.getPendingHandoffsCount() > 0) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("The cluster didn't settle with " + workersCount + " workers");
+            }
+
+            Thread.sleep(100);
+        }
+    }
+
+    // the replies are taken by the Telegram stub after the execute latency, without holding a thread meanwhile
+    private static void runWorker(Map<String, String> options) throws Exception {
+        var nodeId = options.get("node-id");
+        var executeLatencyMillis = getLongOption(options, "execute-latency-millis", 20);
+        var scheduler = Executors.newScheduledThreadPool(1);
+        Executor repliesExecutor = executeLatencyMillis > 0
+                ? task -> scheduler.schedule(task, executeLatencyMillis, TimeUnit.MILLISECONDS)
+                : Executors.newCachedThreadPool();
+        var repliesCount = new AtomicLong();
+        var unknownUserRepliesCount = new AtomicLong();
+
+        try (var api = new TriviaApiStub(getLongOption(options, "api-latency-millis", 50), 0)) {
+            var bot = new StubbedTriviaBot(
+                    new TriviaApiLoader(api.getUrl()),
+                    reply -> {
+                        repliesCount.incrementAndGet();
+                        if (reply instanceof SendMessage sendMessage && sendMessage.getText().startsWith(UNKNOWN_USER_TEXT_PREFIX)) {
+                            unknownUserRepliesCount.incrementAndGet();
+                        }
+                    },
+                    repliesExecutor
+            );
+            var worker = new ClusterWorker(nodeId, "127.0.0.1", (int) getLongOption(options, "ingress-port", 0), QUEUE_CAPACITY, bot);
+            worker.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    worker.leave(MEMBERSHIP_TIMEOUT_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+
+                System.out.printf(
+                        "%s: updates: %d, replies: %d, replies to unknown users: %d, released users: %d, adopted: %d%n",
+                        nodeId,
+                        worker.getUpdatesCount(),
+                        repliesCount.get(),
+                        unknownUserRepliesCount.get(),
+                        worker.getReleasedUsersCount(),
+                        worker.getAdoptedUsersCount()
+                );
+            }, "worker-leave"));
+
+            worker.awaitDisconnect();
+        }
+    }
+
+    private static long getLongOption(Map<String, String> options, String name, long defaultValue) {
+        return options.containsKey(name) ? Long.parseLong(options.get(name)) : defaultValue;
+    }
+}
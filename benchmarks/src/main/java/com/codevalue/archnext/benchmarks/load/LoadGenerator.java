@@ -0,0 +1,406 @@
+package com.codevalue.archnext.benchmarks.load;
+
+import com.codevalue.archnext.HedgedQuestionsLoader;
+import com.codevalue.archnext.LatencyHistogram;
+import com.codevalue.archnext.QuestionReservoir;
+import com.codevalue.archnext.TriviaApiLoader;
+import com.codevalue.archnext.TriviaBot;
+import com.codevalue.archnext.benchmarks.Fixtures;
+import com.codevalue.archnext.benchmarks.StubbedTriviaBot;
+import org.telegram.telegrambots.meta.api.methods.BotApiMethod;
+import org.telegram.telegrambots.meta.api.methods.polls.SendPoll;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Replays synthetic update streams of simulated users against TriviaBot without Telegram and the trivia API:
+ * the replies are swallowed by a stub execute and the questions are served by a local {@link TriviaApiStub}.
+ * <p>
+ * Every simulated user sends its next command only after the bot replied to the previous one (and the think
+ * time passed), the latency is measured from passing the update to onUpdateReceived till the execute call
+ * with the reply for the user's chat. "Please wait" messages are counted as interim replies and the user keeps
+ * waiting for the question; replies arriving when nothing is awaited are counted as unexpected ones.
+ * <p>
+ * Options (all optional): {@code --users=1000 --duration-seconds=30 --warmup-seconds=5 --think-millis=0
+ * --mix=next:8,start:1,bye:1,category:0,difficulty:0,score:0,top:0 --answer-rate=1 --dispatch-threads=1 --api-latency-millis=200
+ * --api-error-rate=0.05 --reply-timeout-millis=10000 --execute-latency-millis=0 --api-slow-rate=0
+ * --backup-api-latency-millis=50 --api-token-capacity=0}
+ * <p>
+ * The category commands of the mix ask for the next question of a random stub category, and the difficulty
+ * ones choose a random difficulty. The users answer the share of the polls given by the answer rate, with a random
+ * option, right before sending their next command; the answers get no replies, so they are not timed.
+ * <p>
+ * With the backup API latency set, a second, error-free trivia API stub is hedged against the first one with
+ * {@link HedgedQuestionsLoader}; the slow rate is the share of the first stub's responses taking ten times the
+ * latency. The token capacity limits the questions a session token of the first stub returns till it is reset.
+ * <p>
+ * The execute latency simulates the Telegram round trip of every reply; the bot's dispatch mode is chosen
+ * with the DISPATCH_MODE environment variable, as in production.
+ */
+public class LoadGenerator {
+    private static final long REPORT_INTERVAL_SECONDS = 5;
+    private static final String INTERIM_REPLY_MARKER = "please wait";
+    private static final int BACKUP_API_FIRST_QUESTION_NUMBER = 1_000_000_000;
+
+    private static class SimulatedUser {
+        final long id;
+        final Update start;
+        final Update next;
+        final Update bye;
+        final List<Update> categoryNexts = new ArrayList<>();
+        final List<Update> difficulties = new ArrayList<>();
+        final Update score;
+        final Update top;
+        // the answer to the last poll, sent before the next command
+        volatile Update pollAnswer;
+        boolean isStarted;
+
+        SimulatedUser(long id) {
+            this.id = id;
+            start = Fixtures.textMessage(id, "/start");
+            next = Fixtures.textMessage(id, "/next");
+            bye = Fixtures.textMessage(id, "/bye");
+            score = Fixtures.textMessage(id, "/score");
+            top = Fixtures.textMessage(id, "/top");
+            for (var category : Fixtures.CATEGORIES) {
+                categoryNexts.add(Fixtures.textMessage(id, "/next " + category.replace("&amp;", "&").toLowerCase()));
+            }
+
+            for (var difficulty : Fixtures.DIFFICULTIES) {
+                difficulties.add(Fixtures.textMessage(id, "/difficulty " + difficulty));
+            }
+
+            difficulties.add(Fixtures.textMessage(id, "/difficulty any"));
+        }
+    }
+
+    private final Map<String, String> options;
+    private final int nextWeight;
+    private final int startWeight;
+    private final int byeWeight;
+    private final int categoryWeight;
+    private final int difficultyWeight;
+    private final int scoreWeight;
+    private final int topWeight;
+    private final double answerRate;
+    private final long thinkMillis;
+    private final long replyTimeoutNanos;
+    private final long executeLatencyMillis;
+    private final Map<Long, SimulatedUser> users = new HashMap<>();
+    private final BlockingQueue<SimulatedUser> readyUsers = new LinkedBlockingQueue<>();
+    private final ConcurrentMap<Long, Long> awaitedReplies = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final AtomicLong updatesCount = new AtomicLong();
+    private final AtomicLong repliesCount = new AtomicLong();
+    private final AtomicLong interimRepliesCount = new AtomicLong();
+    private final AtomicLong unexpectedRepliesCount = new AtomicLong();
+    private final AtomicLong timedOutCount = new AtomicLong();
+    private final AtomicLong pollAnswersCount = new AtomicLong();
+    private volatile boolean isRunning = true;
+
+    public static void main(String[] args) throws Exception {
+        var options = new HashMap<String, String>();
+        for (var arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Options are expected in the --name=value form, got: " + arg);
+            }
+
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+
+        new LoadGenerator(options).run();
+        // the HTTP client threads of the bot are not daemon ones
+        System.exit(0);
+    }
+
+    public LoadGenerator(Map<String, String> options) {
+        this.options = options;
+
+        var mix = new HashMap<String, Integer>();
+        for (var entry : getOption("mix", "next:8,start:1,bye:1").split(",")) {
+            var parts = entry.split(":");
+            mix.put(parts[0], Integer.parseInt(parts[1]));
+        }
+
+        nextWeight = mix.getOrDefault("next", 0);
+        startWeight = mix.getOrDefault("start", 0);
+        byeWeight = mix.getOrDefault("bye", 0);
+        categoryWeight = mix.getOrDefault("category", 0);
+        difficultyWeight = mix.getOrDefault("difficulty", 0);
+        scoreWeight = mix.getOrDefault("score", 0);
+        topWeight = mix.getOrDefault("top", 0);
+        if (nextWeight + startWeight + byeWeight + categoryWeight + difficultyWeight + scoreWeight + topWeight <= 0) {
+            throw new IllegalArgumentException("The commands mix should contain at least one positive weight");
+        }
+
+        thinkMillis = getLongOption("think-millis", 0);
+        replyTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(getLongOption("reply-timeout-millis", 10_000));
+        executeLatencyMillis = getLongOption("execute-latency-millis", 0);
+        answerRate = Double.parseDouble(getOption("answer-rate", "1"));
+    }
+
+    public void run() throws Exception {
+        var usersCount = (int) getLongOption("users", 1000);
+        var warmupSeconds = getLongOption("warmup-seconds", 5);
+        var durationSeconds = getLongOption("duration-seconds", 30);
+        var dispatchThreads = (int) getLongOption("dispatch-threads", 1);
+
+        try (
+                var api = new TriviaApiStub(
+                        getLongOption("api-latency-millis", 200),
+                        Double.parseDouble(getOption("api-error-rate", "0.05")),
+                        Double.parseDouble(getOption("api-slow-rate", "0")),
+                        0,
+                        (int) getLongOption("api-token-capacity", 0)
+                );
+                var backupApi = options.containsKey("backup-api-latency-millis")
+                        ? new TriviaApiStub(getLongOption("backup-api-latency-millis", 0), 0, 0, BACKUP_API_FIRST_QUESTION_NUMBER, 0)
+                        : null
+        ) {
+            QuestionReservoir.QuestionsLoader questionsLoader = createApiLoader(api);
+            HedgedQuestionsLoader hedgedLoader = null;
+            if (backupApi != null) {
+                hedgedLoader = new HedgedQuestionsLoader(List.of(questionsLoader, createApiLoader(backupApi)));
+                questionsLoader = hedgedLoader;
+            }
+
+            var asyncRepliesExecutor = Executors.newCachedThreadPool();
+            var bot = new StubbedTriviaBot(
+                    questionsLoader,
+                    reply -> {
+                        simulateExecuteLatency();
+                        onReply(reply);
+                    },
+                    asyncRepliesExecutor
+            );
+
+            for (long id = 1; id <= usersCount; id++) {
+                var user = new SimulatedUser(id);
+                users.put(id, user);
+                readyUsers.add(user);
+            }
+
+            var dispatchers = new ArrayList<Thread>();
+            for (int i = 0; i < dispatchThreads; i++) {
+                var dispatcher = new Thread(() -> dispatch(bot), "dispatcher-" + i);
+                dispatcher.start();
+                dispatchers.add(dispatcher);
+            }
+
+            scheduler.scheduleAtFixedRate(this::timeOutReplies, 1, 1, TimeUnit.SECONDS);
+
+            System.out.println("Warming up for " + warmupSeconds + " seconds with " + usersCount + " users...");
+            Thread.sleep(TimeUnit.SECONDS.toMillis(warmupSeconds));
+            resetCounters();
+
+            var startNanos = System.nanoTime();
+            var reporter = scheduler.scheduleAtFixedRate(
+                    () -> report(System.nanoTime() - startNanos),
+                    REPORT_INTERVAL_SECONDS,
+                    REPORT_INTERVAL_SECONDS,
+                    TimeUnit.SECONDS
+            );
+
+            Thread.sleep(TimeUnit.SECONDS.toMillis(durationSeconds));
+            var elapsedNanos = System.nanoTime() - startNanos;
+            reporter.cancel(false);
+
+            isRunning = false;
+            for (var dispatcher : dispatchers) {
+                dispatcher.interrupt();
+                dispatcher.join();
+            }
+
+            System.out.println("=== Results");
+            report(elapsedNanos);
+            System.out.println(
+                    "trivia API requests: " + api.getRequestsCount() + ", failed: " + api.getFailedRequestsCount() +
+                            ", token requests: " + api.getTokenRequestsCount()
+            );
+            System.out.printf(
+                    "pool hits: %.1f%% of %d next requests, prefetches: %d, prefetched questions: %d, wasted: %d " +
+                            "(including the warmup)%n",
+                    100.0 * bot.getPoolHitsCount() / Math.max(1, bot.getNextRequestsCount()),
+                    bot.getNextRequestsCount(),
+                    bot.getPrefetchesCount(),
+                    bot.getPrefetchedQuestionsCount(),
+                    bot.getWastedPrefetchedQuestionsCount()
+            );
+            System.out.println(
+                    "poll answers: " + pollAnswersCount.get() + ", scored: " + bot.getScoredAnswersCount() +
+                            ", correct: " + bot.getCorrectAnswersCount() + " (including the warmup)"
+            );
+            if (hedgedLoader != null) {
+                System.out.println(
+                        "backup trivia API requests: " + backupApi.getRequestsCount() + ", hedged loads: " +
+                                hedgedLoader.getHedgedCount() + " of " + hedgedLoader.getLoadsCount() +
+                                ", answered by the backup: " + hedgedLoader.getBackupWinsCount()
+                );
+            }
+
+            scheduler.shutdownNow();
+            asyncRepliesExecutor.shutdownNow();
+            bot.onClosing();
+            if (hedgedLoader != null) {
+                hedgedLoader.close();
+            }
+        }
+    }
+
+    private void dispatch(TriviaBot bot) {
+        try {
+            while (isRunning) {
+                var user = readyUsers.take();
+                var pollAnswer = user.pollAnswer;
+                if (pollAnswer != null) {
+                    user.pollAnswer = null;
+                    pollAnswersCount.incrementAndGet();
+                    bot.onUpdateReceived(pollAnswer);
+                }
+
+                var update = nextUpdateOf(user);
+
+                awaitedReplies.put(user.id, System.nanoTime());
+                updatesCount.incrementAndGet();
+                bot.onUpdateReceived(update);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Update nextUpdateOf(SimulatedUser user) {
+        if (!user.isStarted) {
+            user.isStarted = true;
+            return user.start;
+        }
+
+        var random = ThreadLocalRandom.current();
+        var choice = random.nextInt(
+                nextWeight + startWeight + byeWeight + categoryWeight + difficultyWeight + scoreWeight + topWeight
+        );
+        if (choice < nextWeight) return user.next;
+        if ((choice -= nextWeight) < startWeight) return user.start;
+        if ((choice -= startWeight) < categoryWeight) return user.categoryNexts.get(random.nextInt(user.categoryNexts.size()));
+        if ((choice -= categoryWeight) < difficultyWeight) return user.difficulties.get(random.nextInt(user.difficulties.size()));
+        if ((choice -= difficultyWeight) < scoreWeight) return user.score;
+        if ((choice -= scoreWeight) < topWeight) return user.top;
+
+        user.isStarted = false;
+        return user.bye;
+    }
+
+    private void onReply(BotApiMethod<?> method) {
+        String chatId;
+        SendPoll answeredPoll = null;
+        if (method instanceof SendMessage sendMessage) {
+            if (sendMessage.getText().contains(INTERIM_REPLY_MARKER)) {
+                interimRepliesCount.incrementAndGet();
+                return;
+            }
+
+            chatId = sendMessage.getChatId();
+        } else if (method instanceof SendPoll sendPoll) {
+            chatId = sendPoll.getChatId();
+            if (ThreadLocalRandom.current().nextDouble() < answerRate) {
+                answeredPoll = sendPoll;
+            }
+        } else {
+            return;
+        }
+
+        var userId = Long.parseLong(chatId);
+        var sentNanos = awaitedReplies.remove(userId);
+        if (sentNanos == null) {
+            unexpectedRepliesCount.incrementAndGet();
+            return;
+        }
+
+        latencies.record(System.nanoTime() - sentNanos);
+        repliesCount.incrementAndGet();
+        var user = users.get(userId);
+        if (answeredPoll != null) {
+            var optionId = ThreadLocalRandom.current().nextInt(answeredPoll.getOptions().size());
+            user.pollAnswer = Fixtures.pollAnswer(userId, StubbedTriviaBot.getPollId(answeredPoll), optionId);
+        }
+
+        resume(user);
+    }
+
+    private void simulateExecuteLatency() {
+        if (executeLatencyMillis <= 0) return;
+
+        try {
+            Thread.sleep(executeLatencyMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void timeOutReplies() {
+        var now = System.nanoTime();
+        awaitedReplies.forEach((userId, sentNanos) -> {
+            if (now - sentNanos > replyTimeoutNanos && awaitedReplies.remove(userId, sentNanos)) {
+                timedOutCount.incrementAndGet();
+                resume(users.get(userId));
+            }
+        });
+    }
+
+    private void resume(SimulatedUser user) {
+        if (thinkMillis <= 0) {
+            readyUsers.add(user);
+            return;
+        }
+
+        scheduler.schedule(() -> readyUsers.add(user), thinkMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void resetCounters() {
+        latencies.reset();
+        updatesCount.set(0);
+        repliesCount.set(0);
+        interimRepliesCount.set(0);
+        unexpectedRepliesCount.set(0);
+        timedOutCount.set(0);
+    }
+
+    private void report(long elapsedNanos) {
+        var seconds = elapsedNanos / 1e9;
+        System.out.printf(
+                "%.0fs: %.0f updates/s, %.0f replies/s, interim replies: %d, unexpected replies: %d, timed out: %d, " +
+                        "latency p50: %.3f ms, p99: %.3f ms, p99.9: %.3f ms%n",
+                seconds,
+                updatesCount.get() / seconds,
+                repliesCount.get() / seconds,
+                interimRepliesCount.get(),
+                unexpectedRepliesCount.get(),
+                timedOutCount.get(),
+                latencies.getValueAtPercentile(50) / 1e6,
+                latencies.getValueAtPercentile(99) / 1e6,
+                latencies.getValueAtPercentile(99.9) / 1e6
+        );
+    }
+
+    private String getOption(String name, String defaultValue) {
+        return options.getOrDefault(name, defaultValue);
+    }
+
+    private long getLongOption(String name, long defaultValue) {
+        return options.containsKey(name) ? Long.parseLong(options.get(name)) : defaultValue;
+    }
+
+    // the stub doesn't rate limit the requests, so the retries of the filtered loads are sent right away
+    private static TriviaApiLoader createApiLoader(TriviaApiStub api) {
+        return new TriviaApiLoader(api.getUrl(), true, Duration.ofSeconds(5), Duration.ofSeconds(10), Duration.ZERO);
+    }
+}
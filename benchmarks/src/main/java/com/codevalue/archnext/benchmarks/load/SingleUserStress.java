@@ -0,0 +1,130 @@
+package com.codevalue.archnext.benchmarks.load;
+
+import com.codevalue.archnext.TriviaQuestion;
+import com.codevalue.archnext.benchmarks.Fixtures;
+import com.codevalue.archnext.benchmarks.StubbedTriviaBot;
+import org.telegram.telegrambots.meta.api.methods.BotApiMethod;
+import org.telegram.telegrambots.meta.api.methods.polls.SendPoll;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hammers the session of a single user with concurrent /next requests from many threads, while the questions
+ * arrive asynchronously, and checks that every request is answered exactly once and no question is served twice.
+ * Exits with a non-zero code when any of the checks fails.
+ * <p>
+ * Options (all optional): {@code --threads=16 --requests-per-thread=10000}
+ */
+public class SingleUserStress {
+    private static final long USER_ID = 42;
+    private static final long ANSWERS_TIMEOUT_SECONDS = 30;
+
+    private final ConcurrentMap<String, AtomicInteger> servedQuestions = new ConcurrentHashMap<>();
+    private final AtomicLong sorryRepliesCount = new AtomicLong();
+    private final AtomicLong interimRepliesCount = new AtomicLong();
+    private final AtomicInteger nextQuestionNumber = new AtomicInteger();
+    private final ScheduledExecutorService loaderExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    public static void main(String[] args) throws Exception {
+        var threadsCount = 16;
+        var requestsPerThread = 10_000;
+        for (var arg : args) {
+            if (arg.startsWith("--threads=")) {
+                threadsCount = Integer.parseInt(arg.substring("--threads=".length()));
+            } else if (arg.startsWith("--requests-per-thread=")) {
+                requestsPerThread = Integer.parseInt(arg.substring("--requests-per-thread=".length()));
+            } else {
+                throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+
+        var isPassed = new SingleUserStress().run(threadsCount, requestsPerThread);
+        System.exit(isPassed ? 0 : 1);
+    }
+
+    private boolean run(int threadsCount, int requestsPerThread) throws Exception {
+        var asyncRepliesExecutor = Executors.newCachedThreadPool();
+        var bot = new StubbedTriviaBot(this::loadQuestions, this::onReply, asyncRepliesExecutor);
+        bot.onUpdateReceived(Fixtures.textMessage(USER_ID, "/start"));
+
+        var next = Fixtures.textMessage(USER_ID, "/next");
+        var start = new CountDownLatch(1);
+        var threads = new ArrayList<Thread>();
+        for (int i = 0; i < threadsCount; i++) {
+            var thread = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int j = 0; j < requestsPerThread; j++) {
+                        bot.onUpdateReceived(next);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        var startNanos = System.nanoTime();
+        start.countDown();
+        for (var thread : threads) {
+            thread.join();
+        }
+
+        long expectedAnswers = (long) threadsCount * requestsPerThread;
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(ANSWERS_TIMEOUT_SECONDS);
+        while (getAnswersCount() < expectedAnswers && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+
+        var elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        var duplicates = servedQuestions.values().stream().filter(count -> count.get() > 1).count();
+        var answers = getAnswersCount();
+        System.out.println(
+                "Requests: " + expectedAnswers + ", answers: " + answers + " (questions: " + servedQuestions.size() +
+                        ", sorry: " + sorryRepliesCount.get() + ", interim replies: " + interimRepliesCount.get() +
+                        "), questions served more than once: " + duplicates + ", took " + elapsedMillis + " ms"
+        );
+
+        loaderExecutor.shutdownNow();
+        asyncRepliesExecutor.shutdownNow();
+        bot.onClosing();
+
+        var isPassed = answers == expectedAnswers && duplicates == 0;
+        System.out.println(isPassed ? "PASSED" : "FAILED");
+        return isPassed;
+    }
+
+    private long getAnswersCount() {
+        return servedQuestions.values().stream().mapToLong(AtomicInteger::get).sum() + sorryRepliesCount.get();
+    }
+
+    // the questions arrive on another thread after a short delay, racing with the requests
+    private CompletableFuture<List<TriviaQuestion>> loadQuestions(int amount) {
+        var result = new CompletableFuture<List<TriviaQuestion>>();
+        loaderExecutor.schedule(
+                () -> result.complete(Fixtures.questions(nextQuestionNumber.getAndAdd(amount), amount)),
+                1,
+                TimeUnit.MILLISECONDS
+        );
+
+        return result;
+    }
+
+    private void onReply(BotApiMethod<?> reply) {
+        if (reply instanceof SendPoll poll) {
+            servedQuestions.computeIfAbsent(poll.getQuestion(), question -> new AtomicInteger()).incrementAndGet();
+        } else if (reply instanceof SendMessage message) {
+            if (message.getText().contains("please wait")) {
+                interimRepliesCount.incrementAndGet();
+            } else if (message.getText().startsWith("Sorry")) {
+                sorryRepliesCount.incrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package com.codevalue.archnext.benchmarks.load;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the startup of the bot built by the JavaNext module, from starting the process till the bot is registered
+ * with Telegram, i.e. the "Started in" line, and the resident memory of the process at that point, for every variant:
+ * the plain JVM, the JVM with an AppCDS archive and, when its path is given, the native executable.
+ * <p>
+ * The bot registers against a local stand-in for the Telegram Bot API, which answers every method with success
+ * and the long polling with no updates, and gets its questions from a local {@link TriviaApiStub}. The AppCDS
+ * archive is created by a training run against the same stubs, unless an archive is given.
+ * <p>
+ * Options: {@code --jar=<the jar of the appcds profile>} and (all optional) {@code --archive=<an AppCDS archive>
+ * --native=<the native executable> --runs=5}
+ */
+public class StartupBenchmark {
+    private static final String STARTED_LINE_PREFIX = "Started in";
+    private static final long START_TIMEOUT_SECONDS = 60;
+    private static final long POLL_DELAY_MILLIS = 1000;
+    private static final String OK_RESPONSE = "{\"ok\":true,\"result\":true}";
+    private static final String NO_UPDATES_RESPONSE = "{\"ok\":true,\"result\":[]}";
+
+    private final Map<String, String> options;
+    private final Map<String, String> environment = new HashMap<>();
+
+    public static void main(String[] args) throws Exception {
+        var options = new HashMap<String, String>();
+        for (var arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Options are expected in the --name=value form, got: " + arg);
+            }
+
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+
+        new StartupBenchmark(options).run();
+        System.exit(0);
+    }
+
+    public StartupBenchmark(Map<String, String> options) {
+        this.options = options;
+    }
+
+    public void run() throws Exception {
+        var jar = options.get("jar");
+        if (jar == null) throw new IllegalArgumentException("The --jar option is required");
+
+        var executor = Executors.newCachedThreadPool();
+        var telegramApi = startTelegramApiStub(executor);
+        try (var triviaApi = new TriviaApiStub(0, 0)) {
+            environment.put("BOT_TOKEN", "startup");
+            environment.put("TELEGRAM_API_URL", "http://127.0.0.1:" + telegramApi.getAddress().getPort() + "/bot");
+            environment.put("TRIVIA_API_URL", triviaApi.getUrl());
+            environment.put("SESSION_SNAPSHOT_PATH", "");
+            environment.put("QUESTION_CORPUS_PATH", "");
+            environment.put("METRICS_PORT", "0");
+
+            var archive = options.get("archive");
+            if (archive == null) {
+                archive = createArchive(jar).toString();
+            }
+
+            var variants = new LinkedHashMap<String, List<String>>();
+            variants.put("jvm", javaCommand(List.of("-jar", jar)));
+            variants.put("appcds", javaCommand(List.of("-XX:SharedArchiveFile=" + archive, "-jar", jar)));
+            if (options.containsKey("native")) {
+                variants.put("native", List.of(options.get("native")));
+            }
+
+            var runsCount = Integer.parseInt(options.getOrDefault("runs", "5"));
+            var results = new ArrayList<String>();
+            for (var variant : variants.entrySet()) {
+                // the first run warms up the file system caches
+                start(variant.getValue());
+                var startupsMillis = new ArrayList<Long>();
+                var rssesKb = new ArrayList<Long>();
+                for (int i = 0; i < runsCount; i++) {
+                    var startup = start(variant.getValue());
+                    startupsMillis.add(startup[0]);
+                    rssesKb.add(startup[1]);
+                }
+
+                var result = String.format(
+                        "%s: startup %d ms (min %d ms), RSS %d MB",
+                        variant.getKey(),
+                        median(startupsMillis),
+                        Collections.min(startupsMillis),
+                        median(rssesKb) / 1024
+                );
+                System.out.println(result);
+                results.add(result);
+            }
+
+            System.out.println("=== Results");
+            results.forEach(System.out::println);
+        } finally {
+            telegramApi.stop(0);
+            executor.shutdownNow();
+        }
+    }
+
+    // the startup milliseconds and the RSS kilobytes of the process once the bot is registered
+    private long[] start(List<String> command) throws Exception {
+        var processBuilder = new ProcessBuilder(command).redirectErrorStream(true);
+        processBuilder.environment().putAll(environment);
+        var startNanos = System.nanoTime();
+        var process = processBuilder.start();
+        var timeout = CompletableFuture.runAsync(
+                process::destroyForcibly,
+                CompletableFuture.delayedExecutor(START_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+        );
+        try (var output = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            var lines = new ArrayList<String>();
+            String line;
+            while ((line = output.readLine()) != null) {
+                if (line.startsWith(STARTED_LINE_PREFIX)) {
+                    var startupMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+                    return new long[]{startupMillis, getRssKb(process.pid())};
+                }
+
+                lines.add(line);
+            }
+
+            throw new IllegalStateException("The bot exited without starting:\n" + String.join("\n", lines));
+        } finally {
+            timeout.cancel(false);
+            process.destroy();
+            process.waitFor();
+        }
+    }
+
+    private Path createArchive(String jar) throws Exception {
+        var archive = Files.createTempFile("triviabot", ".jsa");
+        var processBuilder = new ProcessBuilder(
+                javaCommand(List.of("-XX:ArchiveClassesAtExit=" + archive, "-Xlog:cds=error", "-jar", jar))
+        ).inheritIO();
+        processBuilder.environment().putAll(environment);
+        processBuilder.environment().put("EXIT_AFTER_STARTUP", "true");
+        System.out.println("Creating the AppCDS archive " + archive + "...");
+        var exitCode = processBuilder.start().waitFor();
+        if (exitCode != 0) throw new IllegalStateException("The AppCDS training run exited with " + exitCode);
+
+        archive.toFile().deleteOnExit();
+        return archive;
+    }
+
+    // the bot runs with the JVM options of the benchmark, e.g. the --add-opens Guice needs on the later JDKs
+    private static List<String> javaCommand(List<String> arguments) {
+        var command = new ArrayList<String>();
+        command.add(ProcessHandle.current().info().command().orElse("java"));
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.add("--enable-preview");
+        command.addAll(arguments);
+        return command;
+    }
+
+    // any method succeeds, while the long polling waits a while before answering with no updates
+    private static HttpServer startTelegramApiStub(ExecutorService executor) throws IOException {
+        var server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", StartupBenchmark::handleTelegramRequest);
+        server.setExecutor(executor);
+        server.start();
+        return server;
+    }
+
+    private static void handleTelegramRequest(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            exchange.getRequestBody().readAllBytes();
+            var isPolling = exchange.getRequestURI().getPath().toLowerCase().endsWith("/getupdates");
+            if (isPolling) {
+                Thread.sleep(POLL_DELAY_MILLIS);
+            }
+
+            var body = (isPolling ? NO_UPDATES_RESPONSE : OK_RESPONSE).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // 0 where there is no procfs
+    private static long getRssKb(long pid) throws IOException {
+        var status = Path.of("/proc", Long.toString(pid), "status");
+        if (!Files.exists(status)) return 0;
+
+        for (var line : Files.readAllLines(status)) {
+            if (line.startsWith("VmRSS:")) {
+                return Long.parseLong(line.substring("VmRSS:".length()).replace("kB", "").trim());
+            }
+        }
+
+        return 0;
+    }
+
+    private static long median(List<Long> values) {
+        var sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        return sorted.get(sorted.size() / 2);
+    }
+}
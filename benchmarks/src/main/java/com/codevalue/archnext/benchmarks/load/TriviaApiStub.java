@@ -0,0 +1,201 @@
+package com.codevalue.archnext.benchmarks.load;
+
+import com.codevalue.archnext.benchmarks.Fixtures;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local stand-in for the trivia API serving {@code /api.php} with a configurable latency and error rate, and
+ * a share of slow responses taking ten times the latency. Every response contains questions never returned
+ * before, so the bot never runs out of them; the stubs hedged against each other should start their questions
+ * numbering far apart.
+ * <p>
+ * The session tokens of {@code /api_token.php} are supported as well: a token returns up to the token capacity
+ * of questions till it is reset, and {@link #expireTokens()} makes the API forget all the tokens.
+ * <p>
+ * The questions go round the {@link Fixtures#CATEGORIES} and {@link Fixtures#DIFFICULTIES}, unless they are
+ * requested by their category, listed by {@code /api_category.php}, or difficulty.
+ */
+public class TriviaApiStub implements AutoCloseable {
+    private static final String API_PATH = "/api.php";
+    private static final String TOKEN_API_PATH = "/api_token.php";
+    private static final String CATEGORY_API_PATH = "/api_category.php";
+    private static final String EMPTY_RESPONSE_FORMAT = "{\"response_code\":%d,\"results\":[]}";
+    private static final int MAX_AMOUNT = 50;
+    private static final int SLOW_LATENCY_FACTOR = 10;
+
+    private final long latencyMillis;
+    private final double errorRate;
+    private final double slowRate;
+    // 0 for unlimited
+    private final int tokenCapacity;
+    // the amount of questions left for each token
+    private final ConcurrentMap<String, AtomicInteger> tokens = new ConcurrentHashMap<>();
+    private final AtomicLong tokenRequestsCount = new AtomicLong();
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final AtomicInteger nextQuestionNumber;
+    private final AtomicLong requestsCount = new AtomicLong();
+    private final AtomicLong failedRequestsCount = new AtomicLong();
+
+    public TriviaApiStub(long latencyMillis, double errorRate) throws IOException {
+        this(latencyMillis, errorRate, 0, 0, 0);
+    }
+
+    public TriviaApiStub(
+            long latencyMillis,
+            double errorRate,
+            double slowRate,
+            int firstQuestionNumber,
+            int tokenCapacity
+    ) throws IOException {
+        this.latencyMillis = latencyMillis;
+        this.errorRate = errorRate;
+        this.slowRate = slowRate;
+        this.tokenCapacity = tokenCapacity;
+        nextQuestionNumber = new AtomicInteger(firstQuestionNumber);
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext(API_PATH, this::handle);
+        server.createContext(TOKEN_API_PATH, this::handleToken);
+        server.createContext(CATEGORY_API_PATH, this::handleCategory);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public String getUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + API_PATH;
+    }
+
+    public long getRequestsCount() {
+        return requestsCount.get();
+    }
+
+    public long getFailedRequestsCount() {
+        return failedRequestsCount.get();
+    }
+
+    // token requests and resets
+    public long getTokenRequestsCount() {
+        return tokenRequestsCount.get();
+    }
+
+    public void expireTokens() {
+        tokens.clear();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            requestsCount.incrementAndGet();
+            if (latencyMillis > 0) {
+                var isSlow = ThreadLocalRandom.current().nextDouble() < slowRate;
+                Thread.sleep(isSlow ? latencyMillis * SLOW_LATENCY_FACTOR : latencyMillis);
+            }
+
+            if (ThreadLocalRandom.current().nextDouble() < errorRate) {
+                failedRequestsCount.incrementAndGet();
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+
+            var query = exchange.getRequestURI().getRawQuery();
+            var amount = Math.min(Integer.parseInt(getParameter(query, "amount", "10")), MAX_AMOUNT);
+            var token = getParameter(query, "token", null);
+            if (token != null) {
+                var questionsLeft = tokens.get(token);
+                if (questionsLeft == null) {
+                    respond(exchange, String.format(EMPTY_RESPONSE_FORMAT, 3).getBytes(StandardCharsets.UTF_8));
+                    return;
+                }
+
+                if (tokenCapacity > 0 && questionsLeft.addAndGet(-amount) < 0) {
+                    // as the real API, "no results" when there are less questions left than asked for, "empty" when none
+                    var responseCode = questionsLeft.addAndGet(amount) > 0 ? 1 : 4;
+                    respond(exchange, String.format(EMPTY_RESPONSE_FORMAT, responseCode).getBytes(StandardCharsets.UTF_8));
+                    return;
+                }
+            }
+
+            var categoryId = Integer.parseInt(getParameter(query, "category", "0"));
+            var isCategoryKnown = categoryId >= Fixtures.FIRST_CATEGORY_ID &&
+                    categoryId < Fixtures.FIRST_CATEGORY_ID + Fixtures.CATEGORIES.size();
+            respond(exchange, Fixtures.questionsPayload(
+                    nextQuestionNumber.getAndAdd(amount),
+                    amount,
+                    isCategoryKnown ? Fixtures.CATEGORIES.get(categoryId - Fixtures.FIRST_CATEGORY_ID) : null,
+                    getParameter(query, "difficulty", null)
+            ));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void handleToken(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            tokenRequestsCount.incrementAndGet();
+            var query = exchange.getRequestURI().getRawQuery();
+            var command = getParameter(query, "command", "");
+            var token = getParameter(query, "token", "");
+            if ("request".equals(command)) {
+                token = UUID.randomUUID().toString().replace("-", "");
+            } else if (!"reset".equals(command) || !tokens.containsKey(token)) {
+                respond(exchange, "{\"response_code\":3}".getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+
+            tokens.put(token, new AtomicInteger(tokenCapacity));
+            respond(exchange, ("{\"response_code\":0,\"token\":\"" + token + "\"}").getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private void handleCategory(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            // the names are plain text there, unlike the categories of the questions
+            var json = new StringBuilder("{\"trivia_categories\":[");
+            for (int i = 0; i < Fixtures.CATEGORIES.size(); i++) {
+                if (i > 0) json.append(',');
+                json.append("{\"id\":").append(Fixtures.FIRST_CATEGORY_ID + i)
+                        .append(",\"name\":\"").append(Fixtures.CATEGORIES.get(i).replace("&amp;", "&")).append("\"}");
+            }
+
+            respond(exchange, json.append("]}").toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static void respond(HttpExchange exchange, byte[] body) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    private static String getParameter(String query, String name, String defaultValue) {
+        if (query != null) {
+            for (var parameter : query.split("&")) {
+                if (parameter.startsWith(name + "=")) {
+                    return parameter.substring(name.length() + 1);
+                }
+            }
+        }
+
+        return defaultValue;
+    }
+}
@@ -0,0 +1,220 @@
+package com.codevalue.archnext.benchmarks.load;
+
+import com.codevalue.archnext.LatencyHistogram;
+import com.codevalue.archnext.TriviaApiLoader;
+import com.codevalue.archnext.WebhookServer;
+import com.codevalue.archnext.benchmarks.Fixtures;
+import com.codevalue.archnext.benchmarks.StubbedTriviaBot;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * POSTs recorded updates to the bot's webhook over a number of concurrent connections, as Telegram does, and
+ * reports the acknowledged updates/sec and the acknowledgement latency. The updates are read from a file, one
+ * update JSON per line, or else are synthetic {@code /start} and {@code /next} streams of the given amount of users.
+ * <p>
+ * Without a URL the updates are posted to an embedded {@link WebhookServer} of a stubbed bot, which swallows
+ * the replies and gets its questions from a local {@link TriviaApiStub}; the replies rate is reported as well then.
+ * The stubbed bot dispatches the updates as in the webhook mode, in order per user.
+ * <p>
+ * Options (all optional): {@code --url=http://host:8443/updates/<secret> --secret-token=<the webhook's token>
+ * --updates-file=updates.jsonl --users=1000 --updates=200000 --connections=40 --webhook-threads=4
+ * --api-latency-millis=50}
+ */
+public class WebhookReplay {
+    private static final String WEBHOOK_PATH = "/updates";
+    private static final long REPLIES_DRAIN_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private final Map<String, String> options;
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final AtomicLong nextUpdateIndex = new AtomicLong();
+    private final AtomicLong acknowledgedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong repliesCount = new AtomicLong();
+
+    public static void main(String[] args) throws Exception {
+        var options = new HashMap<String, String>();
+        for (var arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Options are expected in the --name=value form, got: " + arg);
+            }
+
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+
+        new WebhookReplay(options).run();
+        // the HTTP client threads of the bot are not daemon ones
+        System.exit(0);
+    }
+
+    public WebhookReplay(Map<String, String> options) {
+        this.options = options;
+    }
+
+    public void run() throws Exception {
+        var updates = loadUpdates();
+        var updatesCount = getLongOption("updates", 200_000);
+        var connectionsCount = (int) getLongOption("connections", 40);
+
+        if (options.containsKey("url")) {
+            replay(URI.create(options.get("url")), updates, updatesCount, connectionsCount);
+            return;
+        }
+
+        if (System.getProperty("INGESTION_MODE") == null) {
+            System.setProperty("INGESTION_MODE", "WEBHOOK");
+        }
+
+        try (var api = new TriviaApiStub(getLongOption("api-latency-millis", 50), 0)) {
+            var asyncRepliesExecutor = Executors.newCachedThreadPool();
+            var bot = new StubbedTriviaBot(
+                    new TriviaApiLoader(api.getUrl()),
+                    reply -> repliesCount.incrementAndGet(),
+                    asyncRepliesExecutor
+            );
+            var server = new WebhookServer(
+                    "127.0.0.1",
+                    0,
+                    WEBHOOK_PATH,
+                    options.get("secret-token"),
+                    (int) getLongOption("webhook-threads", Runtime.getRuntime().availableProcessors()),
+                    bot::onUpdateReceived
+            );
+            server.start();
+
+            var startNanos = System.nanoTime();
+            replay(URI.create("http://127.0.0.1:" + server.getPort() + WEBHOOK_PATH), updates, updatesCount, connectionsCount);
+            awaitReplies();
+            var elapsedSeconds = (System.nanoTime() - startNanos) / 1e9;
+            System.out.printf(
+                    "bot: received %d, rejected %d, replies: %d (%.0f replies/s including the drain)%n",
+                    server.getReceivedCount(),
+                    server.getRejectedCount(),
+                    repliesCount.get(),
+                    repliesCount.get() / elapsedSeconds
+            );
+
+            server.stop();
+            asyncRepliesExecutor.shutdownNow();
+            bot.onClosing();
+        }
+    }
+
+    private void replay(URI uri, List<byte[]> updates, long updatesCount, int connectionsCount) throws Exception {
+        var client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .executor(Executors.newFixedThreadPool(connectionsCount))
+                .build();
+
+        System.out.println(
+                "Posting " + updatesCount + " updates to " + uri + " over " + connectionsCount + " connections..."
+        );
+        var startNanos = System.nanoTime();
+        var senders = new ArrayList<Thread>();
+        for (int i = 0; i < connectionsCount; i++) {
+            var sender = new Thread(() -> post(client, uri, updates, updatesCount), "webhook-sender-" + i);
+            sender.start();
+            senders.add(sender);
+        }
+
+        for (var sender : senders) {
+            sender.join();
+        }
+
+        var seconds = (System.nanoTime() - startNanos) / 1e9;
+        System.out.printf(
+                "posted in %.1fs: %.0f updates/s, acknowledged: %d, failed: %d, " +
+                        "ack latency p50: %.3f ms, p99: %.3f ms, p99.9: %.3f ms%n",
+                seconds,
+                acknowledgedCount.get() / seconds,
+                acknowledgedCount.get(),
+                failedCount.get(),
+                latencies.getValueAtPercentile(50) / 1e6,
+                latencies.getValueAtPercentile(99) / 1e6,
+                latencies.getValueAtPercentile(99.9) / 1e6
+        );
+    }
+
+    // every sender posts its next update only after the previous one is acknowledged, as a webhook connection does
+    private void post(HttpClient client, URI uri, List<byte[]> updates, long updatesCount) {
+        long index;
+        while ((index = nextUpdateIndex.getAndIncrement()) < updatesCount) {
+            var request = HttpRequest.newBuilder(uri)
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(updates.get((int) (index % updates.size()))));
+            if (options.containsKey("secret-token")) {
+                request.header("X-Telegram-Bot-Api-Secret-Token", options.get("secret-token"));
+            }
+
+            var sentNanos = System.nanoTime();
+            try {
+                var response = client.send(request.build(), HttpResponse.BodyHandlers.discarding());
+                if (response.statusCode() == 200) {
+                    latencies.record(System.nanoTime() - sentNanos);
+                    acknowledgedCount.incrementAndGet();
+                } else {
+                    failedCount.incrementAndGet();
+                }
+            } catch (IOException e) {
+                failedCount.incrementAndGet();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    // the replies keep coming after the last update is acknowledged, until the bot drains its queues
+    private void awaitReplies() throws InterruptedException {
+        var deadline = System.currentTimeMillis() + REPLIES_DRAIN_TIMEOUT_MILLIS;
+        var lastCount = -1L;
+        while (repliesCount.get() != lastCount && System.currentTimeMillis() < deadline) {
+            lastCount = repliesCount.get();
+            Thread.sleep(500);
+        }
+    }
+
+    private List<byte[]> loadUpdates() throws IOException {
+        var updates = new ArrayList<byte[]>();
+        if (options.containsKey("updates-file")) {
+            for (var line : Files.readAllLines(Path.of(options.get("updates-file")))) {
+                if (!line.isBlank()) {
+                    updates.add(line.getBytes(StandardCharsets.UTF_8));
+                }
+            }
+
+            if (updates.isEmpty()) throw new IllegalArgumentException("No updates in " + options.get("updates-file"));
+            return updates;
+        }
+
+        // all the users start first and then keep asking for the next questions
+        var usersCount = getLongOption("users", 1000);
+        for (long id = 1; id <= usersCount; id++) {
+            updates.add(Fixtures.textMessageJson(id, "/start").getBytes(StandardCharsets.UTF_8));
+        }
+
+        for (long id = 1; id <= usersCount; id++) {
+            updates.add(Fixtures.textMessageJson(id, "/next").getBytes(StandardCharsets.UTF_8));
+        }
+
+        return updates;
+    }
+
+    private long getLongOption(String name, long defaultValue) {
+        return options.containsKey(name) ? Long.parseLong(options.get(name)) : defaultValue;
+    }
+}